@@ -2,8 +2,12 @@ package io.github.miquelo.maven.plugin.packer;
 
 import static java.util.concurrent.Executors.newFixedThreadPool;
 
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import org.apache.maven.plugin.AbstractMojo;
@@ -16,7 +20,11 @@ import io.github.miquelo.tools.packer.PackerCommand;
 import io.github.miquelo.tools.packer.PackerCommandException;
 import io.github.miquelo.tools.packer.PackerCommandFailureException;
 import io.github.miquelo.tools.packer.PackerCommandLogger;
+import io.github.miquelo.tools.packer.PackerCommandResult;
 import io.github.miquelo.tools.packer.PackerCommandTask;
+import io.github.miquelo.tools.packer.PackerErrorLevel;
+import io.github.miquelo.tools.packer.PackerOutputBackpressure;
+import io.github.miquelo.tools.packer.PackerOutputBatchConsumer;
 import io.github.miquelo.tools.packer.PackerOutputMessage;
 
 public abstract class AbstractPackerMojo
@@ -33,11 +41,43 @@ extends AbstractMojo
     )
     private boolean skip;
     
+    /**
+     * What happens to Packer output messages when logging does not keep up
+     * with them. It is {@code BLOCK}, which waits for logging and may make
+     * Packer block on write, {@code DROP_VERBOSE}, which drops UI messages
+     * other than {@code say} and {@code error} ones, or {@code SPILL}, which
+     * keeps them on a temporary file until logging catches up.
+     */
+    @Parameter(
+        defaultValue="BLOCK"
+    )
+    private PackerOutputBackpressure outputBackpressure;
+    
+    /**
+     * Level Packer error output is logged with. It is {@code DEBUG} by
+     * default, since it is mostly written when {@code PACKER_LOG} is set.
+     * Its last lines are logged as errors anyway when Packer fails.
+     */
+    @Parameter(
+        defaultValue="DEBUG"
+    )
+    private PackerErrorLevel errorOutputLevel;
+    
+    /**
+     * File Packer error output is also written to. It is not written to any
+     * file by default.
+     */
+    @Parameter
+    private File errorOutputFile;
+    
     protected AbstractPackerMojo()
     {
         commandExecutorService = newFixedThreadPool(1);
         commandLogger = new MojoPackerCommandLogger(this::getLog);
         skip = false;
+        outputBackpressure = PackerOutputBackpressure.BLOCK;
+        errorOutputLevel = PackerErrorLevel.DEBUG;
+        errorOutputFile = null;
     }
     
     @Override
@@ -49,16 +89,7 @@ extends AbstractMojo
             if (skip)
                 getLog().info("Execution skipped...");
             else
-            {
-                PackerCommandTask task = new PackerCommandTask(
-                    commandLogger,
-                    this::acceptOutputMessage,
-                    command());
-                commandExecutorService.submit(task, task)
-                    .get()
-                    .get()
-                    .success();
-            }
+                run();
         }
         catch (
             InterruptedException |
@@ -73,10 +104,134 @@ extends AbstractMojo
         }
     }
     
-    protected abstract PackerCommand command();
+    /**
+     * Logger passed to executed commands.
+     */
+    protected final PackerCommandLogger getCommandLogger()
+    {
+        return commandLogger;
+    }
+    
+    /**
+     * Execute the given command, waiting for its result.
+     * 
+     * @param command
+     *     Command to be executed.
+     * @param messageConsumer
+     *     Consumer of command output messages.
+     *     
+     * @return
+     *     Result of command execution.
+     */
+    protected final PackerCommandResult commandExecute(
+        PackerCommand command,
+        Consumer<PackerOutputMessage> messageConsumer)
+    throws InterruptedException, ExecutionException
+    {
+        PackerCommandTask task = new PackerCommandTask(
+            commandLogger,
+            messageConsumer,
+            command);
+        return commandExecutorService.submit(task, task)
+            .get()
+            .get();
+    }
+    
+    /**
+     * Execute the given command, waiting for its result, passing its output
+     * messages in batches. Batches are passed from a single thread in output
+     * order, unless {@link #isOutputConsumerThreadSafe()} holds, in which
+     * case batches of different Packer builders may be passed in parallel.
+     * 
+     * @param command
+     *     Command to be executed.
+     * @param batchConsumer
+     *     Consumer of command output message batches.
+     *     
+     * @return
+     *     Result of command execution.
+     */
+    protected final PackerCommandResult commandBatchExecute(
+        PackerCommand command,
+        PackerOutputBatchConsumer batchConsumer)
+    throws InterruptedException, ExecutionException
+    {
+        PackerCommandTask task = new PackerCommandTask(
+            commandLogger,
+            batchConsumer,
+            outputBackpressure,
+            isOutputConsumerThreadSafe(),
+            errorOutputLevel,
+            Optional.ofNullable(errorOutputFile),
+            command);
+        return commandExecutorService.submit(task, task)
+            .get()
+            .get();
+    }
+    
+    /**
+     * Run this goal. By default, it executes the command once.
+     */
+    protected void run()
+    throws
+        InterruptedException,
+        ExecutionException,
+        PackerCommandException,
+        PackerCommandFailureException
+    {
+        commandBatchExecute(command(), this::acceptOutputMessages).success();
+        completed();
+    }
     
+    protected abstract PackerCommand command()
+    throws
+        InterruptedException,
+        ExecutionException,
+        PackerCommandException,
+        PackerCommandFailureException;
+    
+    /**
+     * Accept a command output message.
+     * 
+     * By default, messages are accepted one at a time and in output order,
+     * but not always from the same thread. When {@link #isOutputConsumerThreadSafe()} holds,
+     * messages of different Packer builders may be accepted concurrently,
+     * and messages without any builder may be accepted before previous
+     * messages of some builder. Messages of the same builder are always
+     * accepted in order.
+     */
     protected abstract void acceptOutputMessage(PackerOutputMessage message);
     
+    /**
+     * Accept a batch of command output messages. By default, it accepts each
+     * one of them in order. It has the same concurrency contract as
+     * {@link #acceptOutputMessage(PackerOutputMessage)}.
+     */
+    protected void acceptOutputMessages(List<PackerOutputMessage> messages)
+    {
+        messages.forEach(this::acceptOutputMessage);
+    }
+    
+    /**
+     * Whether output messages may be accepted concurrently, so logging does
+     * not need to wait for other builders. It does not hold by default.
+     */
+    protected boolean isOutputConsumerThreadSafe()
+    {
+        return false;
+    }
+    
+    /**
+     * Called once the command has been executed successfully or ignored.
+     * 
+     * @throws PackerCommandException
+     *     If command results cannot be obtained.
+     */
+    protected void completed()
+    throws PackerCommandException
+    {
+    }
+    
     private static class MojoPackerCommandLogger
     implements PackerCommandLogger
     {
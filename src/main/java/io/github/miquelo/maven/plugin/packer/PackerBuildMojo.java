@@ -5,6 +5,9 @@ import static io.github.miquelo.tools.packer.PackerOutputMessage
     .DATA_UI_MESSAGE;
 import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_SAY;
 import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .withNonCryptographic;
+import static java.lang.String.format;
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 
@@ -12,10 +15,15 @@ import java.io.File;
 import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -23,9 +31,12 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
-import io.github.miquelo.tools.packer.PackerCommand;
+import io.github.miquelo.tools.packer.PackerCommandException;
+import io.github.miquelo.tools.packer.PackerCommandFailureException;
 import io.github.miquelo.tools.packer.PackerOutputMessage;
+import io.github.miquelo.tools.packer.commands.FingerprintStrategy;
 import io.github.miquelo.tools.packer.commands.PackerBuildCommand;
+import io.github.miquelo.tools.packer.commands.PackerVersionCommand;
 
 /**
  * Run a Packer build command.
@@ -33,9 +44,20 @@ import io.github.miquelo.tools.packer.commands.PackerBuildCommand;
 @Mojo(
     name="build"
 )
-public final class PackerBuildMojo
+public class PackerBuildMojo
 extends AbstractPackerMojo
 {
+    private static final Set<String> DEFAULT_FINGERPRINT_EXCLUDES = Stream.of(
+        ".git/",
+        "packer_cache/",
+        "output-*/")
+        .collect(toSet());
+    
+    private static final String INPUT_HASH_PROPERTY = "packer.inputHash";
+    private static final String FINGERPRINTING_CONTEXT_KEY =
+        "packer.fingerprinting";
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+    
     @Parameter(
         required=true,
         readonly=true,
@@ -52,6 +74,96 @@ extends AbstractPackerMojo
     )
     private File inputDirectory;
     
+    /**
+     * Number of threads used to compute input files fingerprint. Zero for the
+     * number of available processors.
+     */
+    @Parameter(
+        defaultValue="0"
+    )
+    private int fingerprintThreads;
+    
+    /**
+     * Digest algorithm used to compute input files fingerprint. Any algorithm
+     * supported by the JVM, or {@code MURMUR3-128} for a much faster
+     * non-cryptographic hash that is enough for change detection, or
+     * {@code GIT-BLOB} to take hashes of clean files tracked by Git from the
+     * repository index instead of reading them.
+     */
+    @Parameter(
+        defaultValue="SHA-256"
+    )
+    private String fingerprintAlgorithm;
+    
+    /**
+     * Whether every input file must be hashed on each build, even those whose
+     * size, last modified time and file key did not change.
+     */
+    @Parameter(
+        defaultValue="false"
+    )
+    private boolean fingerprintParanoid;
+    
+    /**
+     * Whether only the template, its variable files and the local files it
+     * references, such as provisioner scripts or the HTTP directory, must be
+     * fingerprinted. Every file in input directory is fingerprinted when
+     * disabled, or when some reference cannot be resolved.
+     */
+    @Parameter(
+        defaultValue="false"
+    )
+    private boolean fingerprintTemplateDependencies;
+    
+    /**
+     * Globs of input files that must be fingerprinted, relative to input
+     * directory. Globs without separator match file names at any depth. Empty
+     * for all.
+     */
+    @Parameter
+    private Set<String> fingerprintIncludes;
+    
+    /**
+     * Globs of input files and directories that must not be fingerprinted,
+     * relative to input directory. Globs without separator match names at any
+     * depth, and matching directories are not descended into. Globs ending
+     * with a separator only match directories. Defaults to {@code .git/},
+     * {@code packer_cache/} and {@code output-*}{@code /}.
+     */
+    @Parameter
+    private Set<String> fingerprintExcludes;
+    
+    /**
+     * Fingerprint strategy of input files matching each glob, which are the
+     * property names. Strategies are {@code full}, which hashes the whole
+     * content, {@code sampled}, which hashes size, head, tail and some evenly
+     * spaced blocks, and {@code metadata}, which only hashes size, last
+     * modified time and file key. The most thorough one is taken when several
+     * globs match the same file. Files not matching any glob are fingerprinted
+     * fully.
+     */
+    @Parameter
+    private Properties fingerprintStrategies;
+    
+    /**
+     * Whether hashes of input files must be kept on
+     * {@code fingerprintCacheFile} between builds. They are always shared by
+     * every execution of the same session.
+     */
+    @Parameter(
+        defaultValue="false"
+    )
+    private boolean fingerprintCachePersistent;
+    
+    /**
+     * File where hashes of input files are kept between builds.
+     */
+    @Parameter(
+        defaultValue="${settings.localRepository}/.cache/packer-maven-plugin"
+            + "/fingerprints"
+    )
+    private File fingerprintCacheFile;
+    
     /**
      * Whether must be some change for this build in order to be executed.
      */
@@ -68,6 +180,34 @@ extends AbstractPackerMojo
     )
     private boolean invalidateOnFailure;
     
+    /**
+     * Whether results of builds must be kept, so a build with the same input
+     * files, Packer version and arguments as a cached one restores its
+     * artifact files instead of being executed again.
+     */
+    @Parameter(
+        defaultValue="false"
+    )
+    private boolean buildCache;
+    
+    /**
+     * Directory where results of builds are kept.
+     */
+    @Parameter(
+        defaultValue="${settings.localRepository}/.cache/packer-maven-plugin"
+            + "/builds"
+    )
+    private File buildCacheDirectory;
+    
+    /**
+     * Maximum size in megabytes of all results kept on build cache directory.
+     * Least recently used results are deleted when it is exceeded.
+     */
+    @Parameter(
+        defaultValue="10240"
+    )
+    private long buildCacheMaxSize;
+    
     /**
      * Template path relative to input directory.
      */
@@ -109,28 +249,83 @@ extends AbstractPackerMojo
     @Parameter
     private Set<String> varFiles;
     
+    private String packerVersion;
+    private PackerBuildCommand command;
+    
     public PackerBuildMojo()
     {
         project = null;
         inputDirectory = null;
+        fingerprintThreads = 0;
+        fingerprintAlgorithm = null;
+        fingerprintParanoid = false;
+        fingerprintTemplateDependencies = false;
+        fingerprintIncludes = null;
+        fingerprintExcludes = null;
+        fingerprintStrategies = null;
+        fingerprintCachePersistent = false;
+        fingerprintCacheFile = null;
         changesNeeded = false;
         invalidateOnFailure = false;
+        buildCache = false;
+        buildCacheDirectory = null;
+        buildCacheMaxSize = 0L;
         templatePath = null;
         force = false;
         only = null;
         except = null;
         vars = null;
         varFiles = null;
+        packerVersion = null;
+        command = null;
     }
     
     @Override
-    protected PackerCommand command()
+    protected PackerBuildCommand command()
+    throws
+        InterruptedException,
+        ExecutionException,
+        PackerCommandException,
+        PackerCommandFailureException
+    {
+        if (packerVersion == null)
+        {
+            PackerVersionCommand versionCommand = new PackerVersionCommand();
+            commandExecute(versionCommand, message -> {}).success();
+            packerVersion = versionCommand.getVersion()
+                .orElseThrow(() -> new PackerCommandException(
+                    "Packer version could not be determined"));
+        }
+        fingerprintingAwait();
+        return command(packerVersion);
+    }
+    
+    /**
+     * Build command for the given Packer version.
+     */
+    protected final PackerBuildCommand command(String packerVersion)
+    throws PackerCommandException
     {
-        return new PackerBuildCommand(
-            MessageDigest::getInstance,
+        command = new PackerBuildCommand(
+            withNonCryptographic(MessageDigest::getInstance),
+            fingerprintAlgorithm,
             inputDirectory,
+            fingerprintThreads,
+            fingerprintParanoid,
+            fingerprintTemplateDependencies,
+            Optional.ofNullable(fingerprintIncludes)
+                .orElseGet(Collections::emptySet),
+            Optional.ofNullable(fingerprintExcludes)
+                .orElse(DEFAULT_FINGERPRINT_EXCLUDES),
+            fingerprintStrategiesGet(),
+            Optional.ofNullable(fingerprintCacheFile)
+                .filter(file -> fingerprintCachePersistent),
             changesNeeded,
             invalidateOnFailure,
+            packerVersion,
+            Optional.ofNullable(buildCacheDirectory)
+                .filter(dir -> buildCache),
+            buildCacheMaxSize * BYTES_PER_MEGABYTE,
             templatePath,
             force,
             Optional.ofNullable(only)
@@ -154,8 +349,91 @@ extends AbstractPackerMojo
                 .collect(toMap(e -> e.getKey().toString(), Entry::getValue)),
             Optional.ofNullable(varFiles)
                 .orElseGet(Collections::emptySet));
+        return command;
     }
-
+    
+    private Map<String, FingerprintStrategy> fingerprintStrategiesGet()
+    throws PackerCommandException
+    {
+        Map<String, FingerprintStrategy> strategies = new HashMap<>();
+        if (fingerprintStrategies == null)
+            return strategies;
+        for (String glob : fingerprintStrategies.stringPropertyNames())
+        {
+            String strategy = fingerprintStrategies.getProperty(glob).trim();
+            try
+            {
+                strategies.put(glob, FingerprintStrategy.valueOf(
+                    strategy.toUpperCase(Locale.ROOT)));
+            }
+            catch (IllegalArgumentException exception)
+            {
+                throw new PackerCommandException(
+                    format(
+                        "Unknown fingerprint strategy %s for %s",
+                        strategy,
+                        glob),
+                    exception);
+            }
+        }
+        return strategies;
+    }
+    
+    /**
+     * Publish the given ongoing fingerprinting of input files, so the next
+     * build of this project for the same input directory waits for it before
+     * fingerprinting them.
+     */
+    protected final void fingerprintingPublish(Future<?> fingerprinting)
+    {
+        project.setContextValue(fingerprintingContextKey(), fingerprinting);
+    }
+    
+    private void fingerprintingAwait()
+    throws InterruptedException
+    {
+        String key = fingerprintingContextKey();
+        Object fingerprinting = project.getContextValue(key);
+        if (fingerprinting instanceof Future)
+        {
+            project.setContextValue(key, null);
+            getLog().info("Waiting for input files fingerprinting...");
+            try
+            {
+                ((Future<?>) fingerprinting).get();
+            }
+            catch (ExecutionException exception)
+            {
+                getLog().warn(
+                    "Input files could not be fingerprinted ahead",
+                    exception.getCause());
+            }
+        }
+    }
+    
+    private String fingerprintingContextKey()
+    {
+        return format(
+            "%s:%s",
+            FINGERPRINTING_CONTEXT_KEY,
+            inputDirectory.getAbsolutePath());
+    }
+    
+    /**
+     * Publish input files Merkle root hash as {@code packer.inputHash}
+     * project property.
+     */
+    @Override
+    protected void completed()
+    throws PackerCommandException
+    {
+        Optional<String> inputHash = command.getInputHash();
+        if (inputHash.isPresent())
+            project.getProperties().setProperty(
+                INPUT_HASH_PROPERTY,
+                inputHash.get());
+    }
+    
     @Override
     protected void acceptOutputMessage(PackerOutputMessage message)
     {
@@ -0,0 +1,60 @@
+package io.github.miquelo.maven.plugin.packer;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import io.github.miquelo.tools.packer.PackerCommandException;
+import io.github.miquelo.tools.packer.commands.PackerBuildCommand;
+
+/**
+ * Fingerprint input files of a later Packer build in background.
+ * 
+ * It returns at once, so input files are hashed while the rest of the
+ * lifecycle runs. The {@code build} goal of the same project and input
+ * directory waits for it and takes the calculated hashes instead of reading
+ * input files again. It takes the same fingerprint parameters as that goal.
+ */
+@Mojo(
+    name="fingerprint",
+    defaultPhase=LifecyclePhase.PREPARE_PACKAGE
+)
+public final class PackerFingerprintMojo
+extends PackerBuildMojo
+{
+    // Packer version does not take part on input file hashes
+    private static final String ANY_PACKER_VERSION = "any";
+    
+    private static final String FINGERPRINTING_THREAD_NAME =
+        "packer-fingerprint";
+    
+    public PackerFingerprintMojo()
+    {
+    }
+    
+    @Override
+    protected void run()
+    throws PackerCommandException
+    {
+        PackerBuildCommand command = command(ANY_PACKER_VERSION);
+        CompletableFuture<Void> fingerprinting = new CompletableFuture<>();
+        Thread thread = new Thread(
+            () -> {
+                try
+                {
+                    command.fingerprint(getCommandLogger());
+                    fingerprinting.complete(null);
+                }
+                catch (PackerCommandException | RuntimeException exception)
+                {
+                    fingerprinting.completeExceptionally(exception);
+                }
+            },
+            FINGERPRINTING_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+        fingerprintingPublish(fingerprinting);
+        getLog().info("Fingerprinting input files in background...");
+    }
+}
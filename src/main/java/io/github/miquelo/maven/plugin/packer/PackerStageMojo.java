@@ -0,0 +1,192 @@
+package io.github.miquelo.maven.plugin.packer;
+
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .withNonCryptographic;
+import static java.lang.String.format;
+import static java.util.Collections.emptySet;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.component.configurator.expression
+    .ExpressionEvaluationException;
+
+import io.github.miquelo.tools.packer.PackerCommandException;
+import io.github.miquelo.tools.packer.commands.InputStaging;
+
+/**
+ * Stage input files of a later Packer build from their sources.
+ * 
+ * Files are hard linked into input directory instead of being copied, unless
+ * they must be filtered. Filtered files are hashed while they are staged, so
+ * the {@code build} goal of the same session does not read them again. Files
+ * already up to date are left untouched.
+ */
+@Mojo(
+    name="stage",
+    defaultPhase=LifecyclePhase.PACKAGE
+)
+public final class PackerStageMojo
+extends AbstractMojo
+{
+    private static final String EXPRESSION_FORMAT = "${%s}";
+    
+    @Parameter(
+        required=true,
+        readonly=true,
+        defaultValue="${session}"
+    )
+    private MavenSession session;
+    
+    @Parameter(
+        required=true,
+        readonly=true,
+        defaultValue="${mojoExecution}"
+    )
+    private MojoExecution mojoExecution;
+    
+    /**
+     * Input directory files are staged into.
+     */
+    @Parameter(
+        required=false,
+        defaultValue="${project.build.directory}/packer/input"
+    )
+    private File inputDirectory;
+    
+    /**
+     * Digest algorithm of the later build. It must be the same as its
+     * {@code fingerprintAlgorithm} for filtered files hashes to be taken.
+     */
+    @Parameter(
+        defaultValue="SHA-256"
+    )
+    private String fingerprintAlgorithm;
+    
+    /**
+     * Encoding of filtered files.
+     */
+    @Parameter(
+        defaultValue="${project.build.sourceEncoding}"
+    )
+    private String encoding;
+    
+    /**
+     * Sources of staged files.
+     */
+    @Parameter(
+        required=true
+    )
+    private List<StageSource> stageSources;
+    
+    /**
+     * Whether this execution must be skipped.
+     */
+    @Parameter(
+        defaultValue="false"
+    )
+    private boolean skip;
+    
+    public PackerStageMojo()
+    {
+        session = null;
+        mojoExecution = null;
+        inputDirectory = null;
+        fingerprintAlgorithm = null;
+        encoding = null;
+        stageSources = null;
+        skip = false;
+    }
+    
+    @Override
+    public void execute()
+    throws MojoExecutionException
+    {
+        if (skip)
+        {
+            getLog().info("Execution skipped...");
+            return;
+        }
+        
+        InputStaging staging = new InputStaging(
+            withNonCryptographic(MessageDigest::getInstance),
+            fingerprintAlgorithm,
+            inputDirectory);
+        PluginParameterExpressionEvaluator evaluator =
+            new PluginParameterExpressionEvaluator(session, mojoExecution);
+        Charset charset = encoding == null
+            ? Charset.defaultCharset()
+            : Charset.forName(encoding);
+        try
+        {
+            for (StageSource source : stageSources)
+            {
+                int staged = source.isFiltering()
+                    ? staging.filter(
+                        source.getDirectory(),
+                        targetPath(source),
+                        globs(source.getIncludes()),
+                        globs(source.getExcludes()),
+                        charset,
+                        expression -> value(evaluator, expression))
+                    : staging.link(
+                        source.getDirectory(),
+                        targetPath(source),
+                        globs(source.getIncludes()),
+                        globs(source.getExcludes()));
+                getLog().info(format(
+                    "Staged %d changed files from %s",
+                    staged,
+                    source.getDirectory()));
+            }
+        }
+        catch (PackerCommandException exception)
+        {
+            throw new MojoExecutionException("Staging error", exception);
+        }
+    }
+    
+    private Optional<String> value(
+        PluginParameterExpressionEvaluator evaluator,
+        String expression)
+    {
+        try
+        {
+            return Optional.ofNullable(evaluator.evaluate(format(
+                EXPRESSION_FORMAT,
+                expression)))
+                .map(String::valueOf);
+        }
+        catch (ExpressionEvaluationException exception)
+        {
+            getLog().debug(exception);
+            return Optional.empty();
+        }
+    }
+    
+    private static String targetPath(StageSource source)
+    {
+        return source.getTargetPath() == null
+            ? ""
+            : source.getTargetPath();
+    }
+    
+    private static Set<String> globs(Set<String> globs)
+    {
+        return globs == null
+            ? emptySet()
+            : globs;
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.miquelo.maven.plugin.packer;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import io.github.miquelo.tools.packer.PackerCommandException;
+import io.github.miquelo.tools.packer.PackerCommandFailureException;
+import io.github.miquelo.tools.packer.commands.InputWatcher;
+import io.github.miquelo.tools.packer.commands.PackerBuildCommand;
+
+/**
+ * Run a Packer build command each time input files change.
+ * 
+ * It runs until it is interrupted. Build failures and errors, such as input
+ * files that cannot be read or a template that cannot be parsed, are logged
+ * and watching goes on.
+ */
+@Mojo(
+    name="watch"
+)
+public final class PackerWatchMojo
+extends PackerBuildMojo
+{
+    /**
+     * Milliseconds without changes on input files before a build is run, so
+     * a burst of changes results in a single build.
+     */
+    @Parameter(
+        defaultValue="500"
+    )
+    private long watchQuietPeriod;
+    
+    public PackerWatchMojo()
+    {
+        watchQuietPeriod = 0L;
+    }
+    
+    @Override
+    protected void run()
+    throws
+        InterruptedException,
+        ExecutionException,
+        PackerCommandException,
+        PackerCommandFailureException
+    {
+        try (InputWatcher watcher = command().watch())
+        {
+            watch(getLog(), watcher, watchQuietPeriod, () -> {
+                PackerBuildCommand command = command();
+                command.watch(watcher);
+                commandBatchExecute(command, this::acceptOutputMessages)
+                    .success();
+                completed();
+            });
+        }
+        catch (IOException exception)
+        {
+            throw new PackerCommandException(exception);
+        }
+    }
+    
+    /**
+     * Run the given build, and again each time input files change, until
+     * the calling thread is interrupted.
+     */
+    static void watch(
+        Log log,
+        InputWatcher watcher,
+        long quietPeriod,
+        Build build)
+    throws InterruptedException, ExecutionException, IOException
+    {
+        while (true)
+        {
+            try
+            {
+                build.run();
+            }
+            catch (PackerCommandException exception)
+            {
+                log.error("Command error", exception);
+            }
+            catch (PackerCommandFailureException exception)
+            {
+                log.error("Command failure", exception);
+            }
+            
+            log.info("Waiting for changes on input files...");
+            Set<Path> changes = watcher.awaitChanges(quietPeriod);
+            log.info(format("%d input files have changed", changes.size()));
+        }
+    }
+    
+    /**
+     * Single build of watched input files.
+     */
+    @FunctionalInterface
+    interface Build
+    {
+        void run()
+        throws
+            InterruptedException,
+            ExecutionException,
+            PackerCommandException,
+            PackerCommandFailureException;
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.miquelo.maven.plugin.packer;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Source of files staged into input directory by the {@code stage} goal.
+ */
+public class StageSource
+{
+    /**
+     * Directory files are staged from.
+     */
+    private File directory;
+    
+    /**
+     * Path relative to input directory where files are staged. Files are
+     * staged right into input directory by default.
+     */
+    private String targetPath;
+    
+    /**
+     * Globs of files that must be staged, relative to source directory.
+     * Every file is staged by default.
+     */
+    private Set<String> includes;
+    
+    /**
+     * Globs of files and directories that must not be staged, relative to
+     * source directory.
+     */
+    private Set<String> excludes;
+    
+    /**
+     * Whether {@code ${expression}} occurrences of staged files must be
+     * replaced. Files which are not filtered are linked instead of copied.
+     */
+    private boolean filtering;
+    
+    public StageSource()
+    {
+        directory = null;
+        targetPath = null;
+        includes = null;
+        excludes = null;
+        filtering = false;
+    }
+    
+    public File getDirectory()
+    {
+        return directory;
+    }
+    
+    public String getTargetPath()
+    {
+        return targetPath;
+    }
+    
+    public Set<String> getIncludes()
+    {
+        return includes;
+    }
+    
+    public Set<String> getExcludes()
+    {
+        return excludes;
+    }
+    
+    public boolean isFiltering()
+    {
+        return filtering;
+    }
+}
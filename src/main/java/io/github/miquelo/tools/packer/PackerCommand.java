@@ -54,6 +54,17 @@ public interface PackerCommand
     boolean init(PackerCommandLogger logger, TimeoutHandler timeoutHandler)
     throws PackerCommandException, TimeoutException;
     
+    /**
+     * Callback called for each output message of command execution, before
+     * it is passed to the task message consumer.
+     * 
+     * @param message
+     *     Output message.
+     */
+    default void onOutputMessage(PackerOutputMessage message)
+    {
+    }
+    
     /**
      * Callback called when command succeeds.
      */
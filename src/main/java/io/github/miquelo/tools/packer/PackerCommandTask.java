@@ -4,16 +4,19 @@ import static io.github.miquelo.tools.packer.PackerExecution
     .SUPPORTED_LAUNCHERS;
 import static java.lang.Runtime.getRuntime;
 import static java.lang.String.format;
+import static java.lang.System.lineSeparator;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Stream.concat;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -31,10 +34,24 @@ import java.util.stream.Stream;
 public final class PackerCommandTask
 implements RunnableFuture<PackerCommandResult>
 {
+    private static final String READER_THREAD_NAME = "packer-output-reader";
+    
+    private static final ExecutorService OUTPUT_READERS = newCachedThreadPool(
+        runnable -> {
+            Thread thread = new Thread(runnable, READER_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    
     private final PackerExecutionBuilder executionBuilder;
     private final TimeoutHandlerBuilder timeoutHandlerBuilder;
     private final PackerCommandLogger logger;
-    private final Consumer<PackerOutputMessage> messageConsumer;
+    private final PackerOutputBatchConsumer batchConsumer;
+    private final int batchSize;
+    private final Optional<PackerOutputBackpressure> backpressure;
+    private final int partitions;
+    private final PackerErrorLevel errorLevel;
+    private final Optional<File> errorFile;
     private final PackerCommand command;
     
     private final AtomicBoolean started;
@@ -44,6 +61,8 @@ implements RunnableFuture<PackerCommandResult>
     private final AtomicReference<ExecutionException> executionException;
     private final AtomicReference<TimeoutException> timeoutException;
     private final AtomicReference<PackerExecution> execution;
+    private final AtomicReference<Thread> initializing;
+    private final Object handover;
     
     /**
      * Command task with its logger, its output message consumer and the
@@ -70,17 +89,157 @@ implements RunnableFuture<PackerCommandResult>
             command);
     }
     
+    /**
+     * Command task with its logger, its output message batch consumer and
+     * the command to be executed, waiting for the consumer when it does not
+     * keep up with output.
+     * 
+     * @see #PackerCommandTask(PackerCommandLogger, PackerOutputBatchConsumer,
+     *     PackerOutputBackpressure, PackerCommand)
+     */
+    public PackerCommandTask(
+        PackerCommandLogger logger,
+        PackerOutputBatchConsumer batchConsumer,
+        PackerCommand command)
+    {
+        this(logger, batchConsumer, PackerOutputBackpressure.BLOCK, command);
+    }
+    
+    /**
+     * Command task with its logger, its output message batch consumer, its
+     * backpressure policy and the command to be executed.
+     * 
+     * Batches are consumed on their own threads, partitioned by message
+     * target, so output keeps being read while they are consumed. Messages
+     * of the same target are consumed in order, while messages without any
+     * target may be consumed before previous messages of some target.
+     * 
+     * @param logger
+     *     Logger for this task, that is also available for executed command.
+     * @param batchConsumer
+     *     Thread safe consumer for the batches of output messages produced by
+     *     Packer command execution, of up to
+     *     {@link PackerOutputBatchConsumer#DEFAULT_BATCH_SIZE} messages.
+     * @param backpressure
+     *     What happens to output messages when the consumer does not keep up
+     *     with them.
+     * @param command
+     *     Command to be executed by this task.
+     */
+    public PackerCommandTask(
+        PackerCommandLogger logger,
+        PackerOutputBatchConsumer batchConsumer,
+        PackerOutputBackpressure backpressure,
+        PackerCommand command)
+    {
+        this(
+            logger,
+            batchConsumer,
+            backpressure,
+            true,
+            PackerErrorLevel.DEBUG,
+            Optional.empty(),
+            command);
+    }
+    
+    /**
+     * Command task with its logger, its output message batch consumer, its
+     * backpressure policy, the handling of Packer error output and the
+     * command to be executed.
+     * 
+     * Error output is drained while standard output is read, so Packer never
+     * blocks on it. Its last lines are logged with ERROR level when Packer
+     * fails.
+     * 
+     * @param consumerThreadSafe
+     *     Whether batches may be consumed in parallel. Otherwise, they are
+     *     consumed on a single thread, in output order.
+     * @param errorLevel
+     *     Level error output lines are logged with.
+     * @param errorFile
+     *     File error output is also written to, if any.
+     * 
+     * @see #PackerCommandTask(PackerCommandLogger, PackerOutputBatchConsumer,
+     *     PackerOutputBackpressure, PackerCommand)
+     */
+    public PackerCommandTask(
+        PackerCommandLogger logger,
+        PackerOutputBatchConsumer batchConsumer,
+        PackerOutputBackpressure backpressure,
+        boolean consumerThreadSafe,
+        PackerErrorLevel errorLevel,
+        Optional<File> errorFile,
+        PackerCommand command)
+    {
+        this(
+            PackerCommandTask::executionBuild,
+            RelevantTimeoutHandler::new,
+            logger,
+            batchConsumer,
+            PackerOutputBatchConsumer.DEFAULT_BATCH_SIZE,
+            Optional.of(backpressure),
+            consumerThreadSafe ? PackerOutputPipeline.DEFAULT_PARTITIONS : 1,
+            errorLevel,
+            errorFile,
+            command);
+    }
+    
     PackerCommandTask(
         PackerExecutionBuilder executionBuilder,
         TimeoutHandlerBuilder timeoutHandlerBuilder,
         PackerCommandLogger logger,
         Consumer<PackerOutputMessage> messageConsumer,
         PackerCommand command)
+    {
+        this(
+            executionBuilder,
+            timeoutHandlerBuilder,
+            logger,
+            messageEachAccept(messageConsumer),
+            1,
+            Optional.empty(),
+            1,
+            PackerErrorLevel.DEBUG,
+            Optional.empty(),
+            command);
+    }
+    
+    /**
+     * Command task complete constructor.
+     * 
+     * @param batchSize
+     *     Maximum amount of messages of output batches.
+     * @param backpressure
+     *     Backpressure policy of the pipeline output batches go through, or
+     *     empty if they must be consumed synchronously while output is read.
+     * @param partitions
+     *     Amount of threads of the pipeline output batches go through.
+     * @param errorLevel
+     *     Level error output lines are logged with.
+     * @param errorFile
+     *     File error output is also written to, if any.
+     */
+    PackerCommandTask(
+        PackerExecutionBuilder executionBuilder,
+        TimeoutHandlerBuilder timeoutHandlerBuilder,
+        PackerCommandLogger logger,
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
+        Optional<PackerOutputBackpressure> backpressure,
+        int partitions,
+        PackerErrorLevel errorLevel,
+        Optional<File> errorFile,
+        PackerCommand command)
     {
         this.executionBuilder = requireNonNull(executionBuilder);
         this.timeoutHandlerBuilder = requireNonNull(timeoutHandlerBuilder);
         this.logger = requireNonNull(logger);
-        this.messageConsumer = requireNonNull(messageConsumer);
+        this.batchConsumer = requireNonNull(batchConsumer);
+        this.batchSize = batchSize;
+        this.backpressure = requireNonNull(backpressure);
+        this.partitions = partitions;
+        this.errorLevel = requireNonNull(errorLevel);
+        this.errorFile = requireNonNull(errorFile);
         this.command = requireNonNull(command);
         
         started = new AtomicBoolean(false);
@@ -90,6 +249,8 @@ implements RunnableFuture<PackerCommandResult>
         executionException = new AtomicReference<>();
         timeoutException = new AtomicReference<>();
         execution = new AtomicReference<>();
+        initializing = new AtomicReference<>();
+        handover = new Object();
     }
     
     /**
@@ -130,6 +291,8 @@ implements RunnableFuture<PackerCommandResult>
     throws InterruptedException, ExecutionException
     {
         complete(IrrelevantTimeoutHandler.INSTANCE, false);
+        if (cancelled.get())
+            throw new CancellationException();
         if (executionException.get() != null)
             throw executionException.get();
         return resultGet();
@@ -147,6 +310,8 @@ implements RunnableFuture<PackerCommandResult>
             timeout,
             unit);
         complete(timeoutHandler, false);
+        if (cancelled.get())
+            throw new CancellationException();
         if (executionException.get() != null)
             throw executionException.get();
         if (timeoutException.get() != null)
@@ -156,18 +321,36 @@ implements RunnableFuture<PackerCommandResult>
     
     /**
      * Cancel this task.
+     * 
+     * While the command is being initialized, its thread is interrupted when
+     * it may be interrupted, so commands doing a long initialization can
+     * abort it. Packer is not executed once the task has been cancelled.
      */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning)
     {
         if (cancelled.get())
             return true;
-        if (execution.get() != null &&
-            executionException.get() == null &&
-            mayInterruptIfRunning)
-            cancelled.set(execution.get().interrupt());
-        else
-            cancelled.set(true);
+        PackerExecution current;
+        synchronized (handover)
+        {
+            Thread initializingThread = initializing.get();
+            if (initializingThread != null && mayInterruptIfRunning)
+            {
+                cancelled.set(true);
+                initializingThread.interrupt();
+                return true;
+            }
+            current = execution.get();
+            if (current == null
+                || executionException.get() != null
+                || !mayInterruptIfRunning)
+            {
+                cancelled.set(true);
+                return true;
+            }
+        }
+        cancelled.set(current.interrupt());
         return cancelled.get();
     }
     
@@ -188,7 +371,7 @@ implements RunnableFuture<PackerCommandResult>
             resultLock.writeLock().lock();
             getRuntime().addShutdownHook(shutdownHook);
             
-            if (command.init(logger, timeoutHandler.checkIt()))
+            if (commandInit(timeoutHandler.checkIt()))
             {
                 File workingDir = command.getWorkingDir()
                     .orElseGet(PackerCommandTask::defaultWorkingDir);
@@ -202,14 +385,29 @@ implements RunnableFuture<PackerCommandResult>
                         .collect(joining(", ")),
                     workingDir.getAbsolutePath()));
                 
-                execution.set(executionBuilder.build(
-                    messageConsumer,
-                    workingDir,
-                    command.getName(),
-                    command.getArguments()));
-                int errorCode = execution.get().errorCode(
-                    timeoutHandler.checkIt());
-                execution.set(null);
+                Optional<PackerOutputPipeline> pipeline = backpressure.map(
+                    policy -> new PackerOutputPipeline(
+                        batchConsumer,
+                        batchSize,
+                        policy,
+                        partitions,
+                        PackerOutputPipeline.DEFAULT_CAPACITY));
+                PackerOutputBatchConsumer outputConsumer = pipeline.isPresent()
+                    ? pipeline.get()
+                    : batchConsumer;
+                int errorCode;
+                List<String> errorTail;
+                try
+                {
+                    executionStart(outputConsumer, workingDir);
+                    errorCode = executionAwait(timeoutHandler);
+                    errorTail = execution.getAndSet(null).getErrorTail();
+                }
+                finally
+                {
+                    if (pipeline.isPresent())
+                        pipelineClose(pipeline.get());
+                }
                 
                 if (errorCode == 0)
                 {
@@ -218,6 +416,7 @@ implements RunnableFuture<PackerCommandResult>
                 }
                 else
                 {
+                    errorTailLog(errorTail);
                     PackerCommandFailureCode failureCode =
                         command.mapFailureCode(errorCode);
                     command.onFailure(failureCode);
@@ -246,6 +445,64 @@ implements RunnableFuture<PackerCommandResult>
         }
     }
     
+    private boolean commandInit(TimeoutHandler timeoutHandler)
+    throws PackerCommandException, TimeoutException
+    {
+        synchronized (handover)
+        {
+            initializing.set(Thread.currentThread());
+        }
+        try
+        {
+            return command.init(logger, timeoutHandler);
+        }
+        finally
+        {
+            synchronized (handover)
+            {
+                initializing.set(null);
+                
+                // Interruption of a cancelled init must not reach execution
+                if (cancelled.get())
+                    Thread.interrupted();
+            }
+        }
+    }
+    
+    private void executionStart(
+        PackerOutputBatchConsumer outputConsumer,
+        File workingDir)
+    throws IOException, InterruptedException
+    {
+        synchronized (handover)
+        {
+            if (cancelled.get())
+                throw new CancellationException();
+            execution.set(executionBuilder.build(
+                messages -> messagesAccept(messages, outputConsumer),
+                batchSize,
+                line -> errorLevel.log(logger, line),
+                errorFile,
+                workingDir,
+                command.getName(),
+                command.getArguments()));
+        }
+    }
+    
+    private int executionAwait(TimeoutHandler timeoutHandler)
+    throws InterruptedException, TimeoutException
+    {
+        try
+        {
+            return execution.get().errorCode(timeoutHandler.checkIt());
+        }
+        catch (InterruptedException exception)
+        {
+            execution.get().interrupt();
+            throw exception;
+        }
+    }
+    
     private PackerCommandResult resultGet()
     {
         try
@@ -276,31 +533,70 @@ implements RunnableFuture<PackerCommandResult>
         }
     }
     
+    private void messagesAccept(
+        List<PackerOutputMessage> messages,
+        PackerOutputBatchConsumer outputConsumer)
+    {
+        messages.forEach(command::onOutputMessage);
+        outputConsumer.accept(messages);
+    }
+    
+    private void pipelineClose(PackerOutputPipeline pipeline)
+    throws InterruptedException, IOException
+    {
+        pipeline.close();
+        if (pipeline.getDropped() > 0L)
+            logger.warn(format(
+                "%d verbose output messages were dropped",
+                pipeline.getDropped()));
+    }
+    
+    private void errorTailLog(List<String> errorTail)
+    {
+        if (!errorTail.isEmpty())
+            logger.error(format(
+                "Packer error output ended with:%n%s",
+                String.join(lineSeparator(), errorTail)));
+    }
+    
     private void aborted()
     {
         command.onAbort();
         logger.warn("Packer execution aborted");
     }
     
+    private static PackerOutputBatchConsumer messageEachAccept(
+        Consumer<PackerOutputMessage> messageConsumer)
+    {
+        requireNonNull(messageConsumer);
+        return messages -> messages.forEach(messageConsumer);
+    }
+    
     private static File defaultWorkingDir()
     {
         return new File(System.getProperty("user.dir"));
     }  
     
     private static PackerExecution executionBuild(
-        Consumer<PackerOutputMessage> messageConsumer,
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
+        Consumer<String> errorLineConsumer,
+        Optional<File> errorFile,
         File workingDir,
         String name,
         List<Object> args)
     throws IOException, InterruptedException
     {
     	return new PackerExecution(
-    	    messageConsumer,
+    	    batchConsumer,
+    	    batchSize,
+    	    errorLineConsumer,
+    	    errorFile,
     	    workingDir,
     	    name,
     	    args,
     	    SUPPORTED_LAUNCHERS,
-    	    newFixedThreadPool(1));
+    	    OUTPUT_READERS);
     }
 }
 
@@ -308,7 +604,10 @@ implements RunnableFuture<PackerCommandResult>
 interface PackerExecutionBuilder
 {
     PackerExecution build(
-        Consumer<PackerOutputMessage> messageConsumer,
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
+        Consumer<String> errorLineConsumer,
+        Optional<File> errorFile,
         File workingDir,
         String name,
         List<Object> args)
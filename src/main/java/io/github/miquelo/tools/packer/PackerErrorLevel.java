@@ -0,0 +1,58 @@
+package io.github.miquelo.tools.packer;
+
+/**
+ * Level Packer error output lines are logged with.
+ */
+public enum PackerErrorLevel
+{
+    /**
+     * Lines are logged with DEBUG level, which fits the verbose logs written
+     * when {@code PACKER_LOG} is set.
+     */
+    DEBUG
+    {
+        @Override
+        void log(PackerCommandLogger logger, String line)
+        {
+            logger.debug(line);
+        }
+    },
+    
+    /**
+     * Lines are logged with INFO level.
+     */
+    INFO
+    {
+        @Override
+        void log(PackerCommandLogger logger, String line)
+        {
+            logger.info(line);
+        }
+    },
+    
+    /**
+     * Lines are logged with WARN level.
+     */
+    WARN
+    {
+        @Override
+        void log(PackerCommandLogger logger, String line)
+        {
+            logger.warn(line);
+        }
+    },
+    
+    /**
+     * Lines are logged with ERROR level.
+     */
+    ERROR
+    {
+        @Override
+        void log(PackerCommandLogger logger, String line)
+        {
+            logger.error(line);
+        }
+    };
+    
+    abstract void log(PackerCommandLogger logger, String line);
+}
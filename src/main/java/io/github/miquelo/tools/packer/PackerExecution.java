@@ -1,15 +1,33 @@
 package io.github.miquelo.tools.packer;
 
-import static java.lang.Long.parseLong;
+import static java.nio.charset.CodingErrorAction.REPLACE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedWriter;
 import static java.time.Instant.ofEpochMilli;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -25,6 +43,7 @@ class PackerExecution
     
     private final Process process;
     private final PackerOutputReaderTask outputReaderTask;
+    private final PackerErrorReaderTask errorReaderTask;
     
     PackerExecution(
         Consumer<PackerOutputMessage> messageConsumer,
@@ -35,15 +54,86 @@ class PackerExecution
         Executor messageConsumerExecutor)
     throws IOException, InterruptedException
     {
-        process = Stream.of(launchers)
-            .filter(ProcessLauncher::compatible)
-            .findAny()
-            .orElseThrow(IllegalArgumentException::new)
-            .launch(workingDir, name, args);
+        this(
+            messages -> messages.forEach(messageConsumer),
+            1,
+            workingDir,
+            name,
+            args,
+            launchers,
+            messageConsumerExecutor);
+    }
+    
+    PackerExecution(
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
+        File workingDir,
+        String name,
+        List<Object> args,
+        ProcessLauncher[] launchers,
+        Executor messageConsumerExecutor)
+    throws IOException, InterruptedException
+    {
+        this(
+            batchConsumer,
+            batchSize,
+            line -> {},
+            Optional.empty(),
+            workingDir,
+            name,
+            args,
+            launchers,
+            messageConsumerExecutor);
+    }
+    
+    /**
+     * Execution reading standard and error output of Packer at the same time,
+     * so the given executor must be able to run two tasks concurrently.
+     * 
+     * @param errorLineConsumer
+     *     Consumer of error output lines.
+     * @param errorFile
+     *     File error output is also written to, if any.
+     */
+    PackerExecution(
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
+        Consumer<String> errorLineConsumer,
+        Optional<File> errorFile,
+        File workingDir,
+        String name,
+        List<Object> args,
+        ProcessLauncher[] launchers,
+        Executor messageConsumerExecutor)
+    throws IOException, InterruptedException
+    {
+        Optional<BufferedWriter> errorOutput = errorFile.isPresent()
+            ? Optional.of(newBufferedWriter(errorFile.get().toPath(), UTF_8))
+            : Optional.empty();
+        try
+        {
+            process = Stream.of(launchers)
+                .filter(ProcessLauncher::compatible)
+                .findAny()
+                .orElseThrow(IllegalArgumentException::new)
+                .launch(workingDir, name, args);
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            if (errorOutput.isPresent())
+                errorOutput.get().close();
+            throw exception;
+        }
         outputReaderTask = new PackerOutputReaderTask(
-            messageConsumer,
+            batchConsumer,
+            batchSize,
             process.getInputStream());
+        errorReaderTask = new PackerErrorReaderTask(
+            errorLineConsumer,
+            errorOutput,
+            process.getErrorStream());
         messageConsumerExecutor.execute(outputReaderTask);
+        messageConsumerExecutor.execute(errorReaderTask);
     }
     
     public int errorCode(TimeoutHandler timeoutHandler)
@@ -56,14 +146,17 @@ class PackerExecution
                 timeoutHandler.getUnit()))
             {
                 outputReaderTask.awaitTermination();
+                errorReaderTask.awaitTermination();
                 return process.exitValue();
             }
             process.destroy();
             outputReaderTask.awaitTermination();
+            errorReaderTask.awaitTermination();
             throw new TimeoutException();
         }
         int code = process.waitFor();
         outputReaderTask.awaitTermination();
+        errorReaderTask.awaitTermination();
         return code;
     }
     
@@ -71,24 +164,100 @@ class PackerExecution
     {
         process.destroy();
         outputReaderTask.awaitTermination();
+        try
+        {
+            errorReaderTask.awaitTermination();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+        }
         return !process.isAlive();
     }
+    
+    /**
+     * Last lines of error output, at most
+     * {@link PackerErrorReaderTask#TAIL_LINES} of them, for failure reports.
+     */
+    public List<String> getErrorTail()
+    {
+        return errorReaderTask.getTail();
+    }
 }
 
+/**
+ * Reader of Packer machine-readable output.
+ * 
+ * Output is read into a reusable byte buffer and split into lines and parts
+ * at the byte level, which is safe since separators and escape sequences are
+ * ASCII and never appear inside UTF-8 multi-byte sequences. The timestamp is
+ * parsed straight from its bytes, data parts are unescaped in place and only
+ * then the parts of the message are decoded as UTF-8, regardless of the
+ * platform default charset, with a reusable decoder.
+ * 
+ * Messages are delivered in batches, which are flushed when they are full,
+ * when their first message has been waiting for longer than the batch delay
+ * or before blocking for further output. Since available output is not
+ * reliable on pipes, a shared timer flushes batches which have been waiting
+ * for too long while reading is blocked.
+ */
 class PackerOutputReaderTask
 implements Runnable
 {
-    private final Consumer<PackerOutputMessage> messageConsumer;
-    private final BufferedReader reader;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long BATCH_DELAY = MILLISECONDS.toNanos(50L);
+    private static final String FLUSH_THREAD_NAME = "packer-output-flush";
+    
+    private static final ScheduledExecutorService FLUSH_TIMER =
+        newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, FLUSH_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    
+    private static final byte SEPARATOR = ',';
+    private static final byte[] ESCAPED_SEPARATOR = "%!(PACKER_COMMA)"
+        .getBytes(US_ASCII);
+    private static final byte ESCAPE = '\\';
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    
+    private final PackerOutputBatchConsumer batchConsumer;
+    private final int batchSize;
+    private final InputStream input;
     private final Lock terminationLock;
+    private final Lock batchLock;
+    private final CharsetDecoder decoder;
+    private final List<String> dataParts;
+    private byte[] buffer;
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+    private List<PackerOutputMessage> batch;
+    private long batchStart;
+    private int position;
+    private int lineEnd;
     
     PackerOutputReaderTask(
-        Consumer<PackerOutputMessage> messageConsumer,
+        PackerOutputBatchConsumer batchConsumer,
+        int batchSize,
         InputStream input)
     {
-        this.messageConsumer = messageConsumer;
-        reader = new BufferedReader(new InputStreamReader(input));
+        this.batchConsumer = batchConsumer;
+        this.batchSize = batchSize;
+        this.input = input;
         terminationLock = new ReentrantLock();
+        batchLock = new ReentrantLock();
+        decoder = UTF_8.newDecoder()
+            .onMalformedInput(REPLACE)
+            .onUnmappableCharacter(REPLACE);
+        dataParts = new ArrayList<>();
+        buffer = new byte[BUFFER_SIZE];
+        bytes = ByteBuffer.wrap(buffer);
+        chars = CharBuffer.allocate(BUFFER_SIZE);
+        batch = new ArrayList<>(batchSize);
+        batchStart = 0L;
+        position = 0;
+        lineEnd = 0;
     }
 
     @Override
@@ -98,9 +267,11 @@ implements Runnable
         {
             terminationLock.lock();
             
-            reader.lines()
-                .map(PackerOutputReaderTask::messageParts)
-                .forEach(this::messageAccept);
+            linesRead();
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
         }
         finally
         {
@@ -120,15 +291,70 @@ implements Runnable
         }
     }
     
-    private void messageAccept(String[] parts)
+    private void linesRead()
+    throws IOException
+    {
+        int lineStart = 0;
+        int scanned = 0;
+        int filled = 0;
+        while (true)
+        {
+            for (; scanned < filled; ++scanned)
+                if (buffer[scanned] == LINE_FEED)
+                {
+                    messageAccept(lineStart, scanned);
+                    lineStart = scanned + 1;
+                }
+            
+            if (lineStart > 0)
+            {
+                System.arraycopy(
+                    buffer,
+                    lineStart,
+                    buffer,
+                    0,
+                    filled - lineStart);
+                filled -= lineStart;
+                scanned -= lineStart;
+                lineStart = 0;
+            }
+            else if (filled == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                bytes = ByteBuffer.wrap(buffer);
+            }
+            
+            if (input.available() == 0)
+                batchFlush();
+            int read = input.read(buffer, filled, buffer.length - filled);
+            if (read < 0)
+            {
+                if (filled > 0)
+                    messageAccept(0, filled);
+                batchFlush();
+                return;
+            }
+            filled += read;
+        }
+    }
+    
+    private void messageAccept(int lineStart, int lineEnd)
     {
         try
         {
-            messageConsumer.accept(new PackerOutputMessageImpl(
-                ofEpochMilli(parseLong(parts[0]) * 1000L),
-                parts[1],
-                parts[2],
-                formatData(parts, 3)));
+            position = lineStart;
+            this.lineEnd = lineEnd > lineStart
+                && buffer[lineEnd - 1] == CARRIAGE_RETURN
+                ? lineEnd - 1
+                : lineEnd;
+            long timestamp = timestampPart();
+            String target = part();
+            String type = part();
+            batchAdd(new PackerOutputMessageImpl(
+                ofEpochMilli(timestamp * 1000L),
+                target,
+                type,
+                dataParts()));
         }
         catch (RuntimeException exception)
         {
@@ -136,24 +362,330 @@ implements Runnable
         }
     }
     
-    private static String[] messageParts(String message)
+    private void batchAdd(PackerOutputMessage message)
     {
-        return message.split(",", -1);
+        try
+        {
+            batchLock.lock();
+            
+            if (batch.isEmpty())
+            {
+                long start = System.nanoTime();
+                batchStart = start;
+                batchExpireSchedule(start);
+            }
+            batch.add(message);
+            if (batch.size() >= batchSize
+                || System.nanoTime() - batchStart >= BATCH_DELAY)
+                batchFlush();
+        }
+        finally
+        {
+            batchLock.unlock();
+        }
     }
     
-    private static String[] formatData(String[] parts, int from)
+    private void batchFlush()
     {
-        String[] data = new String[parts.length - from];
-        for (int i = from; i < parts.length; ++i)
-            data[i - from] = formatDataPart(parts[i]);
-        return data;
+        try
+        {
+            batchLock.lock();
+            
+            if (batch.isEmpty())
+                return;
+            List<PackerOutputMessage> messages = batch;
+            batch = new ArrayList<>(batchSize);
+            batchConsumer.accept(messages);
+        }
+        catch (RuntimeException exception)
+        {
+            // Consumer failures do not stop reading output...
+        }
+        finally
+        {
+            batchLock.unlock();
+        }
     }
     
-    private static String formatDataPart(String part)
+    private void batchExpireSchedule(long start)
     {
-        return part.replace("%!(PACKER_COMMA)", ",")
-            .replace("\\n", "\n")
-            .replace("\\r", "\r");
+        FLUSH_TIMER.schedule(
+            () -> batchExpire(start),
+            BATCH_DELAY,
+            NANOSECONDS);
+    }
+    
+    // Timer must not wait for a consumer while other batches expire
+    private void batchExpire(long start)
+    {
+        if (!batchLock.tryLock())
+        {
+            batchExpireSchedule(start);
+            return;
+        }
+        try
+        {
+            if (!batch.isEmpty() && batchStart == start)
+                batchFlush();
+        }
+        finally
+        {
+            batchLock.unlock();
+        }
+    }
+    
+    private long timestampPart()
+    {
+        int start = position;
+        int end = separatorIndex(start);
+        boolean signed = end > start
+            && (buffer[start] == '-' || buffer[start] == '+');
+        if (end == lineEnd || end < start + (signed ? 2 : 1))
+            throw new NumberFormatException("Malformed timestamp");
+        long timestamp = 0L;
+        for (int i = signed ? start + 1 : start; i < end; ++i)
+        {
+            int digit = Character.digit(buffer[i], 10);
+            if (digit < 0)
+                throw new NumberFormatException("Malformed timestamp");
+            timestamp = Math.addExact(
+                Math.multiplyExact(timestamp, 10L),
+                digit);
+        }
+        position = end + 1;
+        return buffer[start] == '-'
+            ? -timestamp
+            : timestamp;
+    }
+    
+    private String part()
+    {
+        if (position > lineEnd)
+            throw new IllegalStateException("Missing part");
+        int start = position;
+        int end = separatorIndex(start);
+        position = end + 1;
+        return decoded(start, end);
+    }
+    
+    private String[] dataParts()
+    {
+        dataParts.clear();
+        while (position <= lineEnd)
+            dataParts.add(dataPart());
+        return dataParts.toArray(new String[dataParts.size()]);
+    }
+    
+    private String dataPart()
+    {
+        int start = position;
+        int written = start;
+        int i = start;
+        while (i < lineEnd && buffer[i] != SEPARATOR)
+            if (buffer[i] == ESCAPED_SEPARATOR[0] && escapedSeparatorAt(i))
+            {
+                buffer[written++] = SEPARATOR;
+                i += ESCAPED_SEPARATOR.length;
+            }
+            else if (buffer[i] == ESCAPE
+                && i + 1 < lineEnd
+                && (buffer[i + 1] == 'n' || buffer[i + 1] == 'r'))
+            {
+                buffer[written++] = buffer[i + 1] == 'n'
+                    ? LINE_FEED
+                    : CARRIAGE_RETURN;
+                i += 2;
+            }
+            else
+                buffer[written++] = buffer[i++];
+        position = i + 1;
+        return decoded(start, written);
+    }
+    
+    private int separatorIndex(int from)
+    {
+        int i = from;
+        while (i < lineEnd && buffer[i] != SEPARATOR)
+            ++i;
+        return i;
+    }
+    
+    private boolean escapedSeparatorAt(int index)
+    {
+        if (index + ESCAPED_SEPARATOR.length > lineEnd)
+            return false;
+        for (int i = 1; i < ESCAPED_SEPARATOR.length; ++i)
+            if (buffer[index + i] != ESCAPED_SEPARATOR[i])
+                return false;
+        return true;
+    }
+    
+    private String decoded(int start, int end)
+    {
+        // UTF-8 never decodes to more chars than bytes
+        if (chars.capacity() < end - start)
+            chars = CharBuffer.allocate(buffer.length);
+        bytes.limit(end).position(start);
+        chars.clear();
+        decoder.reset();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+}
+
+/**
+ * Drain of Packer error output.
+ * 
+ * Error output is read alongside standard output, so Packer never blocks on
+ * a full error pipe. Each line is passed to the given consumer and written to
+ * the given output, if any, and the last ones are kept for failure reports.
+ * Lines longer than {@link #LINE_LENGTH} are truncated, so a line without end
+ * never exhausts memory, and they are truncated further on the tail, so it
+ * stays bounded.
+ */
+class PackerErrorReaderTask
+implements Runnable
+{
+    static final int TAIL_LINES = 50;
+    static final int LINE_LENGTH = 64 * 1024;
+    private static final int TAIL_LINE_LENGTH = 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final char LINE_FEED = '\n';
+    private static final char CARRIAGE_RETURN = '\r';
+    
+    private final Consumer<String> lineConsumer;
+    private final InputStream input;
+    private final Deque<String> tail;
+    private final CountDownLatch termination;
+    private Optional<BufferedWriter> output;
+    
+    PackerErrorReaderTask(
+        Consumer<String> lineConsumer,
+        Optional<BufferedWriter> output,
+        InputStream input)
+    {
+        this.lineConsumer = lineConsumer;
+        this.input = input;
+        tail = new ArrayDeque<>(TAIL_LINES);
+        termination = new CountDownLatch(1);
+        this.output = output;
+    }
+    
+    @Override
+    public void run()
+    {
+        try (Reader reader = new InputStreamReader(input, UTF_8))
+        {
+            linesRead(reader);
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+        finally
+        {
+            outputClose();
+            termination.countDown();
+        }
+    }
+    
+    void awaitTermination()
+    throws InterruptedException
+    {
+        termination.await();
+    }
+    
+    List<String> getTail()
+    {
+        synchronized (tail)
+        {
+            return new ArrayList<>(tail);
+        }
+    }
+    
+    private void linesRead(Reader reader)
+    throws IOException
+    {
+        char[] chars = new char[BUFFER_SIZE];
+        StringBuilder line = new StringBuilder();
+        boolean pending = false;
+        int read;
+        while ((read = reader.read(chars)) >= 0)
+            for (int i = 0; i < read; ++i)
+                if (chars[i] == LINE_FEED)
+                {
+                    lineAccept(lineEnded(line));
+                    pending = false;
+                }
+                else
+                {
+                    if (line.length() < LINE_LENGTH)
+                        line.append(chars[i]);
+                    pending = true;
+                }
+        if (pending)
+            lineAccept(lineEnded(line));
+    }
+    
+    private static String lineEnded(StringBuilder line)
+    {
+        int length = line.length();
+        String ended = length > 0 && line.charAt(length - 1) == CARRIAGE_RETURN
+            ? line.substring(0, length - 1)
+            : line.toString();
+        line.setLength(0);
+        return ended;
+    }
+    
+    private void lineAccept(String line)
+    {
+        synchronized (tail)
+        {
+            if (tail.size() == TAIL_LINES)
+                tail.removeFirst();
+            tail.addLast(line.length() > TAIL_LINE_LENGTH
+                ? line.substring(0, TAIL_LINE_LENGTH)
+                : line);
+        }
+        if (output.isPresent())
+            try
+            {
+                output.get().write(line);
+                output.get().newLine();
+                output.get().flush();
+            }
+            catch (IOException exception)
+            {
+                // Error output keeps being drained without writing it...
+                outputClose();
+            }
+        try
+        {
+            lineConsumer.accept(line);
+        }
+        catch (RuntimeException exception)
+        {
+            // Consumer failures do not stop reading error output...
+        }
+    }
+    
+    private void outputClose()
+    {
+        try
+        {
+            if (output.isPresent())
+                output.get().close();
+        }
+        catch (IOException exception)
+        {
+            // Error output file is left as it is...
+        }
+        finally
+        {
+            output = Optional.empty();
+        }
     }
 }
 
@@ -0,0 +1,27 @@
+package io.github.miquelo.tools.packer;
+
+/**
+ * What happens to Packer output messages when their consumer does not keep
+ * up with them and the buffer between them is full.
+ */
+public enum PackerOutputBackpressure
+{
+    /**
+     * Output reading waits for the consumer, so Packer may block on write.
+     */
+    BLOCK,
+    
+    /**
+     * Verbose UI messages, which are the UI messages other than
+     * {@link PackerOutputMessage#DATA_UI_SAY} and
+     * {@link PackerOutputMessage#DATA_UI_ERROR} ones, are dropped. Output
+     * reading waits for the consumer on any other message.
+     */
+    DROP_VERBOSE,
+    
+    /**
+     * Messages are spilled to a temporary file, and they are delivered from
+     * it once the consumer catches up. Output reading never waits.
+     */
+    SPILL;
+}
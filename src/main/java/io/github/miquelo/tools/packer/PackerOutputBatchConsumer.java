@@ -0,0 +1,26 @@
+package io.github.miquelo.tools.packer;
+
+import java.util.List;
+
+/**
+ * Consumer of Packer output messages delivered in batches.
+ * 
+ * Messages are flushed once a batch is full, once its first message has been
+ * waiting for too long or once Packer has not written any further output, so
+ * consumers can amortize locking, I/O and formatting without delaying output
+ * when Packer is quiet.
+ */
+@FunctionalInterface
+public interface PackerOutputBatchConsumer
+{
+    /**
+     * Default maximum amount of messages of a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    
+    /**
+     * Accept the given batch of messages, in output order. The given list is
+     * never empty and it is owned by this consumer from then on.
+     */
+    void accept(List<PackerOutputMessage> messages);
+}
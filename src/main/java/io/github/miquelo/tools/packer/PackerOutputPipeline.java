@@ -0,0 +1,551 @@
+package io.github.miquelo.tools.packer;
+
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_ERROR;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_SAY;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.Instant.ofEpochMilli;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pipeline between Packer output reading and its consumer.
+ * 
+ * Messages are dispatched to partitions by their target. Each partition has
+ * a preallocated ring buffer drained by its own thread, so messages of the
+ * same target keep their order while the ones of different targets are
+ * consumed in parallel. The consumer must be thread safe when there are
+ * several partitions.
+ * 
+ * Once a ring buffer is full, the given backpressure policy chooses between
+ * waiting for its thread, dropping verbose messages or spilling messages to
+ * a temporary file. Spilled messages are delivered before any later message
+ * of the same partition. They are queued and written a batch at a time, and
+ * both writing and reading them happen out of the partition lock, so neither
+ * reading output nor the partition thread waits for the other's disk I/O
+ * just to queue or take buffered messages. The spill file is truncated each
+ * time every message written to it has been read back.
+ * 
+ * Failures never stop output from being read. Consumer failures do not stop
+ * draining either, while a partition failing to spill or to read spilled
+ * messages discards any further message. In both cases, the first failure is
+ * thrown once the pipeline is closed.
+ */
+class PackerOutputPipeline
+implements PackerOutputBatchConsumer
+{
+    static final int DEFAULT_PARTITIONS = 4;
+    static final int DEFAULT_CAPACITY = 1024;
+    
+    private static final String THREAD_NAME_FORMAT = "packer-output-%d";
+    private static final String SPILL_FILE_PREFIX = "packer-output-";
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+    
+    private final PackerOutputBatchConsumer consumer;
+    private final int batchSize;
+    private final PackerOutputBackpressure backpressure;
+    private final Partition[] partitions;
+    private final AtomicLong dropped;
+    private final AtomicReference<Exception> failure;
+    
+    PackerOutputPipeline(
+        PackerOutputBatchConsumer consumer,
+        int batchSize,
+        PackerOutputBackpressure backpressure)
+    {
+        this(
+            consumer,
+            batchSize,
+            backpressure,
+            DEFAULT_PARTITIONS,
+            DEFAULT_CAPACITY);
+    }
+    
+    PackerOutputPipeline(
+        PackerOutputBatchConsumer consumer,
+        int batchSize,
+        PackerOutputBackpressure backpressure,
+        int partitions,
+        int capacity)
+    {
+        this.consumer = requireNonNull(consumer);
+        this.batchSize = batchSize;
+        this.backpressure = requireNonNull(backpressure);
+        this.partitions = new Partition[partitions];
+        dropped = new AtomicLong(0L);
+        failure = new AtomicReference<>();
+        for (int i = 0; i < partitions; ++i)
+        {
+            this.partitions[i] = new Partition(capacity);
+            Thread thread = new Thread(
+                this.partitions[i]::drain,
+                format(THREAD_NAME_FORMAT, i));
+            thread.setDaemon(true);
+            this.partitions[i].thread = thread;
+            thread.start();
+        }
+    }
+    
+    /**
+     * Dispatch the given messages to their partitions, applying backpressure
+     * policy on full ones.
+     */
+    @Override
+    public void accept(List<PackerOutputMessage> messages)
+    {
+        for (PackerOutputMessage message : messages)
+            partitions[partition(message)].offer(message);
+    }
+    
+    /**
+     * Amount of messages dropped so far.
+     */
+    long getDropped()
+    {
+        return dropped.get();
+    }
+    
+    /**
+     * Wait until every accepted message has been consumed, and release
+     * partition threads and spill files. No message must be accepted later.
+     * 
+     * @throws IOException
+     *     If some partition failed to spill messages or to read them back.
+     * @throws RuntimeException
+     *     The first consumer failure, if there was not any I/O failure before.
+     */
+    void close()
+    throws InterruptedException, IOException
+    {
+        for (Partition partition : partitions)
+            partition.close();
+        for (Partition partition : partitions)
+            partition.thread.join();
+        
+        Exception exception = failure.get();
+        if (exception instanceof IOException)
+            throw (IOException) exception;
+        if (exception instanceof RuntimeException)
+            throw (RuntimeException) exception;
+    }
+    
+    private int partition(PackerOutputMessage message)
+    {
+        return message.getTarget()
+            .map(target -> (target.hashCode() & Integer.MAX_VALUE)
+                % partitions.length)
+            .orElse(0);
+    }
+    
+    private static boolean verbose(PackerOutputMessage message)
+    {
+        return TYPE_UI.equals(message.getType())
+            && message.getData().length > 0
+            && !DATA_UI_SAY.equals(message.getData()[0])
+            && !DATA_UI_ERROR.equals(message.getData()[0]);
+    }
+    
+    private static void messageWrite(
+        DataOutputStream output,
+        PackerOutputMessage message)
+    throws IOException
+    {
+        output.writeLong(message.getTimestamp().toEpochMilli());
+        output.writeBoolean(message.getTarget().isPresent());
+        if (message.getTarget().isPresent())
+            stringWrite(output, message.getTarget().get());
+        stringWrite(output, message.getType());
+        output.writeInt(message.getData().length);
+        for (String part : message.getData())
+            stringWrite(output, part);
+    }
+    
+    private static PackerOutputMessage messageRead(DataInputStream input)
+    throws IOException
+    {
+        long timestamp = input.readLong();
+        String target = input.readBoolean()
+            ? stringRead(input)
+            : null;
+        String type = stringRead(input);
+        String[] data = new String[input.readInt()];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = stringRead(input);
+        return new PackerOutputMessageImpl(
+            ofEpochMilli(timestamp),
+            target,
+            type,
+            data);
+    }
+    
+    private static void stringWrite(DataOutputStream output, String str)
+    throws IOException
+    {
+        byte[] bytes = str.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+    
+    private static String stringRead(DataInputStream input)
+    throws IOException
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+    private class Partition
+    {
+        private final PackerOutputMessage[] ring;
+        private final Lock lock;
+        private final Condition notEmpty;
+        private final Condition notFull;
+        private final Lock spillLock;
+        private int head;
+        private int count;
+        private boolean closed;
+        private boolean failed;
+        private Deque<PackerOutputMessage> spillQueue;
+        private long spilled;
+        private Path spillFile;
+        private FileChannel spillWriteChannel;
+        private FileChannel spillReadChannel;
+        private DataOutputStream spillOutput;
+        private DataInputStream spillInput;
+        private long spillUnread;
+        private Thread thread;
+        
+        Partition(int capacity)
+        {
+            ring = new PackerOutputMessage[capacity];
+            lock = new ReentrantLock();
+            notEmpty = lock.newCondition();
+            notFull = lock.newCondition();
+            spillLock = new ReentrantLock();
+            head = 0;
+            count = 0;
+            closed = false;
+            failed = false;
+            spillQueue = new ArrayDeque<>();
+            spilled = 0L;
+            spillFile = null;
+            spillWriteChannel = null;
+            spillReadChannel = null;
+            spillOutput = null;
+            spillInput = null;
+            spillUnread = 0L;
+            thread = null;
+        }
+        
+        void offer(PackerOutputMessage message)
+        {
+            if (queue(message))
+                spillWrite();
+        }
+        
+        /**
+         * Queue the given message, either on the ring buffer or as spilled.
+         * 
+         * @return
+         *     Whether queued spilled messages must be written now.
+         */
+        private boolean queue(PackerOutputMessage message)
+        {
+            lock.lock();
+            try
+            {
+                if (failed)
+                    return false;
+                if (spilled > 0L || count == ring.length)
+                {
+                    if (backpressure == PackerOutputBackpressure.SPILL)
+                    {
+                        spillQueue.addLast(message);
+                        ++spilled;
+                        notEmpty.signal();
+                        return spillQueue.size() >= batchSize;
+                    }
+                    if (backpressure == PackerOutputBackpressure.DROP_VERBOSE
+                        && verbose(message))
+                    {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    while (count == ring.length && !failed)
+                        notFull.await();
+                    if (failed)
+                        return false;
+                }
+                ring[(head + count) % ring.length] = message;
+                ++count;
+                notEmpty.signal();
+            }
+            catch (InterruptedException exception)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return false;
+        }
+        
+        void close()
+        {
+            lock.lock();
+            try
+            {
+                closed = true;
+                notEmpty.signal();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        void drain()
+        {
+            try
+            {
+                List<PackerOutputMessage> batch;
+                while ((batch = batchTake()) != null)
+                    try
+                    {
+                        consumer.accept(batch);
+                    }
+                    catch (RuntimeException exception)
+                    {
+                        // Consumer failures do not stop draining output
+                        failure.compareAndSet(null, exception);
+                    }
+            }
+            catch (InterruptedException exception)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                spillRelease();
+            }
+        }
+        
+        /**
+         * Next batch of messages, or {@code null} once this partition has
+         * been closed and drained.
+         */
+        private List<PackerOutputMessage> batchTake()
+        throws InterruptedException
+        {
+            lock.lock();
+            try
+            {
+                while (count == 0 && spilled == 0L && !closed && !failed)
+                    notEmpty.await();
+                if (failed || count == 0 && spilled == 0L)
+                    return null;
+                
+                // Spilled messages come after every buffered one
+                if (count > 0)
+                {
+                    List<PackerOutputMessage> batch = new ArrayList<>(
+                        Math.min(batchSize, count));
+                    while (count > 0 && batch.size() < batchSize)
+                    {
+                        batch.add(ring[head]);
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        --count;
+                    }
+                    notFull.signal();
+                    return batch;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            return spillTake();
+        }
+        
+        /**
+         * Write queued spilled messages to the spill file.
+         */
+        private void spillWrite()
+        {
+            spillLock.lock();
+            try
+            {
+                Deque<PackerOutputMessage> written;
+                lock.lock();
+                try
+                {
+                    if (failed)
+                        return;
+                    written = spillQueue;
+                    spillQueue = new ArrayDeque<>();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                
+                if (spillFile == null)
+                    spillOpen();
+                for (PackerOutputMessage message : written)
+                    messageWrite(spillOutput, message);
+                spillOutput.flush();
+                spillUnread += written.size();
+            }
+            catch (IOException exception)
+            {
+                failLocked(exception);
+            }
+            finally
+            {
+                spillLock.unlock();
+            }
+        }
+        
+        /**
+         * Take next batch of spilled messages. Messages written to the spill
+         * file come before queued ones.
+         */
+        private List<PackerOutputMessage> spillTake()
+        {
+            spillLock.lock();
+            try
+            {
+                List<PackerOutputMessage> batch = new ArrayList<>();
+                if (spillUnread > 0L)
+                {
+                    while (spillUnread > 0L && batch.size() < batchSize)
+                    {
+                        batch.add(messageRead(spillInput));
+                        --spillUnread;
+                    }
+                    if (spillUnread == 0L)
+                        spillReset();
+                }
+                lock.lock();
+                try
+                {
+                    while (spillUnread == 0L
+                        && !spillQueue.isEmpty()
+                        && batch.size() < batchSize)
+                        batch.add(spillQueue.removeFirst());
+                    spilled -= batch.size();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                return batch;
+            }
+            catch (IOException exception)
+            {
+                failLocked(exception);
+                return null;
+            }
+            finally
+            {
+                spillLock.unlock();
+            }
+        }
+        
+        private void spillOpen()
+        throws IOException
+        {
+            spillFile = Files.createTempFile(
+                SPILL_FILE_PREFIX,
+                SPILL_FILE_SUFFIX);
+            spillWriteChannel = FileChannel.open(spillFile, WRITE);
+            spillReadChannel = FileChannel.open(spillFile, READ);
+            spillOutput = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(spillWriteChannel)));
+            spillInputOpen();
+        }
+        
+        private void spillInputOpen()
+        {
+            spillInput = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(spillReadChannel)));
+        }
+        
+        /**
+         * Truncate the spill file, whose messages have been read already.
+         */
+        private void spillReset()
+        throws IOException
+        {
+            spillWriteChannel.truncate(0L);
+            spillReadChannel.position(0L);
+            spillInputOpen();
+        }
+        
+        private void failLocked(IOException exception)
+        {
+            lock.lock();
+            try
+            {
+                fail(exception);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        
+        // Reading output must neither stop nor wait for a failed partition
+        private void fail(IOException exception)
+        {
+            if (!failure.compareAndSet(null, exception))
+                failure.get().addSuppressed(exception);
+            failed = true;
+            notFull.signalAll();
+        }
+        
+        private void spillRelease()
+        {
+            spillLock.lock();
+            try
+            {
+                if (spillFile == null)
+                    return;
+                spillOutput.close();
+                spillReadChannel.close();
+                Files.deleteIfExists(spillFile);
+            }
+            catch (IOException exception)
+            {
+                // Temporary file is left behind...
+            }
+            finally
+            {
+                spillLock.unlock();
+            }
+        }
+    }
+}
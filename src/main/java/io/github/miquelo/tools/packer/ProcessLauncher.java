@@ -49,6 +49,7 @@ implements ProcessLauncher
                         .collect(toList()))
             .directory(workingDir)
             .redirectOutput(PIPE)
+            .redirectError(PIPE)
             .start());
     }
     
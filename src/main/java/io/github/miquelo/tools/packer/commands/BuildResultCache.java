@@ -0,0 +1,434 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.PackerOutputMessage
+    .DATA_ARTIFACT_FILE;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_ARTIFACT;
+import static java.lang.Long.parseLong;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.list;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Files.size;
+import static java.nio.file.Files.walkFileTree;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.attribute.FileTime.fromMillis;
+import static java.time.Instant.ofEpochSecond;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import io.github.miquelo.tools.packer.PackerOutputMessage;
+
+/**
+ * Local content-addressed cache of build results.
+ * 
+ * Each result is kept on a directory named after its build key. It contains
+ * the output messages of the build and a copy of every artifact file it
+ * produced inside the working directory. Results with artifact files outside
+ * the working directory are not cached, since they could not be restored.
+ * 
+ * Results are copied, not linked, so later changes on restored or produced
+ * files never reach the cache.
+ * 
+ * The whole cache is kept within a maximum size. Once a result is stored,
+ * least recently stored or restored results are deleted until the cache fits
+ * again, and results that would not fit alone are not stored at all.
+ */
+class BuildResultCache
+{
+    private static final String MESSAGES_FILE_NAME = "messages";
+    private static final String FILES_DIR_NAME = "files";
+    private static final String TEMP_DIR_PREFIX = ".";
+    
+    private static final String SEPARATOR = ",";
+    private static final String ESCAPED_SEPARATOR = "%!(PACKER_COMMA)";
+    
+    private final File dir;
+    private final long maxSize;
+    
+    /**
+     * Build result cache complete constructor.
+     * 
+     * @param dir
+     *     Directory where results are kept.
+     * @param maxSize
+     *     Maximum size in bytes of all kept results.
+     */
+    BuildResultCache(File dir, long maxSize)
+    {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Restore the result of the build with the given key.
+     * 
+     * @param key
+     *     Build key.
+     * @param workingDir
+     *     Directory where artifact files are restored to.
+     * 
+     * @return
+     *     Output messages of the restored build, or empty if there is not any
+     *     complete result for the given key.
+     */
+    Optional<List<PackerOutputMessage>> restore(String key, Path workingDir)
+    throws IOException
+    {
+        Path entryDir = dir.toPath().resolve(key);
+        Path messagesFile = entryDir.resolve(MESSAGES_FILE_NAME);
+        if (!exists(messagesFile))
+            return Optional.empty();
+        
+        List<PackerOutputMessage> messages = readAllLines(messagesFile, UTF_8)
+            .stream()
+            .map(BuildResultCache::decode)
+            .collect(toList());
+        List<Path> files = new ArrayList<>();
+        for (String file : artifactFiles(messages))
+        {
+            Optional<Path> relative = relativeFile(workingDir, file);
+            if (!relative.isPresent())
+                return Optional.empty();
+            files.add(relative.get());
+        }
+        Path filesDir = entryDir.resolve(FILES_DIR_NAME);
+        try
+        {
+            for (Path file : files)
+                if (!exists(filesDir.resolve(file)))
+                    return Optional.empty();
+            for (Path file : files)
+            {
+                Path target = workingDir.resolve(file);
+                createDirectories(target.toAbsolutePath().getParent());
+                copy(filesDir.resolve(file), target, REPLACE_EXISTING);
+            }
+            setLastModifiedTime(
+                messagesFile,
+                fromMillis(System.currentTimeMillis()));
+        }
+        catch (NoSuchFileException exception)
+        {
+            // Evicted while it was being restored...
+            return Optional.empty();
+        }
+        return Optional.of(messages);
+    }
+    
+    /**
+     * Store the result of the build with the given key, unless it is already
+     * stored.
+     * 
+     * @param key
+     *     Build key.
+     * @param messages
+     *     Output messages of the build.
+     * @param workingDir
+     *     Directory the build was executed on.
+     * 
+     * @return
+     *     Whether the result could be cached. It cannot when some artifact
+     *     file is out of the working directory or when the result is bigger
+     *     than the whole cache.
+     */
+    boolean store(
+        String key,
+        List<PackerOutputMessage> messages,
+        Path workingDir)
+    throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        long resultSize = 0L;
+        for (String file : artifactFiles(messages))
+        {
+            Optional<Path> relative = relativeFile(workingDir, file);
+            if (!relative.isPresent()
+                || !exists(workingDir.resolve(relative.get())))
+                return false;
+            files.add(relative.get());
+            resultSize += size(workingDir.resolve(relative.get()));
+        }
+        if (resultSize > maxSize)
+            return false;
+        
+        createDirectories(dir.toPath());
+        Path tempDir = createTempDirectory(
+            dir.toPath(),
+            TEMP_DIR_PREFIX + key);
+        Path entryDir = dir.toPath().resolve(key);
+        try
+        {
+            write(
+                tempDir.resolve(MESSAGES_FILE_NAME),
+                messages.stream()
+                    .map(BuildResultCache::encode)
+                    .collect(toList()),
+                UTF_8);
+            for (Path file : files)
+            {
+                Path target = tempDir.resolve(FILES_DIR_NAME).resolve(file);
+                createDirectories(target.getParent());
+                copy(workingDir.resolve(file), target);
+            }
+            move(tempDir, entryDir, ATOMIC_MOVE);
+        }
+        catch (FileSystemException exception)
+        {
+            // Moving onto an existing directory fails differently on each
+            // platform
+            if (!exists(entryDir.resolve(MESSAGES_FILE_NAME)))
+                throw exception;
+        }
+        finally
+        {
+            if (isDirectory(tempDir))
+                deleteTree(tempDir);
+        }
+        evict(key);
+        return true;
+    }
+    
+    /**
+     * Delete least recently used results, but the one with the given key,
+     * until the whole cache is within its maximum size.
+     */
+    private void evict(String keptKey)
+    throws IOException
+    {
+        List<Path> entryDirs;
+        try (Stream<Path> paths = list(dir.toPath()))
+        {
+            entryDirs = paths
+                .filter(path -> !path.getFileName().toString()
+                    .startsWith(TEMP_DIR_PREFIX))
+                .filter(path -> exists(path.resolve(MESSAGES_FILE_NAME)))
+                .sorted(comparing(BuildResultCache::lastUsed))
+                .collect(toList());
+        }
+        catch (UncheckedIOException exception)
+        {
+            throw exception.getCause();
+        }
+        
+        long cacheSize = 0L;
+        List<Long> entrySizes = new ArrayList<>();
+        for (Path entryDir : entryDirs)
+        {
+            long entrySize = treeSize(entryDir);
+            entrySizes.add(entrySize);
+            cacheSize += entrySize;
+        }
+        for (int i = 0; i < entryDirs.size() && cacheSize > maxSize; ++i)
+        {
+            Path entryDir = entryDirs.get(i);
+            if (entryDir.getFileName().toString().equals(keptKey))
+                continue;
+            
+            // Moved away first, so it is never restored partially deleted
+            Path evictedDir = createTempDirectory(
+                dir.toPath(),
+                TEMP_DIR_PREFIX + entryDir.getFileName());
+            try
+            {
+                move(
+                    entryDir,
+                    evictedDir.resolve(entryDir.getFileName()),
+                    ATOMIC_MOVE);
+                cacheSize -= entrySizes.get(i);
+            }
+            catch (NoSuchFileException exception)
+            {
+                // Already evicted by another build...
+            }
+            finally
+            {
+                deleteTree(evictedDir);
+            }
+        }
+    }
+    
+    private static FileTime lastUsed(Path entryDir)
+    {
+        try
+        {
+            return getLastModifiedTime(entryDir.resolve(MESSAGES_FILE_NAME));
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+    
+    private static long treeSize(Path root)
+    throws IOException
+    {
+        long[] treeSize = new long[] { 0L };
+        walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(
+                Path file,
+                BasicFileAttributes attributes)
+            {
+                treeSize[0] += attributes.size();
+                return CONTINUE;
+            }
+        });
+        return treeSize[0];
+    }
+    
+    /**
+     * Artifact file as a path relative to the working directory, or empty if
+     * it is out of it.
+     */
+    private static Optional<Path> relativeFile(Path workingDir, String file)
+    {
+        Path absoluteDir = workingDir.toAbsolutePath().normalize();
+        Path relative = absoluteDir.relativize(
+            absoluteDir.resolve(file).normalize());
+        if (relative.startsWith("..") || relative.toString().isEmpty())
+            return Optional.empty();
+        return Optional.of(relative);
+    }
+    
+    private static List<String> artifactFiles(
+        List<PackerOutputMessage> messages)
+    {
+        return messages.stream()
+            .filter(message -> TYPE_ARTIFACT.equals(message.getType()))
+            .map(PackerOutputMessage::getData)
+            .filter(data -> data.length > 3)
+            .filter(data -> DATA_ARTIFACT_FILE.equals(data[1]))
+            .map(data -> data[3])
+            .collect(toList());
+    }
+    
+    private static String encode(PackerOutputMessage message)
+    {
+        return Stream.concat(
+            Stream.of(
+                Long.toString(message.getTimestamp().getEpochSecond()),
+                message.getTarget().orElse(""),
+                message.getType()),
+            Stream.of(message.getData()))
+            .map(part -> part.replace(SEPARATOR, ESCAPED_SEPARATOR)
+                .replace("\r", "\\r")
+                .replace("\n", "\\n"))
+            .collect(joining(SEPARATOR));
+    }
+    
+    private static PackerOutputMessage decode(String line)
+    {
+        String[] parts = Stream.of(line.split(SEPARATOR, -1))
+            .map(part -> part.replace(ESCAPED_SEPARATOR, SEPARATOR)
+                .replace("\\n", "\n")
+                .replace("\\r", "\r"))
+            .toArray(String[]::new);
+        return new CachedOutputMessage(
+            ofEpochSecond(parseLong(parts[0])),
+            parts[1].isEmpty() ? null : parts[1],
+            parts[2],
+            Arrays.copyOfRange(parts, 3, parts.length));
+    }
+    
+    private static void deleteTree(Path root)
+    throws IOException
+    {
+        walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(
+                Path file,
+                BasicFileAttributes attributes)
+            throws IOException
+            {
+                delete(file);
+                return CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(
+                Path dir,
+                IOException exception)
+            throws IOException
+            {
+                delete(dir);
+                return CONTINUE;
+            }
+        });
+    }
+}
+
+class CachedOutputMessage
+implements PackerOutputMessage
+{
+    private final Instant timestamp;
+    private final String target;
+    private final String type;
+    private final String[] data;
+    
+    CachedOutputMessage(
+        Instant timestamp,
+        String target,
+        String type,
+        String[] data)
+    {
+        this.timestamp = timestamp;
+        this.target = target;
+        this.type = type;
+        this.data = data;
+    }
+    
+    @Override
+    public Instant getTimestamp()
+    {
+        return timestamp;
+    }
+    
+    @Override
+    public Optional<String> getTarget()
+    {
+        return Optional.ofNullable(target);
+    }
+    
+    @Override
+    public String getType()
+    {
+        return type;
+    }
+    
+    @Override
+    public String[] getData()
+    {
+        return data;
+    }
+}
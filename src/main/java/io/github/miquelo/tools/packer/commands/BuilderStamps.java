@@ -0,0 +1,131 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Key of the last successful build of each builder.
+ * 
+ * A builder whose stamp is the key of the current build has already produced
+ * its artifacts for the same input files and parameters, so it can be left
+ * out of the next execution. Builders whose last build failed are kept
+ * without any key, so every builder seen so far is known.
+ */
+class BuilderStamps
+{
+    private static final String SEPARATOR = " ";
+    private static final String UNBUILT = "-";
+    
+    private final Map<String, String> stamps;
+    
+    private BuilderStamps(Map<String, String> stamps)
+    {
+        this.stamps = stamps;
+    }
+    
+    /**
+     * Whether there is not any stamp.
+     */
+    boolean isEmpty()
+    {
+        return stamps.isEmpty();
+    }
+    
+    /**
+     * Every builder with a stamp, whether its last build succeeded or not.
+     */
+    Set<String> builders()
+    {
+        return new TreeSet<>(stamps.keySet());
+    }
+    
+    /**
+     * Builders last built successfully with the given key.
+     */
+    Set<String> builtWith(String key)
+    {
+        return stamps.entrySet().stream()
+            .filter(stamp -> stamp.getValue().equals(key))
+            .map(Map.Entry::getKey)
+            .collect(toCollection(TreeSet::new));
+    }
+    
+    /**
+     * Stamp the given builders with the given key.
+     */
+    void stamp(Collection<String> builders, String key)
+    {
+        for (String builder : builders)
+            stamps.put(builder, key);
+    }
+    
+    /**
+     * Stamp the given builders as not built successfully.
+     */
+    void unstamp(Collection<String> builders)
+    {
+        stamp(builders, UNBUILT);
+    }
+    
+    /**
+     * Write stamps to the given file.
+     */
+    void write(File file)
+    throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        createDirectories(dir.toPath());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        Files.write(
+            tempFile.toPath(),
+            stamps.entrySet().stream()
+                .map(stamp -> stamp.getValue() + SEPARATOR + stamp.getKey())
+                .collect(toList()),
+            UTF_8);
+        move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+    
+    /**
+     * Read stamps from the given file.
+     * 
+     * @return
+     *     Read stamps, which are empty if file does not exist.
+     */
+    static BuilderStamps read(File file)
+    throws IOException
+    {
+        Map<String, String> stamps = new TreeMap<>();
+        try
+        {
+            for (String line : readAllLines(file.toPath(), UTF_8))
+            {
+                int index = line.indexOf(SEPARATOR);
+                if (index > 0)
+                    stamps.put(
+                        line.substring(index + 1),
+                        line.substring(0, index));
+            }
+        }
+        catch (NoSuchFileException exception)
+        {
+            // Not any stamp yet...
+        }
+        return new BuilderStamps(stamps);
+    }
+}
@@ -0,0 +1,574 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .GIT_BLOB;
+import static java.lang.String.format;
+import static java.nio.ByteBuffer.allocateDirect;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Collections.nCopies;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.miquelo.tools.packer.TimeoutHandler;
+
+/**
+ * Computes input file checksums on a work-stealing pool.
+ * 
+ * Files are fanned out one task per file. Files bigger than the chunk size are
+ * split in chunks that are hashed independently and then combined by hashing
+ * the ordered sequence of chunk hashes, so the resulting checksum does not
+ * depend on the amount of threads.
+ * 
+ * Files hashed as {@link MessageDigestCreator#GIT_BLOB} are never split,
+ * since their hash covers the whole content after a blob header.
+ * 
+ * Files fingerprinted as {@link FingerprintStrategy#SAMPLED} only read the
+ * head, the tail and some evenly spaced blocks of their content, while the
+ * ones fingerprinted as {@link FingerprintStrategy#METADATA} do not read any
+ * content at all.
+ * 
+ * Calculation can be bounded by a timeout, and it is aborted as well when
+ * the thread waiting for it is interrupted. Pool threads check both before
+ * each file, each chunk and each read block, so huge files do not delay
+ * them.
+ * 
+ * Reads go through {@link FileChannel} into direct buffers taken from a
+ * shared pool and given back once each range is read, so they are reused
+ * across files and calculations. There is a buffer pool for each amount of
+ * threads, holding at most one buffer per thread; buffers given back to a
+ * full pool are left to garbage collection.
+ * 
+ * Reading through {@link java.nio.MappedByteBuffer} windows has not been
+ * implemented on purpose. Mappings cannot be released explicitly, so they
+ * would keep input files busy until garbage collection, and reusable direct
+ * buffers already avoid copying file content to the heap.
+ * 
+ * Pool threads and buffers are shared by every calculator using the same
+ * amount of threads.
+ */
+class ChecksumCalculator
+{
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+    
+    private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+    
+    private static final long SAMPLE_BLOCK_SIZE = 64L * 1024L;
+    private static final int SAMPLE_INNER_BLOCKS = 16;
+    
+    private static final Map<Integer, Queue<ByteBuffer>> DIGEST_BUFFERS =
+        new ConcurrentHashMap<>();
+    private static final Map<Integer, ForkJoinPool> POOLS =
+        new ConcurrentHashMap<>();
+    
+    private final MessageDigestCreator digestCreator;
+    private final String algorithm;
+    private final int threads;
+    private final long chunkSize;
+    private final Queue<ByteBuffer> digestBuffers;
+    
+    ChecksumCalculator(
+        MessageDigestCreator digestCreator,
+        String algorithm,
+        int threads)
+    {
+        this(digestCreator, algorithm, threads, DEFAULT_CHUNK_SIZE);
+    }
+    
+    ChecksumCalculator(
+        MessageDigestCreator digestCreator,
+        String algorithm,
+        int threads,
+        long chunkSize)
+    {
+        this.digestCreator = requireNonNull(digestCreator);
+        this.algorithm = requireNonNull(algorithm);
+        this.threads = threads > 0
+            ? threads
+            : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize;
+        digestBuffers = DIGEST_BUFFERS.computeIfAbsent(
+            this.threads,
+            ArrayBlockingQueue::new);
+    }
+    
+    String getAlgorithm()
+    {
+        return algorithm;
+    }
+    
+    /**
+     * Hashes of the given files, in the same order.
+     */
+    List<byte[]> calculate(List<Path> paths)
+    {
+        return calculate(paths, (index, hash) -> true);
+    }
+    
+    /**
+     * Hashes of the given files, in the same order, notifying each one to the
+     * given listener as soon as it is available.
+     * 
+     * Calculation stops once the listener returns {@code false}. Hashes of the
+     * files that were not completed by then are {@code null}.
+     */
+    List<byte[]> calculate(List<Path> paths, HashListener listener)
+    {
+        return calculate(
+            paths,
+            nCopies(paths.size(), FingerprintStrategy.FULL),
+            listener);
+    }
+    
+    /**
+     * Hashes of the given files fingerprinted with the given content
+     * strategies, in the same order, notifying each one to the given listener
+     * as soon as it is available.
+     * 
+     * @see #calculate(List, HashListener)
+     */
+    List<byte[]> calculate(
+        List<Path> paths,
+        List<FingerprintStrategy> strategies,
+        HashListener listener)
+    {
+        return calculate(paths, strategies, Optional.empty(), listener);
+    }
+    
+    /**
+     * Hashes of the given files fingerprinted with the given content
+     * strategies, in the same order, notifying each one to the given listener
+     * as soon as it is available, within the given timeout.
+     * 
+     * @throws UncheckedTimeoutException
+     *     If the given timeout has been reached.
+     * @throws CancellationException
+     *     If the calling thread has been interrupted. Its interrupted status
+     *     is kept.
+     *     
+     * @see #calculate(List, HashListener)
+     */
+    List<byte[]> calculate(
+        List<Path> paths,
+        List<FingerprintStrategy> strategies,
+        Optional<TimeoutHandler> timeoutHandler,
+        HashListener listener)
+    {
+        Calculation calculation = new Calculation(
+            paths,
+            strategies,
+            timeoutHandler,
+            listener);
+        ForkJoinTask<List<byte[]>> task = POOLS
+            .computeIfAbsent(threads, ForkJoinPool::new)
+            .submit(new FilesTask(calculation, 0, paths.size()));
+        try
+        {
+            List<byte[]> hashes = task.get();
+            calculation.abortionCheck();
+            return hashes;
+        }
+        catch (InterruptedException exception)
+        {
+            calculation.abort(new CancellationException(
+                "Fingerprinting has been interrupted"));
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+            throw calculation.abortion.get();
+        }
+        catch (ExecutionException exception)
+        {
+            if (exception.getCause() instanceof RuntimeException)
+                throw (RuntimeException) exception.getCause();
+            throw (Error) exception.getCause();
+        }
+    }
+    
+    /**
+     * Hash of the given file metadata, for files fingerprinted as
+     * {@link FingerprintStrategy#METADATA}.
+     */
+    byte[] metadataHash(FileMetadata metadata)
+    {
+        MessageDigest digest = digestCreate();
+        digest.update(ByteBuffer.allocate(2 * Long.BYTES)
+            .putLong(metadata.getSize())
+            .putLong(metadata.getLastModified())
+            .array());
+        if (metadata.getFileKey() != null)
+            digest.update(metadata.getFileKey().getBytes(UTF_8));
+        return digest.digest();
+    }
+    
+    /**
+     * Hash of the given content, the same one a file with it would have when
+     * fingerprinted as {@link FingerprintStrategy#FULL}.
+     */
+    byte[] contentHash(byte[] content)
+    {
+        MessageDigest digest = digestCreate();
+        if (GIT_BLOB.equalsIgnoreCase(algorithm))
+        {
+            digest.update(blobHeader(content.length));
+            return digest.digest(content);
+        }
+        if (content.length <= chunkSize)
+            return digest.digest(content);
+        for (long offset = 0L; offset < content.length; offset += chunkSize)
+        {
+            MessageDigest chunkDigest = digestCreate();
+            chunkDigest.update(
+                content,
+                (int) offset,
+                (int) Math.min(chunkSize, content.length - offset));
+            digest.update(chunkDigest.digest());
+        }
+        return digest.digest();
+    }
+    
+    private MessageDigest digestCreate()
+    {
+        try
+        {
+            return digestCreator.create(algorithm);
+        }
+        catch (NoSuchAlgorithmException exception)
+        {
+            throw new UncheckedNoSuchAlgorithmException(exception);
+        }
+    }
+    
+    private byte[] fileHash(Calculation calculation, int index)
+    {
+        Path path = calculation.paths.get(index);
+        long size = path.toFile().length();
+        if (calculation.strategies.get(index) == FingerprintStrategy.SAMPLED)
+            return sampledHash(calculation, path, size);
+        if (GIT_BLOB.equalsIgnoreCase(algorithm))
+            return chunkHash(calculation, path, 0L, size, blobHeader(size));
+        if (size <= chunkSize)
+            return chunkHash(calculation, path, 0L, size);
+        return new ChunksTask(calculation, path, size).invoke();
+    }
+    
+    private byte[] chunkHash(
+        Calculation calculation,
+        Path path,
+        long offset,
+        long length)
+    {
+        return chunkHash(calculation, path, offset, length, new byte[0]);
+    }
+    
+    /**
+     * Hash of the given file range, or {@code null} if calculation has been
+     * stopped meanwhile.
+     */
+    private byte[] chunkHash(
+        Calculation calculation,
+        Path path,
+        long offset,
+        long length,
+        byte[] prefix)
+    {
+        try (FileChannel channel = FileChannel.open(path, READ))
+        {
+            MessageDigest digest = digestCreate();
+            digest.update(prefix);
+            return bufferedUpdate(calculation, digest, channel, offset, length)
+                ? digest.digest()
+                : null;
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+    
+    private byte[] sampledHash(
+        Calculation calculation,
+        Path path,
+        long size)
+    {
+        try (FileChannel channel = FileChannel.open(path, READ))
+        {
+            MessageDigest digest = digestCreate();
+            digest.update(ByteBuffer.allocate(Long.BYTES)
+                .putLong(size)
+                .array());
+            int blocks = SAMPLE_INNER_BLOCKS + 2;
+            if (size <= blocks * SAMPLE_BLOCK_SIZE)
+                return bufferedUpdate(calculation, digest, channel, 0L, size)
+                    ? digest.digest()
+                    : null;
+            for (int i = 0; i < blocks; ++i)
+                if (!bufferedUpdate(
+                    calculation,
+                    digest,
+                    channel,
+                    i * (size - SAMPLE_BLOCK_SIZE) / (blocks - 1),
+                    SAMPLE_BLOCK_SIZE))
+                    return null;
+            return digest.digest();
+        }
+        catch (IOException exception)
+        {
+            throw new UncheckedIOException(exception);
+        }
+    }
+    
+    private static byte[] blobHeader(long size)
+    {
+        return format("blob %d\0", size).getBytes(US_ASCII);
+    }
+    
+    private boolean bufferedUpdate(
+        Calculation calculation,
+        MessageDigest digest,
+        FileChannel channel,
+        long offset,
+        long length)
+    throws IOException
+    {
+        ByteBuffer buf = digestBuffers.poll();
+        if (buf == null)
+            buf = allocateDirect(DIGEST_BUFFER_SIZE);
+        try
+        {
+            long position = offset;
+            long end = offset + length;
+            while (position < end)
+            {
+                if (calculation.isStopped())
+                    return false;
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), end - position));
+                int len = channel.read(buf, position);
+                if (len < 0)
+                    break;
+                buf.flip();
+                digest.update(buf);
+                position += len;
+            }
+            return true;
+        }
+        finally
+        {
+            digestBuffers.offer(buf);
+        }
+    }
+    
+    /**
+     * Listener for file hashes as they are calculated.
+     */
+    @FunctionalInterface
+    interface HashListener
+    {
+        /**
+         * Notify the hash of the file at the given index.
+         * 
+         * @return
+         *     Whether calculation must go on.
+         */
+        boolean hashed(int index, byte[] hash);
+    }
+    
+    private static class Calculation
+    {
+        private final List<Path> paths;
+        private final List<FingerprintStrategy> strategies;
+        private final Optional<TimeoutHandler> timeoutHandler;
+        private final HashListener listener;
+        private final AtomicBoolean stopped;
+        private final AtomicReference<RuntimeException> abortion;
+        
+        Calculation(
+            List<Path> paths,
+            List<FingerprintStrategy> strategies,
+            Optional<TimeoutHandler> timeoutHandler,
+            HashListener listener)
+        {
+            this.paths = paths;
+            this.strategies = strategies;
+            this.timeoutHandler = timeoutHandler;
+            this.listener = listener;
+            stopped = new AtomicBoolean(false);
+            abortion = new AtomicReference<>();
+        }
+        
+        /**
+         * Whether calculation must not go on, because the listener asked for
+         * it or because it has been aborted.
+         */
+        boolean isStopped()
+        {
+            if (stopped.get())
+                return true;
+            if (timeoutHandler.isPresent())
+                try
+                {
+                    timeoutHandler.get().checkIt();
+                }
+                catch (TimeoutException exception)
+                {
+                    abort(new UncheckedTimeoutException(exception));
+                }
+            return stopped.get();
+        }
+        
+        /**
+         * Throw the reason calculation has been aborted, if any.
+         */
+        void abortionCheck()
+        {
+            RuntimeException exception = abortion.get();
+            if (exception != null)
+                throw exception;
+        }
+        
+        void abort(RuntimeException exception)
+        {
+            abortion.compareAndSet(null, exception);
+            stopped.set(true);
+        }
+        
+        byte[] hashed(int index, byte[] hash)
+        {
+            if (hash != null && !listener.hashed(index, hash))
+                stopped.set(true);
+            return hash;
+        }
+    }
+    
+    private class FilesTask
+    extends RecursiveTask<List<byte[]>>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final Calculation calculation;
+        private final int from;
+        private final int to;
+        
+        FilesTask(Calculation calculation, int from, int to)
+        {
+            this.calculation = calculation;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected List<byte[]> compute()
+        {
+            if (to - from <= 1)
+            {
+                List<byte[]> hashes = new ArrayList<>(1);
+                for (int i = from; i < to; ++i)
+                    hashes.add(calculation.isStopped()
+                        ? null
+                        : calculation.hashed(i, fileHash(calculation, i)));
+                return hashes;
+            }
+            int middle = (from + to) >>> 1;
+            FilesTask right = new FilesTask(calculation, middle, to);
+            right.fork();
+            List<byte[]> hashes = new FilesTask(calculation, from, middle)
+                .compute();
+            hashes.addAll(right.join());
+            return hashes;
+        }
+    }
+    
+    private class ChunksTask
+    extends RecursiveTask<byte[]>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final Calculation calculation;
+        private final Path path;
+        private final long size;
+        
+        ChunksTask(Calculation calculation, Path path, long size)
+        {
+            this.calculation = calculation;
+            this.path = path;
+            this.size = size;
+        }
+        
+        @Override
+        protected byte[] compute()
+        {
+            List<ChunkTask> chunks = new ArrayList<>();
+            for (long offset = 0L; offset < size; offset += chunkSize)
+                chunks.add(new ChunkTask(
+                    calculation,
+                    path,
+                    offset,
+                    Math.min(chunkSize, size - offset)));
+            invokeAll(chunks);
+            
+            MessageDigest digest = digestCreate();
+            for (ChunkTask chunk : chunks)
+            {
+                byte[] chunkHash = chunk.join();
+                if (chunkHash == null)
+                    return null;
+                digest.update(chunkHash);
+            }
+            return digest.digest();
+        }
+    }
+    
+    private class ChunkTask
+    extends RecursiveTask<byte[]>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final Calculation calculation;
+        private final Path path;
+        private final long offset;
+        private final long length;
+        
+        ChunkTask(
+            Calculation calculation,
+            Path path,
+            long offset,
+            long length)
+        {
+            this.calculation = calculation;
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        @Override
+        protected byte[] compute()
+        {
+            if (calculation.isStopped())
+                return null;
+            return chunkHash(calculation, path, offset, length);
+        }
+    }
+}
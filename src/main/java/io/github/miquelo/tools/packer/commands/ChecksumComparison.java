@@ -0,0 +1,415 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAttributes;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import io.github.miquelo.tools.packer.TimeoutHandler;
+import io.github.miquelo.tools.packer.commands.ChecksumCalculator
+    .HashListener;
+
+/**
+ * Streaming comparison of current input files against the previous checksum
+ * manifest.
+ * 
+ * Both sides are visited in manifest path order. Added, removed or resized
+ * files make the change certain without hashing anything. Otherwise files
+ * whose metadata changed are hashed, and hashing stops at the first mismatch.
+ * Hashes that were not needed to take the decision are only calculated when
+ * the complete checksum is requested.
+ * 
+ * Files sharing a file key, such as hard links, are read only once, and
+ * hashes already calculated in this session for the same file are reused.
+ * Files whose fingerprint strategy is not the recorded one are hashed again.
+ */
+class ChecksumComparison
+{
+    private static final int NO_PREVIOUS_INDEX = -1;
+    
+    private final ChecksumCalculator calculator;
+    private final FileHashCache cache;
+    private final boolean paranoid;
+    private final List<Path> paths;
+    private final List<FileMetadata> metadata;
+    private final List<FingerprintStrategy> strategies;
+    private final byte[][] hashes;
+    private final AtomicBoolean cancelled;
+    private volatile boolean contentChanged;
+    private boolean metadataChanged;
+    
+    private ChecksumComparison(
+        ChecksumCalculator calculator,
+        FileHashCache cache,
+        boolean paranoid,
+        SortedMap<Path, FileMetadata> files,
+        Function<Path, FingerprintStrategy> strategies)
+    {
+        this.calculator = calculator;
+        this.cache = cache;
+        this.paranoid = paranoid;
+        paths = new ArrayList<>(files.size());
+        metadata = new ArrayList<>(files.size());
+        this.strategies = new ArrayList<>(files.size());
+        for (Entry<Path, FileMetadata> file : files.entrySet())
+        {
+            paths.add(file.getKey());
+            metadata.add(file.getValue());
+            this.strategies.add(strategies.apply(file.getKey()));
+        }
+        hashes = new byte[files.size()][];
+        cancelled = new AtomicBoolean(false);
+        contentChanged = false;
+        metadataChanged = false;
+    }
+    
+    /**
+     * Whether the content of input files is not the same as the one recorded
+     * on previous manifest.
+     */
+    boolean isContentChanged()
+    {
+        return contentChanged;
+    }
+    
+    /**
+     * Whether some input file has different metadata than the recorded one,
+     * even if its content is the same.
+     */
+    boolean isMetadataChanged()
+    {
+        return metadataChanged;
+    }
+    
+    /**
+     * Complete checksum of input files, calculating pending hashes.
+     * 
+     * @return
+     *     The complete checksum, or empty if it has been cancelled.
+     */
+    Optional<List<ChecksumEntry>> complete()
+    {
+        return complete(Optional.empty());
+    }
+    
+    /**
+     * Complete checksum of input files, calculating pending hashes within the
+     * given timeout.
+     * 
+     * @return
+     *     The complete checksum, or empty if it has been cancelled.
+     *     
+     * @throws UncheckedTimeoutException
+     *     If the given timeout has been reached.
+     * @throws CancellationException
+     *     If the calling thread has been interrupted.
+     */
+    Optional<List<ChecksumEntry>> complete(TimeoutHandler timeoutHandler)
+    {
+        return complete(Optional.of(timeoutHandler));
+    }
+    
+    /**
+     * Complete checksum of input files as they were when compared, while
+     * they may be modified.
+     * 
+     * Files whose metadata is not the compared one once they have been
+     * hashed get an invalid hash, which is not cached either, so they are
+     * taken as changed by the next comparison.
+     * 
+     * @return
+     *     The complete checksum, or empty if it has been cancelled.
+     */
+    Optional<List<ChecksumEntry>> completeSnapshot()
+    {
+        return complete(Optional.empty(), true);
+    }
+    
+    private Optional<List<ChecksumEntry>> complete(
+        Optional<TimeoutHandler> timeoutHandler)
+    {
+        return complete(timeoutHandler, false);
+    }
+    
+    private Optional<List<ChecksumEntry>> complete(
+        Optional<TimeoutHandler> timeoutHandler,
+        boolean snapshot)
+    {
+        calculatePending(
+            timeoutHandler,
+            snapshot,
+            (index, hash) -> !cancelled.get());
+        if (cancelled.get())
+            return Optional.empty();
+        List<ChecksumEntry> checksum = new ArrayList<>(hashes.length);
+        for (int i = 0; i < hashes.length; ++i)
+            checksum.add(new ChecksumEntry(
+                hashes[i],
+                paths.get(i).toString(),
+                metadata.get(i),
+                strategies.get(i)));
+        return Optional.of(checksum);
+    }
+    
+    /**
+     * Cancel pending and future checksum completion.
+     */
+    void cancel()
+    {
+        cancelled.set(true);
+    }
+    
+    /**
+     * Compare the given input files, fingerprinted fully, against the previous
+     * manifest.
+     * 
+     * @see #compare(ChecksumCalculator, FileHashCache, boolean, SortedMap,
+     *     Function, Optional)
+     */
+    static ChecksumComparison compare(
+        ChecksumCalculator calculator,
+        FileHashCache cache,
+        boolean paranoid,
+        SortedMap<Path, FileMetadata> files,
+        Optional<ChecksumManifest> previous)
+    {
+        return compare(
+            calculator,
+            cache,
+            paranoid,
+            files,
+            path -> FingerprintStrategy.FULL,
+            previous,
+            Optional.empty());
+    }
+    
+    /**
+     * Compare the given input files against the previous manifest.
+     * 
+     * @param calculator
+     *     Calculator used for hashing files.
+     * @param cache
+     *     Cache of file hashes, also filled with the calculated ones.
+     * @param paranoid
+     *     Whether files with unchanged metadata must be hashed too, without
+     *     taking cached hashes either.
+     * @param files
+     *     Input files sorted by {@link ChecksumManifest#PATH_ORDER}.
+     * @param strategies
+     *     Fingerprint strategy of each input file.
+     * @param previous
+     *     Previous manifest, if any.
+     * @param timeoutHandler
+     *     Timeout the comparison must be done within, if any.
+     *     
+     * @throws UncheckedTimeoutException
+     *     If the given timeout has been reached.
+     * @throws CancellationException
+     *     If the calling thread has been interrupted.
+     */
+    static ChecksumComparison compare(
+        ChecksumCalculator calculator,
+        FileHashCache cache,
+        boolean paranoid,
+        SortedMap<Path, FileMetadata> files,
+        Function<Path, FingerprintStrategy> strategies,
+        Optional<ChecksumManifest> previous,
+        Optional<TimeoutHandler> timeoutHandler)
+    {
+        ChecksumComparison comparison = new ChecksumComparison(
+            calculator,
+            cache,
+            paranoid,
+            files,
+            strategies);
+        int[] previousIndexes = comparison.merge(previous);
+        if (!comparison.contentChanged && previous.isPresent())
+            comparison.verify(
+                previous.get(),
+                previousIndexes,
+                timeoutHandler);
+        return comparison;
+    }
+    
+    private int[] merge(Optional<ChecksumManifest> previous)
+    {
+        int[] previousIndexes = new int[hashes.length];
+        if (!previous.isPresent())
+        {
+            contentChanged = hashes.length > 0;
+            return previousIndexes;
+        }
+        
+        ChecksumManifest manifest = previous.get();
+        int count = manifest.size();
+        int j = 0;
+        for (int i = 0; i < hashes.length; ++i)
+        {
+            byte[] key = paths.get(i).toString().getBytes(UTF_8);
+            FileMetadata fileMetadata = metadata.get(i);
+            int cmp = j < count ? manifest.comparePath(j, key) : 1;
+            while (cmp < 0)
+            {
+                contentChanged = true;
+                ++j;
+                cmp = j < count ? manifest.comparePath(j, key) : 1;
+            }
+            if (cmp == 0)
+            {
+                previousIndexes[i] = j;
+                if (!manifest.strategyEquals(j, strategies.get(i)))
+                    metadataChanged = true;
+                else if (!manifest.metadataEquals(j, fileMetadata))
+                {
+                    metadataChanged = true;
+                    if (manifest.metadata(j).getSize() !=
+                        fileMetadata.getSize())
+                        contentChanged = true;
+                }
+                else if (!paranoid)
+                    hashes[i] = manifest.hash(j);
+                ++j;
+            }
+            else
+            {
+                previousIndexes[i] = NO_PREVIOUS_INDEX;
+                contentChanged = true;
+            }
+        }
+        if (j < count)
+            contentChanged = true;
+        return previousIndexes;
+    }
+    
+    private void verify(
+        ChecksumManifest manifest,
+        int[] previousIndexes,
+        Optional<TimeoutHandler> timeoutHandler)
+    {
+        calculatePending(timeoutHandler, false, (index, hash) -> {
+            if (!manifest.hashEquals(previousIndexes[index], hash))
+                contentChanged = true;
+            return !contentChanged;
+        });
+    }
+    
+    private void calculatePending(
+        Optional<TimeoutHandler> timeoutHandler,
+        boolean snapshot,
+        HashListener listener)
+    {
+        Map<FingerprintStrategy, Map<FileMetadata, List<Integer>>>
+            sameFileIndexes = new EnumMap<>(FingerprintStrategy.class);
+        List<Path> pendingPaths = new ArrayList<>();
+        List<FingerprintStrategy> pendingStrategies = new ArrayList<>();
+        List<List<Integer>> pendingIndexes = new ArrayList<>();
+        for (int i = 0; i < hashes.length; ++i)
+        {
+            if (hashes[i] != null)
+                continue;
+            
+            FileMetadata fileMetadata = metadata.get(i);
+            FingerprintStrategy strategy = strategies.get(i);
+            if (strategy == FingerprintStrategy.METADATA)
+            {
+                byte[] hash = calculator.metadataHash(fileMetadata);
+                hashes[i] = hash;
+                if (!listener.hashed(i, hash))
+                    return;
+                continue;
+            }
+            
+            Path path = paths.get(i);
+            Optional<byte[]> cached = paranoid
+                ? Optional.empty()
+                : cache.get(cacheAlgorithm(strategy), path, fileMetadata);
+            Map<FileMetadata, List<Integer>> strategyIndexes = sameFileIndexes
+                .computeIfAbsent(strategy, key -> new HashMap<>());
+            List<Integer> indexes = strategyIndexes.get(fileMetadata);
+            if (cached.isPresent())
+            {
+                hashes[i] = cached.get();
+                if (!listener.hashed(i, cached.get()))
+                    return;
+            }
+            else if (indexes != null)
+                indexes.add(i);
+            else
+            {
+                indexes = new ArrayList<>();
+                indexes.add(i);
+                if (fileMetadata.getFileKey() != null)
+                    strategyIndexes.put(fileMetadata, indexes);
+                pendingPaths.add(path);
+                pendingStrategies.add(strategy);
+                pendingIndexes.add(indexes);
+            }
+        }
+        
+        calculator.calculate(
+            pendingPaths,
+            pendingStrategies,
+            timeoutHandler,
+            (index, calculated) -> {
+                List<Integer> indexes = pendingIndexes.get(index);
+                Path path = pendingPaths.get(index);
+                FileMetadata fileMetadata = metadata.get(indexes.get(0));
+                byte[] hash = calculated;
+                if (snapshot && !metadataEquals(path, fileMetadata))
+                    hash = new byte[calculated.length];
+                else
+                    cache.put(
+                        cacheAlgorithm(pendingStrategies.get(index)),
+                        path,
+                        fileMetadata,
+                        hash);
+                boolean proceed = true;
+                for (int i : indexes)
+                {
+                    hashes[i] = hash;
+                    proceed &= listener.hashed(i, hash);
+                }
+                return proceed;
+            });
+    }
+    
+    private static boolean metadataEquals(Path path, FileMetadata metadata)
+    {
+        try
+        {
+            return metadata.equals(FileMetadata.of(readAttributes(
+                path,
+                BasicFileAttributes.class)));
+        }
+        catch (IOException exception)
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * Algorithm name cached hashes are kept under, so hashes of different
+     * strategies are never mixed up.
+     */
+    private String cacheAlgorithm(FingerprintStrategy strategy)
+    {
+        String algorithm = calculator.getAlgorithm();
+        if (strategy == FingerprintStrategy.FULL)
+            return algorithm;
+        return format("%s/%s", algorithm, strategy);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+
+class ChecksumEntry
+{
+    private final byte[] hash;
+    private final String path;
+    private final FileMetadata metadata;
+    private final FingerprintStrategy strategy;
+    
+    ChecksumEntry(byte[] hash, String path, FileMetadata metadata)
+    {
+        this(hash, path, metadata, FingerprintStrategy.FULL);
+    }
+    
+    ChecksumEntry(
+        byte[] hash,
+        String path,
+        FileMetadata metadata,
+        FingerprintStrategy strategy)
+    {
+        this.hash = requireNonNull(hash);
+        this.path = requireNonNull(path);
+        this.metadata = requireNonNull(metadata);
+        this.strategy = requireNonNull(strategy);
+    }
+    
+    byte[] getHash()
+    {
+        return hash;
+    }
+    
+    String getPath()
+    {
+        return path;
+    }
+    
+    FileMetadata getMetadata()
+    {
+        return metadata;
+    }
+    
+    FingerprintStrategy getStrategy()
+    {
+        return strategy;
+    }
+    
+    /**
+     * Only hash and path are taken into account, so entries with different
+     * metadata but same content are equal.
+     */
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(hash);
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+            return true;
+        if (getClass().equals(obj.getClass()))
+        {
+            ChecksumEntry entry = (ChecksumEntry) obj;
+            return Arrays.equals(hash, entry.hash) && path.equals(entry.path);
+        }
+        return false;
+    }
+}
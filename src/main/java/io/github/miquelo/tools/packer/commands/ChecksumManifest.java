@@ -0,0 +1,408 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Binary checksum manifest.
+ * 
+ * Layout, big-endian:
+ * 
+ * <pre>
+ * magic        int     "PKCS"
+ * version      int
+ * algorithm    short + UTF-8 bytes
+ * build parameters int + UTF-8 bytes
+ * hash length  int
+ * entry count  int
+ * entries      entry count fixed-width records sorted by path bytes
+ *   path offset      int   (into string table)
+ *   path length      int
+ *   file key offset  int   (into string table)
+ *   file key length  int   (-1 when there is no file key)
+ *   size             long
+ *   last modified    long
+ *   strategy         byte  (fingerprint strategy code)
+ *   hash             hash length bytes
+ * string table UTF-8 bytes
+ * </pre>
+ * 
+ * It is read into a single heap buffer and entries are looked up by binary
+ * search over the path bytes, so no object is created per entry. It is not
+ * memory-mapped, so the file is never kept busy while a new manifest
+ * replaces it. Every record is validated when read, so a truncated or
+ * corrupt manifest is taken as missing.
+ */
+class ChecksumManifest
+{
+    static final int MAGIC = 0x504b4353;
+    static final int VERSION = 3;
+    
+    private static final int NO_FILE_KEY = -1;
+    private static final int RECORD_FIXED_SIZE = 4 * 4 + 2 * 8 + 1;
+    
+    /**
+     * Order of manifest entries, that is, unsigned UTF-8 bytes of their paths.
+     */
+    static final Comparator<String> PATH_ORDER = comparing(
+        path -> path.getBytes(UTF_8),
+        ChecksumManifest::compare);
+    
+    private final ByteBuffer buffer;
+    private final String buildParameters;
+    private final int hashLength;
+    private final int count;
+    private final int recordsOffset;
+    private final int recordSize;
+    private final int stringsOffset;
+    
+    private ChecksumManifest(
+        ByteBuffer buffer,
+        String buildParameters,
+        int hashLength,
+        int count)
+    {
+        this.buffer = buffer;
+        this.buildParameters = buildParameters;
+        this.hashLength = hashLength;
+        this.count = count;
+        recordsOffset = buffer.position();
+        recordSize = RECORD_FIXED_SIZE + hashLength;
+        stringsOffset = recordsOffset + count * recordSize;
+    }
+    
+    int size()
+    {
+        return count;
+    }
+    
+    /**
+     * Parameters, other than input files, of the build this manifest was
+     * written for.
+     */
+    String getBuildParameters()
+    {
+        return buildParameters;
+    }
+    
+    /**
+     * Index of the entry with the given path, or a negative value if there is
+     * not any.
+     */
+    int find(String path)
+    {
+        byte[] key = path.getBytes(UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int cmp = comparePath(middle, key);
+            if (cmp < 0)
+                low = middle + 1;
+            else if (cmp > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+    
+    String path(int index)
+    {
+        int record = record(index);
+        return string(buffer.getInt(record), buffer.getInt(record + 4));
+    }
+    
+    FileMetadata metadata(int index)
+    {
+        int record = record(index);
+        int fileKeyLength = buffer.getInt(record + 12);
+        return new FileMetadata(
+            buffer.getLong(record + 16),
+            buffer.getLong(record + 24),
+            fileKeyLength == NO_FILE_KEY
+                ? null
+                : string(buffer.getInt(record + 8), fileKeyLength));
+    }
+    
+    boolean metadataEquals(int index, FileMetadata metadata)
+    {
+        int record = record(index);
+        return buffer.getLong(record + 16) == metadata.getSize()
+            && buffer.getLong(record + 24) == metadata.getLastModified()
+            && metadata(index).equals(metadata);
+    }
+    
+    /**
+     * Whether the entry at the given index was fingerprinted with the given
+     * strategy.
+     */
+    boolean strategyEquals(int index, FingerprintStrategy strategy)
+    {
+        return buffer.get(record(index) + 32) == strategy.getCode();
+    }
+    
+    byte[] hash(int index)
+    {
+        byte[] hash = new byte[hashLength];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(record(index) + RECORD_FIXED_SIZE);
+        slice.get(hash);
+        return hash;
+    }
+    
+    boolean hashEquals(int index, byte[] hash)
+    {
+        if (hash.length != hashLength)
+            return false;
+        int offset = record(index) + RECORD_FIXED_SIZE;
+        for (int i = 0; i < hashLength; ++i)
+            if (buffer.get(offset + i) != hash[i])
+                return false;
+        return true;
+    }
+    
+    ChecksumEntry entry(int index)
+    {
+        return new ChecksumEntry(
+            hash(index),
+            path(index),
+            metadata(index),
+            FingerprintStrategy.ofCode(buffer.get(record(index) + 32)));
+    }
+    
+    private int record(int index)
+    {
+        return recordsOffset + index * recordSize;
+    }
+    
+    /**
+     * Compare path of the entry at the given index against the given UTF-8
+     * path bytes.
+     */
+    int comparePath(int index, byte[] key)
+    {
+        int record = record(index);
+        int offset = stringsOffset + buffer.getInt(record);
+        int length = buffer.getInt(record + 4);
+        int min = Math.min(length, key.length);
+        for (int i = 0; i < min; ++i)
+        {
+            int cmp = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+    
+    private String string(int offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(stringsOffset + offset);
+        slice.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+    
+    /**
+     * Read the manifest in the given file.
+     * 
+     * It is empty when the file does not exist, when it is not a manifest of
+     * the current version, when it was written with another algorithm or
+     * when it is truncated or corrupt.
+     */
+    static Optional<ChecksumManifest> read(File file, String algorithm)
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                return Optional.empty();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    return Optional.empty();
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return Optional.empty();
+            byte[] algorithmBytes = new byte[buffer.getShort() & 0xffff];
+            buffer.get(algorithmBytes);
+            if (!algorithm.equals(new String(algorithmBytes, UTF_8)))
+                return Optional.empty();
+            int buildParametersLength = buffer.getInt();
+            if (buildParametersLength < 0 ||
+                buildParametersLength > buffer.remaining())
+                return Optional.empty();
+            byte[] buildParametersBytes = new byte[buildParametersLength];
+            buffer.get(buildParametersBytes);
+            int hashLength = buffer.getInt();
+            int count = buffer.getInt();
+            if (hashLength < 0 || count < 0 ||
+                (long) count * (RECORD_FIXED_SIZE + hashLength) >
+                buffer.remaining())
+                return Optional.empty();
+            ChecksumManifest manifest = new ChecksumManifest(
+                buffer,
+                new String(buildParametersBytes, UTF_8),
+                hashLength,
+                count);
+            return manifest.isValid()
+                ? Optional.of(manifest)
+                : Optional.empty();
+        }
+        catch (NoSuchFileException | BufferUnderflowException exception)
+        {
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Whether every record points into the string table and has a known
+     * strategy, so lookups never read out of the buffer.
+     */
+    private boolean isValid()
+    {
+        long stringsSize = buffer.limit() - stringsOffset;
+        for (int i = 0; i < count; ++i)
+        {
+            int record = record(i);
+            int fileKeyLength = buffer.getInt(record + 12);
+            if (!isStringValid(
+                buffer.getInt(record),
+                buffer.getInt(record + 4),
+                stringsSize))
+                return false;
+            if (fileKeyLength != NO_FILE_KEY && !isStringValid(
+                buffer.getInt(record + 8),
+                fileKeyLength,
+                stringsSize))
+                return false;
+            try
+            {
+                FingerprintStrategy.ofCode(buffer.get(record + 32));
+            }
+            catch (IllegalArgumentException exception)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isStringValid(
+        int offset,
+        int length,
+        long stringsSize)
+    {
+        return offset >= 0
+            && length >= 0
+            && (long) offset + length <= stringsSize;
+    }
+    
+    /**
+     * Write a manifest with the given build parameters and entries, replacing
+     * the given file.
+     * 
+     * Entries are streamed twice, first for the records and then for the
+     * string table, so nothing but the sorted order is kept in memory.
+     */
+    static void write(
+        File file,
+        String algorithm,
+        String buildParameters,
+        Collection<ChecksumEntry> entries)
+    throws IOException
+    {
+        List<ChecksumEntry> sorted = entries.stream()
+            .sorted(comparing(ChecksumEntry::getPath, PATH_ORDER))
+            .collect(toList());
+        int hashLength = sorted.isEmpty()
+            ? 0
+            : sorted.get(0).getHash().length;
+        
+        File tempFile = new File(
+            file.getParentFile(),
+            file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tempFile))))
+        {
+            byte[] algorithmBytes = algorithm.getBytes(UTF_8);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeShort(algorithmBytes.length);
+            output.write(algorithmBytes);
+            byte[] buildParametersBytes = buildParameters.getBytes(UTF_8);
+            output.writeInt(buildParametersBytes.length);
+            output.write(buildParametersBytes);
+            output.writeInt(hashLength);
+            output.writeInt(sorted.size());
+            int stringsSize = 0;
+            for (ChecksumEntry entry : sorted)
+            {
+                int pathLength = entry.getPath().getBytes(UTF_8).length;
+                output.writeInt(stringsSize);
+                output.writeInt(pathLength);
+                stringsSize += pathLength;
+                
+                String fileKey = entry.getMetadata().getFileKey();
+                if (fileKey == null)
+                {
+                    output.writeInt(0);
+                    output.writeInt(NO_FILE_KEY);
+                }
+                else
+                {
+                    int fileKeyLength = fileKey.getBytes(UTF_8).length;
+                    output.writeInt(stringsSize);
+                    output.writeInt(fileKeyLength);
+                    stringsSize += fileKeyLength;
+                }
+                
+                output.writeLong(entry.getMetadata().getSize());
+                output.writeLong(entry.getMetadata().getLastModified());
+                output.writeByte(entry.getStrategy().getCode());
+                output.write(entry.getHash());
+            }
+            for (ChecksumEntry entry : sorted)
+            {
+                output.write(entry.getPath().getBytes(UTF_8));
+                String fileKey = entry.getMetadata().getFileKey();
+                if (fileKey != null)
+                    output.write(fileKey.getBytes(UTF_8));
+            }
+        }
+        move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+    
+    private static int compare(byte[] a, byte[] b)
+    {
+        int min = Math.min(a.length, b.length);
+        for (int i = 0; i < min; ++i)
+        {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+}
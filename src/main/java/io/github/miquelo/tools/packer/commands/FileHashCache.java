@@ -0,0 +1,249 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes of physical files, shared by every fingerprint of the same session.
+ * 
+ * Files are identified by their canonical path and metadata. When the file
+ * system provides a file key, hard links to the same file have the same key,
+ * size and last modified time, so they are read only once. Since file keys
+ * may be reused once a file is deleted, hard links are only known during the
+ * current session and they are never saved.
+ * 
+ * It keeps a bounded amount of hashes, evicting the least recently used ones,
+ * and it can be loaded from and saved to a file so it survives between
+ * sessions. The bound grows to the amount of fingerprinted files, so hashes
+ * of a whole input directory are never evicted while it is fingerprinted.
+ */
+class FileHashCache
+{
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+    
+    private static final int MAGIC = 0x504b4843;
+    private static final int VERSION = 2;
+    
+    private static final FileHashCache SESSION = new FileHashCache(
+        DEFAULT_CAPACITY);
+    
+    private final AtomicInteger capacity;
+    private final Map<String, byte[]> hashes;
+    private final Map<String, String> linkedKeys;
+    private final Set<File> loadedFiles;
+    private final AtomicBoolean modified;
+    
+    FileHashCache(int capacity)
+    {
+        this.capacity = new AtomicInteger(capacity);
+        hashes = boundedMap(this.capacity);
+        linkedKeys = boundedMap(this.capacity);
+        loadedFiles = Collections.synchronizedSet(new HashSet<>());
+        modified = new AtomicBoolean(false);
+    }
+    
+    /**
+     * Hash of the given file, if it was cached.
+     */
+    Optional<byte[]> get(String algorithm, Path path, FileMetadata metadata)
+    {
+        Optional<byte[]> hash = Optional.ofNullable(hashes.get(key(
+            algorithm,
+            path,
+            metadata)));
+        if (hash.isPresent() || metadata.getFileKey() == null)
+            return hash;
+        return Optional.ofNullable(linkedKeys.get(linkedKey(
+            algorithm,
+            metadata)))
+            .map(hashes::get);
+    }
+    
+    /**
+     * Cache hash of the given file.
+     */
+    void put(String algorithm, Path path, FileMetadata metadata, byte[] hash)
+    {
+        String key = key(algorithm, path, metadata);
+        hashes.put(key, hash);
+        if (metadata.getFileKey() != null)
+            linkedKeys.put(linkedKey(algorithm, metadata), key);
+        modified.set(true);
+    }
+    
+    /**
+     * Make room for hashes of the given amount of files, if there was not
+     * enough.
+     */
+    void capacityEnsure(int files)
+    {
+        capacity.accumulateAndGet(files, Math::max);
+    }
+    
+    /**
+     * Load hashes saved on the given file, unless it was already loaded.
+     * 
+     * Hashes in memory take precedence. Nothing is loaded when the file does
+     * not exist or when it is not a cache of the current version.
+     */
+    void load(File file)
+    throws IOException
+    {
+        if (!loadedFiles.add(file.getAbsoluteFile()))
+            return;
+        
+        List<Entry<String, byte[]>> entries = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return;
+            for (int count = input.readInt(); count > 0; --count)
+            {
+                String key = input.readUTF();
+                byte[] hash = new byte[input.readUnsignedShort()];
+                input.readFully(hash);
+                entries.add(new SimpleImmutableEntry<>(key, hash));
+            }
+        }
+        catch (FileNotFoundException | EOFException exception)
+        {
+            return;
+        }
+        synchronized (hashes)
+        {
+            for (Entry<String, byte[]> entry : entries)
+                hashes.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Save hashes to the given file, if some was cached since last save.
+     */
+    void save(File file)
+    throws IOException
+    {
+        if (!modified.getAndSet(false))
+            return;
+        
+        List<Entry<String, byte[]>> entries;
+        synchronized (hashes)
+        {
+            entries = new ArrayList<>(hashes.size());
+            for (Entry<String, byte[]> entry : hashes.entrySet())
+                entries.add(new SimpleImmutableEntry<>(
+                    entry.getKey(),
+                    entry.getValue()));
+        }
+        
+        try
+        {
+            write(file, entries);
+        }
+        catch (IOException exception)
+        {
+            modified.set(true);
+            throw exception;
+        }
+    }
+    
+    private static void write(File file, List<Entry<String, byte[]>> entries)
+    throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        createDirectories(dir.toPath());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try (DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tempFile))))
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (Entry<String, byte[]> entry : entries)
+            {
+                output.writeUTF(entry.getKey());
+                output.writeShort(entry.getValue().length);
+                output.write(entry.getValue());
+            }
+        }
+        move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+    
+    /**
+     * Cache shared by this class loader, which lives as long as the build
+     * session for a plugin.
+     */
+    static FileHashCache session()
+    {
+        return SESSION;
+    }
+    
+    private static <V> Map<String, V> boundedMap(AtomicInteger capacity)
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(
+            16,
+            0.75f,
+            true)
+        {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Entry<String, V> eldest)
+            {
+                return size() > capacity.get();
+            }
+        });
+    }
+    
+    private static String key(
+        String algorithm,
+        Path path,
+        FileMetadata metadata)
+    {
+        return format("%s %s %s", algorithm, metadata, canonical(path));
+    }
+    
+    private static String linkedKey(String algorithm, FileMetadata metadata)
+    {
+        return format("%s %s", algorithm, metadata);
+    }
+    
+    private static Path canonical(Path path)
+    {
+        try
+        {
+            return path.toRealPath();
+        }
+        catch (IOException exception)
+        {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.readAttributes;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * File attributes that are cheap to obtain and that change whenever file
+ * content is replaced.
+ * 
+ * File key is {@code null} when the file system does not provide one.
+ * 
+ * @see BasicFileAttributes#fileKey()
+ */
+class FileMetadata
+{
+    private static final String NO_FILE_KEY = "-";
+    
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    
+    FileMetadata(long size, long lastModified, String fileKey)
+    {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+    }
+    
+    long getSize()
+    {
+        return size;
+    }
+    
+    /**
+     * Last modified time in nanoseconds since epoch.
+     */
+    long getLastModified()
+    {
+        return lastModified;
+    }
+    
+    String getFileKey()
+    {
+        return fileKey;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(size, lastModified, fileKey);
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+            return true;
+        if (obj != null && getClass().equals(obj.getClass()))
+        {
+            FileMetadata metadata = (FileMetadata) obj;
+            return size == metadata.size
+                && lastModified == metadata.lastModified
+                && Objects.equals(fileKey, metadata.fileKey);
+        }
+        return false;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return format(
+            "%d %d %s",
+            size,
+            lastModified,
+            fileKey == null ? NO_FILE_KEY : fileKey.replace(' ', '_'));
+    }
+    
+    static FileMetadata of(BasicFileAttributes attributes)
+    {
+        return new FileMetadata(
+            attributes.size(),
+            attributes.lastModifiedTime().to(NANOSECONDS),
+            attributes.fileKey() == null
+                ? null
+                : attributes.fileKey().toString().replace(' ', '_'));
+    }
+    
+    /**
+     * Attributes of the regular file at the given path, following symbolic
+     * links, from the attributes of the entry itself as file tree walks
+     * give them.
+     * 
+     * @return
+     *     Attributes of the regular file, or empty if it is not a regular
+     *     file nor a link to one.
+     */
+    static Optional<BasicFileAttributes> regularFileAttributes(
+        Path path,
+        BasicFileAttributes attributes)
+    throws IOException
+    {
+        if (attributes.isRegularFile())
+            return Optional.of(attributes);
+        if (!attributes.isSymbolicLink())
+            return Optional.empty();
+        try
+        {
+            return Optional.of(readAttributes(
+                path,
+                BasicFileAttributes.class))
+                .filter(BasicFileAttributes::isRegularFile);
+        }
+        catch (NoSuchFileException exception)
+        {
+            // Dangling links are not files...
+            return Optional.empty();
+        }
+    }
+    
+    static FileMetadata parse(String size, String lastModified, String fileKey)
+    {
+        return new FileMetadata(
+            Long.parseLong(size),
+            Long.parseLong(lastModified),
+            NO_FILE_KEY.equals(fileKey) ? null : fileKey);
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy.FULL;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toList;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Include and exclude globs of fingerprinted input files.
+ * 
+ * Globs are matched against paths relative to input directory. Globs without
+ * a separator are matched against each path element name instead, so
+ * {@code packer_cache} or {@code *.log} match at any depth. Globs ending
+ * with a separator only match directories, so {@code output-*}{@code /}
+ * does not match a file named {@code output-config.sh}.
+ * 
+ * Strategy globs choose how accepted files are fingerprinted. When several
+ * of them match the same file, the most thorough strategy is taken.
+ */
+class FingerprintFilter
+{
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final String SEPARATOR = "/";
+    
+    private final Path baseDir;
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final Map<FingerprintStrategy, List<Glob>> strategies;
+    
+    /**
+     * Fingerprint filter constructor fingerprinting every file fully.
+     */
+    FingerprintFilter(Path baseDir, Set<String> includes, Set<String> excludes)
+    {
+        this(baseDir, includes, excludes, emptyMap());
+    }
+    
+    /**
+     * Fingerprint filter complete constructor.
+     * 
+     * @param baseDir
+     *     Directory globs are relative to.
+     * @param includes
+     *     Globs of files that must be fingerprinted. Empty for all.
+     * @param excludes
+     *     Globs of files and directories that must not be fingerprinted.
+     * @param strategies
+     *     Fingerprint strategy of files matching each glob. Other files are
+     *     fingerprinted fully.
+     */
+    FingerprintFilter(
+        Path baseDir,
+        Set<String> includes,
+        Set<String> excludes,
+        Map<String, FingerprintStrategy> strategies)
+    {
+        this.baseDir = baseDir;
+        this.includes = globs(baseDir.getFileSystem(), includes);
+        this.excludes = globs(baseDir.getFileSystem(), excludes);
+        this.strategies = new EnumMap<>(FingerprintStrategy.class);
+        strategies.forEach((glob, strategy) -> this.strategies
+            .computeIfAbsent(strategy, key -> new ArrayList<>())
+            .addAll(globs(baseDir.getFileSystem(), singleton(glob))));
+    }
+    
+    /**
+     * Whether the given directory must be descended into.
+     */
+    boolean acceptsDirectory(Path dir)
+    {
+        Path relative = baseDir.relativize(dir);
+        return relative.toString().isEmpty()
+            || !matches(excludes, relative, true);
+    }
+    
+    /**
+     * Whether the given file must be fingerprinted.
+     */
+    boolean acceptsFile(Path file)
+    {
+        Path relative = baseDir.relativize(file);
+        return (includes.isEmpty() || matches(includes, relative, false))
+            && !matches(excludes, relative, false);
+    }
+    
+    /**
+     * How the given accepted file must be fingerprinted.
+     */
+    FingerprintStrategy strategy(Path file)
+    {
+        if (strategies.isEmpty())
+            return FULL;
+        // EnumMap iterates from the most to the least thorough strategy
+        Path relative = baseDir.relativize(file);
+        for (Entry<FingerprintStrategy, List<Glob>> globs :
+            strategies.entrySet())
+            if (matches(globs.getValue(), relative, false))
+                return globs.getKey();
+        return FULL;
+    }
+    
+    private static boolean matches(
+        List<Glob> globs,
+        Path relative,
+        boolean directory)
+    {
+        return globs.stream()
+            .anyMatch(glob -> glob.matches(relative, directory));
+    }
+    
+    private static List<Glob> globs(FileSystem fileSystem, Set<String> globs)
+    {
+        return globs.stream()
+            .map(glob -> glob(fileSystem, glob))
+            .collect(toList());
+    }
+    
+    private static Glob glob(FileSystem fileSystem, String glob)
+    {
+        boolean directoryOnly = glob.endsWith(SEPARATOR);
+        String pattern = directoryOnly
+            ? glob.substring(0, glob.length() - SEPARATOR.length())
+            : glob;
+        return new Glob(
+            fileSystem.getPathMatcher(GLOB_SYNTAX.concat(pattern)),
+            !pattern.contains(SEPARATOR),
+            directoryOnly);
+    }
+}
+
+class Glob
+{
+    private final PathMatcher matcher;
+    private final boolean nameOnly;
+    private final boolean directoryOnly;
+    
+    Glob(PathMatcher matcher, boolean nameOnly, boolean directoryOnly)
+    {
+        this.matcher = matcher;
+        this.nameOnly = nameOnly;
+        this.directoryOnly = directoryOnly;
+    }
+    
+    boolean matches(Path relative, boolean directory)
+    {
+        if (directoryOnly && !directory)
+            return relative.getParent() != null
+                && parentMatches(relative.getParent());
+        if (!nameOnly)
+            return matcher.matches(relative);
+        for (Path name : relative)
+            if (matcher.matches(name))
+                return true;
+        return false;
+    }
+    
+    // Files are only matched by the directories they are in
+    private boolean parentMatches(Path parent)
+    {
+        for (int i = 1; i <= parent.getNameCount(); ++i)
+            if (nameOnly
+                ? matcher.matches(parent.getName(i - 1))
+                : matcher.matches(parent.subpath(0, i)))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.miquelo.tools.packer.commands;
+
+/**
+ * How input files are fingerprinted.
+ * 
+ * Strategies are declared from the most to the least thorough one.
+ */
+public enum FingerprintStrategy
+{
+    /**
+     * Hash of the whole file content.
+     */
+    FULL((byte) 0),
+    
+    /**
+     * Hash of file size together with its head, its tail and some evenly
+     * spaced blocks in between. It is meant for huge files that are never
+     * edited in place, such as ISO or base images versioned by file name.
+     */
+    SAMPLED((byte) 1),
+    
+    /**
+     * Hash of file size, last modified time and file key only, without
+     * reading any content.
+     */
+    METADATA((byte) 2);
+    
+    private final byte code;
+    
+    private FingerprintStrategy(byte code)
+    {
+        this.code = code;
+    }
+    
+    /**
+     * Code of this strategy on checksum manifests.
+     */
+    byte getCode()
+    {
+        return code;
+    }
+    
+    /**
+     * Strategy with the given manifest code.
+     * 
+     * @throws IllegalArgumentException
+     *     If there is not any strategy with the given code.
+     */
+    static FingerprintStrategy ofCode(byte code)
+    {
+        for (FingerprintStrategy strategy : values())
+            if (strategy.code == code)
+                return strategy;
+        throw new IllegalArgumentException(
+            "Unknown fingerprint strategy code: " + code);
+    }
+}
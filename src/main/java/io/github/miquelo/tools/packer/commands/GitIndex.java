@@ -0,0 +1,399 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.readAllLines;
+import static java.nio.file.Files.readAttributes;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Blob object ids of clean files tracked by a Git repository, read from its
+ * index file without any Git executable.
+ * 
+ * A tracked file is clean when its size, last modified time, status change
+ * time, inode and device are the ones recorded on the index, as Git checks
+ * them by default, and it was not modified during or after the second the
+ * index file was last modified, since those entries cannot be told apart
+ * from racy ones. Status change time, inode and device are only checked
+ * where the file system exposes them as Unix attributes. Conflicting,
+ * skip-worktree, assume-valid and intent-to-add entries are never clean.
+ * 
+ * Index versions 2, 3 and 4 of SHA-1 repositories are supported. Split
+ * indexes and repositories using any other object format are not, so they
+ * are treated as if there were not any clean file.
+ * 
+ * Object ids are the hashes of clean content, so files affected by Git
+ * content filters may be reported as changed once when they become clean.
+ */
+class GitIndex
+{
+    private static final String GIT_DIR_NAME = ".git";
+    private static final String GIT_DIR_FILE_PREFIX = "gitdir:";
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String CONFIG_FILE_NAME = "config";
+    private static final String COMMON_DIR_FILE_NAME = "commondir";
+    
+    private static final String EXTENSIONS_SECTION = "[extensions]";
+    private static final String OBJECT_FORMAT_KEY = "objectformat";
+    private static final String SHA1_OBJECT_FORMAT = "sha1";
+    
+    private static final String UNIX_ATTRIBUTES = "unix:ctime,ino,dev";
+    private static final String CTIME_ATTRIBUTE = "ctime";
+    private static final String INO_ATTRIBUTE = "ino";
+    private static final String DEV_ATTRIBUTE = "dev";
+    
+    private static final int SIGNATURE = 0x44495243;
+    private static final int SPLIT_INDEX_EXTENSION = 0x6c696e6b;
+    private static final int OBJECT_ID_LENGTH = 20;
+    private static final int EXTENSION_HEADER_LENGTH = 8;
+    
+    private static final int MODE_TYPE_MASK = 0170000;
+    private static final int MODE_TYPE_REGULAR = 0100000;
+    private static final int FLAG_ASSUME_VALID = 0x8000;
+    private static final int FLAG_EXTENDED = 0x4000;
+    private static final int FLAG_STAGE_MASK = 0x3000;
+    private static final int EXTENDED_FLAG_SKIP_WORKTREE = 0x4000;
+    private static final int EXTENDED_FLAG_INTENT_TO_ADD = 0x2000;
+    
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    
+    private final Path workTree;
+    private final Map<String, GitIndexEntry> entries;
+    
+    private GitIndex(Path workTree, Map<String, GitIndexEntry> entries)
+    {
+        this.workTree = workTree;
+        this.entries = entries;
+    }
+    
+    /**
+     * Object id of the given file, if it is tracked and clean.
+     * 
+     * @param path
+     *     File path.
+     * @param metadata
+     *     Current file metadata.
+     */
+    Optional<byte[]> objectId(Path path, FileMetadata metadata)
+    {
+        Path absolutePath = path.toAbsolutePath().normalize();
+        if (!absolutePath.startsWith(workTree))
+            return Optional.empty();
+        
+        StringBuilder name = new StringBuilder();
+        for (Path element : workTree.relativize(absolutePath))
+        {
+            if (name.length() > 0)
+                name.append('/');
+            name.append(element);
+        }
+        return Optional.ofNullable(entries.get(name.toString()))
+            .filter(entry -> entry.isCleanFor(metadata))
+            .filter(entry -> entry.isStatCleanFor(unixAttributes(path)))
+            .map(GitIndexEntry::getObjectId);
+    }
+    
+    private static Optional<Map<String, Object>> unixAttributes(Path path)
+    {
+        try
+        {
+            return Optional.of(readAttributes(path, UNIX_ATTRIBUTES));
+        }
+        catch (UnsupportedOperationException | IllegalArgumentException
+            | IOException exception)
+        {
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Index of the Git work tree containing the given directory.
+     * 
+     * @return
+     *     The read index, or empty if the directory is not inside a Git work
+     *     tree or its index is not supported.
+     */
+    static Optional<GitIndex> of(Path dir)
+    throws IOException
+    {
+        for (Path workTree = dir.toAbsolutePath().normalize();
+            workTree != null;
+            workTree = workTree.getParent())
+        {
+            Path gitPath = workTree.resolve(GIT_DIR_NAME);
+            if (isDirectory(gitPath))
+                return read(workTree, gitPath);
+            if (isRegularFile(gitPath))
+            {
+                Optional<Path> gitDir = gitDirOf(gitPath);
+                if (!gitDir.isPresent())
+                    return Optional.empty();
+                return read(workTree, gitDir.get());
+            }
+        }
+        return Optional.empty();
+    }
+    
+    private static Optional<Path> gitDirOf(Path gitFile)
+    throws IOException
+    {
+        String content = new String(readAllBytes(gitFile), UTF_8).trim();
+        if (!content.startsWith(GIT_DIR_FILE_PREFIX))
+            return Optional.empty();
+        return Optional.of(gitFile.getParent().resolve(content.substring(
+            GIT_DIR_FILE_PREFIX.length()).trim()));
+    }
+    
+    /**
+     * Whether the repository of the given Git directory uses SHA-1 object
+     * ids. Linked work trees take their configuration from the common
+     * directory.
+     */
+    private static boolean sha1ObjectFormat(Path gitDir)
+    throws IOException
+    {
+        Path commonDirFile = gitDir.resolve(COMMON_DIR_FILE_NAME);
+        Path commonDir = isRegularFile(commonDirFile)
+            ? gitDir.resolve(new String(
+                readAllBytes(commonDirFile),
+                UTF_8).trim())
+            : gitDir;
+        Path configFile = commonDir.resolve(CONFIG_FILE_NAME);
+        if (!isRegularFile(configFile))
+            return true;
+        
+        boolean extensions = false;
+        for (String line : readAllLines(configFile, UTF_8))
+        {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("["))
+                extensions = trimmed.equalsIgnoreCase(EXTENSIONS_SECTION);
+            else if (extensions)
+            {
+                int index = trimmed.indexOf('=');
+                if (index > 0 && trimmed.substring(0, index).trim()
+                    .equalsIgnoreCase(OBJECT_FORMAT_KEY))
+                    return trimmed.substring(index + 1).trim()
+                        .equalsIgnoreCase(SHA1_OBJECT_FORMAT);
+            }
+        }
+        return true;
+    }
+    
+    private static Optional<GitIndex> read(Path workTree, Path gitDir)
+    {
+        try
+        {
+            if (!sha1ObjectFormat(gitDir))
+                return Optional.empty();
+            
+            Path indexFile = gitDir.resolve(INDEX_FILE_NAME);
+            long indexModified = getLastModifiedTime(indexFile).to(
+                NANOSECONDS);
+            return parse(
+                workTree,
+                ByteBuffer.wrap(readAllBytes(indexFile)),
+                indexModified / NANOS_PER_SECOND);
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            return Optional.empty();
+        }
+    }
+    
+    private static Optional<GitIndex> parse(
+        Path workTree,
+        ByteBuffer buf,
+        long indexModifiedSeconds)
+    {
+        if (buf.getInt() != SIGNATURE)
+            return Optional.empty();
+        int version = buf.getInt();
+        if (version < 2 || version > 4)
+            return Optional.empty();
+        
+        Map<String, GitIndexEntry> entries = new HashMap<>();
+        byte[] previousName = new byte[0];
+        for (int count = buf.getInt(); count > 0; --count)
+        {
+            int start = buf.position();
+            long changedSeconds = buf.getInt() & 0xffffffffL;
+            long changedNanos = buf.getInt() & 0xffffffffL;
+            long modifiedSeconds = buf.getInt() & 0xffffffffL;
+            long modifiedNanos = buf.getInt() & 0xffffffffL;
+            long dev = buf.getInt() & 0xffffffffL;
+            long ino = buf.getInt() & 0xffffffffL;
+            int mode = buf.getInt();
+            buf.position(start + 36);
+            long size = buf.getInt() & 0xffffffffL;
+            byte[] objectId = new byte[OBJECT_ID_LENGTH];
+            buf.get(objectId);
+            int flags = buf.getShort() & 0xffff;
+            int extendedFlags = version >= 3 && (flags & FLAG_EXTENDED) != 0
+                ? buf.getShort() & 0xffff
+                : 0;
+            
+            byte[] name;
+            if (version == 4)
+            {
+                int strip = (int) varint(buf);
+                byte[] suffix = nulTerminated(buf);
+                name = Arrays.copyOf(
+                    previousName,
+                    previousName.length - strip + suffix.length);
+                System.arraycopy(
+                    suffix,
+                    0,
+                    name,
+                    previousName.length - strip,
+                    suffix.length);
+            }
+            else
+            {
+                name = nulTerminated(buf);
+                int length = buf.position() - start;
+                buf.position(start + ((length + 7) & ~7));
+            }
+            previousName = name;
+            
+            boolean trusted = (mode & MODE_TYPE_MASK) == MODE_TYPE_REGULAR
+                && (flags & (FLAG_STAGE_MASK | FLAG_ASSUME_VALID)) == 0
+                && (extendedFlags & (
+                    EXTENDED_FLAG_SKIP_WORKTREE |
+                    EXTENDED_FLAG_INTENT_TO_ADD)) == 0
+                && modifiedSeconds < indexModifiedSeconds;
+            if (trusted)
+                entries.put(new String(name, UTF_8), new GitIndexEntry(
+                    objectId,
+                    size,
+                    modifiedSeconds,
+                    modifiedNanos,
+                    changedSeconds,
+                    changedNanos,
+                    dev,
+                    ino));
+        }
+        
+        while (buf.remaining() > OBJECT_ID_LENGTH + EXTENSION_HEADER_LENGTH)
+        {
+            int extension = buf.getInt();
+            int length = buf.getInt();
+            if (extension == SPLIT_INDEX_EXTENSION)
+                return Optional.empty();
+            buf.position(buf.position() + length);
+        }
+        return Optional.of(new GitIndex(workTree, entries));
+    }
+    
+    private static long varint(ByteBuffer buf)
+    {
+        int c = buf.get() & 0xff;
+        long value = c & 0x7f;
+        while ((c & 0x80) != 0)
+        {
+            c = buf.get() & 0xff;
+            value = ((value + 1) << 7) | (c & 0x7f);
+        }
+        return value;
+    }
+    
+    private static byte[] nulTerminated(ByteBuffer buf)
+    {
+        int end = buf.position();
+        while (buf.get(end) != 0)
+            ++end;
+        byte[] bytes = new byte[end - buf.position()];
+        buf.get(bytes);
+        buf.get();
+        return bytes;
+    }
+    
+    private static class GitIndexEntry
+    {
+        private final byte[] objectId;
+        private final long size;
+        private final long modifiedSeconds;
+        private final long modifiedNanos;
+        private final long changedSeconds;
+        private final long changedNanos;
+        private final long dev;
+        private final long ino;
+        
+        GitIndexEntry(
+            byte[] objectId,
+            long size,
+            long modifiedSeconds,
+            long modifiedNanos,
+            long changedSeconds,
+            long changedNanos,
+            long dev,
+            long ino)
+        {
+            this.objectId = objectId;
+            this.size = size;
+            this.modifiedSeconds = modifiedSeconds;
+            this.modifiedNanos = modifiedNanos;
+            this.changedSeconds = changedSeconds;
+            this.changedNanos = changedNanos;
+            this.dev = dev;
+            this.ino = ino;
+        }
+        
+        byte[] getObjectId()
+        {
+            return objectId;
+        }
+        
+        boolean isCleanFor(FileMetadata metadata)
+        {
+            long lastModified = metadata.getLastModified();
+            return (metadata.getSize() & 0xffffffffL) == size
+                && timeEquals(lastModified, modifiedSeconds, modifiedNanos);
+        }
+        
+        /**
+         * Whether status change time, inode and device are the recorded
+         * ones, as 32-bit values, if the given Unix attributes are known.
+         */
+        boolean isStatCleanFor(Optional<Map<String, Object>> unixAttributes)
+        {
+            if (!unixAttributes.isPresent())
+                return true;
+            
+            Map<String, Object> attributes = unixAttributes.get();
+            long changed = ((FileTime) attributes.get(CTIME_ATTRIBUTE)).to(
+                NANOSECONDS);
+            long currentIno = ((Number) attributes.get(INO_ATTRIBUTE))
+                .longValue();
+            long currentDev = ((Number) attributes.get(DEV_ATTRIBUTE))
+                .longValue();
+            return timeEquals(changed, changedSeconds, changedNanos)
+                && (currentIno & 0xffffffffL) == ino
+                && (currentDev & 0xffffffffL) == dev;
+        }
+        
+        private static boolean timeEquals(
+            long time,
+            long recordedSeconds,
+            long recordedNanos)
+        {
+            return (Math.floorDiv(time, NANOS_PER_SECOND) & 0xffffffffL)
+                    == recordedSeconds
+                && (recordedNanos == 0L
+                    || Math.floorMod(time, NANOS_PER_SECOND)
+                        == recordedNanos);
+        }
+    }
+}
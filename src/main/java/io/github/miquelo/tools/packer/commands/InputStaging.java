@@ -0,0 +1,312 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.FileVisitResult.SKIP_SUBTREE;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createLink;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.isSameFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.walkFileTree;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.util.Objects.requireNonNull;
+import static java.util.regex.Matcher.quoteReplacement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.miquelo.tools.packer.PackerCommandException;
+
+/**
+ * Stages source files into input directory of a Packer build.
+ * 
+ * Files staged as they are get hard linked, so their content is never copied
+ * nor read. They are copied keeping their attributes only when they cannot be
+ * linked, for instance when input directory is on another file store. Since
+ * links share the file key of their source, hashes of source files already
+ * on the fingerprint cache are taken for them as well.
+ * 
+ * Filtered files get their {@code ${expression}} occurrences replaced in
+ * memory. They are hashed before being written and their hashes are put on
+ * the session fingerprint cache, so a later build of the same session does
+ * not read them again.
+ * 
+ * Staged files that are already up to date are left untouched, so their
+ * metadata and their cached hashes stay valid.
+ */
+public class InputStaging
+{
+    private static final Pattern EXPRESSION = Pattern.compile(
+        "\\$\\{([^}]+)\\}");
+    
+    private final Path inputDir;
+    private final String fingerprintAlgorithm;
+    private final ChecksumCalculator checksumCalculator;
+    
+    /**
+     * Input staging complete constructor.
+     * 
+     * @param digestCreator
+     *     Message digest creator used to hash filtered files.
+     * @param fingerprintAlgorithm
+     *     Fingerprint algorithm of the later build.
+     * @param inputDir
+     *     Input directory of the later build.
+     */
+    public InputStaging(
+        MessageDigestCreator digestCreator,
+        String fingerprintAlgorithm,
+        File inputDir)
+    {
+        this.inputDir = inputDir.toPath();
+        this.fingerprintAlgorithm = requireNonNull(fingerprintAlgorithm);
+        checksumCalculator = new ChecksumCalculator(
+            digestCreator,
+            fingerprintAlgorithm,
+            1);
+    }
+    
+    /**
+     * Stage files of the given source directory as they are.
+     * 
+     * @param sourceDir
+     *     Source directory.
+     * @param targetPath
+     *     Path relative to input directory where files are staged.
+     * @param includes
+     *     Globs of files that must be staged. Empty for all.
+     * @param excludes
+     *     Globs of files and directories that must not be staged.
+     * 
+     * @return
+     *     Amount of files that were not up to date.
+     */
+    public int link(
+        File sourceDir,
+        String targetPath,
+        Set<String> includes,
+        Set<String> excludes)
+    throws PackerCommandException
+    {
+        try
+        {
+            int staged = 0;
+            for (Path source : sourceFiles(sourceDir, includes, excludes))
+                if (fileLink(source, target(sourceDir, targetPath, source)))
+                    ++staged;
+            return staged;
+        }
+        catch (IOException exception)
+        {
+            throw new PackerCommandException(exception);
+        }
+        catch (UncheckedIOException exception)
+        {
+            throw new PackerCommandException(exception.getCause());
+        }
+    }
+    
+    /**
+     * Stage files of the given source directory replacing their expressions.
+     * 
+     * @param sourceDir
+     *     Source directory.
+     * @param targetPath
+     *     Path relative to input directory where files are staged.
+     * @param includes
+     *     Globs of files that must be staged. Empty for all.
+     * @param excludes
+     *     Globs of files and directories that must not be staged.
+     * @param encoding
+     *     Encoding of source files.
+     * @param values
+     *     Value of each expression. Expressions without value are kept.
+     * 
+     * @return
+     *     Amount of files that were not up to date.
+     */
+    public int filter(
+        File sourceDir,
+        String targetPath,
+        Set<String> includes,
+        Set<String> excludes,
+        Charset encoding,
+        Function<String, Optional<String>> values)
+    throws PackerCommandException
+    {
+        try
+        {
+            int staged = 0;
+            for (Path source : sourceFiles(sourceDir, includes, excludes))
+                if (fileFilter(
+                    source,
+                    target(sourceDir, targetPath, source),
+                    encoding,
+                    values))
+                    ++staged;
+            return staged;
+        }
+        catch (IOException exception)
+        {
+            throw new PackerCommandException(exception);
+        }
+        catch (UncheckedIOException exception)
+        {
+            throw new PackerCommandException(exception.getCause());
+        }
+    }
+    
+    private Path target(File sourceDir, String targetPath, Path source)
+    {
+        return inputDir.resolve(targetPath).resolve(
+            sourceDir.toPath().relativize(source).toString());
+    }
+    
+    private boolean fileLink(Path source, Path target)
+    throws IOException
+    {
+        Optional<BasicFileAttributes> targetAttributes = attributes(target);
+        if (targetAttributes.isPresent())
+        {
+            if (isSameFile(source, target))
+                return false;
+            BasicFileAttributes sourceAttributes = readAttributes(
+                source,
+                BasicFileAttributes.class);
+            if (sourceAttributes.size() == targetAttributes.get().size()
+                && sourceAttributes.lastModifiedTime().equals(
+                    targetAttributes.get().lastModifiedTime()))
+                return false;
+            deleteIfExists(target);
+        }
+        
+        createDirectories(target.getParent());
+        try
+        {
+            createLink(target, source);
+        }
+        catch (UnsupportedOperationException | FileSystemException exception)
+        {
+            copy(source, target, COPY_ATTRIBUTES);
+        }
+        return true;
+    }
+    
+    private boolean fileFilter(
+        Path source,
+        Path target,
+        Charset encoding,
+        Function<String, Optional<String>> values)
+    throws IOException
+    {
+        byte[] content = filtered(
+            new String(readAllBytes(source), encoding),
+            values)
+            .getBytes(encoding);
+        Optional<BasicFileAttributes> targetAttributes = attributes(target);
+        boolean upToDate = targetAttributes.isPresent()
+            && targetAttributes.get().size() == content.length
+            && !isSameFile(source, target)
+            && Arrays.equals(readAllBytes(target), content);
+        if (!upToDate)
+        {
+            // Target may be a link of its source, which must not be written
+            deleteIfExists(target);
+            createDirectories(target.getParent());
+            write(target, content);
+        }
+        
+        FileHashCache.session().put(
+            fingerprintAlgorithm,
+            target,
+            FileMetadata.of(readAttributes(target, BasicFileAttributes.class)),
+            checksumCalculator.contentHash(content));
+        return !upToDate;
+    }
+    
+    private static String filtered(
+        String content,
+        Function<String, Optional<String>> values)
+    {
+        Matcher matcher = EXPRESSION.matcher(content);
+        StringBuffer filtered = new StringBuffer(content.length());
+        while (matcher.find())
+            matcher.appendReplacement(filtered, quoteReplacement(values
+                .apply(matcher.group(1))
+                .orElse(matcher.group())));
+        return matcher.appendTail(filtered).toString();
+    }
+    
+    private static Optional<BasicFileAttributes> attributes(Path path)
+    throws IOException
+    {
+        try
+        {
+            return Optional.of(readAttributes(
+                path,
+                BasicFileAttributes.class));
+        }
+        catch (NoSuchFileException exception)
+        {
+            return Optional.empty();
+        }
+    }
+    
+    private static List<Path> sourceFiles(
+        File sourceDir,
+        Set<String> includes,
+        Set<String> excludes)
+    throws IOException
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            sourceDir.toPath(),
+            includes,
+            excludes);
+        List<Path> files = new ArrayList<>();
+        walkFileTree(sourceDir.toPath(), new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                Path dir,
+                BasicFileAttributes attributes)
+            {
+                if (filter.acceptsDirectory(dir))
+                    return CONTINUE;
+                return SKIP_SUBTREE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(
+                Path path,
+                BasicFileAttributes attributes)
+            throws IOException
+            {
+                if (filter.acceptsFile(path)
+                    && FileMetadata.regularFileAttributes(path, attributes)
+                        .isPresent())
+                    files.add(path);
+                return CONTINUE;
+            }
+        });
+        return files;
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.ChecksumManifest
+    .PATH_ORDER;
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.FileVisitResult.SKIP_SUBTREE;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.walkFileTree;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Watcher of input files.
+ * 
+ * It walks input directory once, registering every accepted directory on a
+ * {@link WatchService}, and then keeps an in-memory snapshot of input files
+ * up to date with file events. Builds executed while watching take their
+ * input files from this snapshot, so the input directory is never walked
+ * again.
+ */
+public class InputWatcher
+implements Closeable
+{
+    private final Path baseDir;
+    private final Predicate<Path> dirFilter;
+    private final Predicate<Path> fileFilter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs;
+    private final SortedMap<Path, FileMetadata> files;
+    
+    /**
+     * Input watcher complete constructor.
+     * 
+     * @param baseDir
+     *     Input directory.
+     * @param dirFilter
+     *     Whether a directory must be watched.
+     * @param fileFilter
+     *     Whether a file is an input file.
+     */
+    InputWatcher(
+        Path baseDir,
+        Predicate<Path> dirFilter,
+        Predicate<Path> fileFilter)
+    throws IOException
+    {
+        this.baseDir = baseDir;
+        this.dirFilter = dirFilter;
+        this.fileFilter = fileFilter;
+        watchService = baseDir.getFileSystem().newWatchService();
+        watchedDirs = new HashMap<>();
+        files = new TreeMap<>(comparing(Path::toString, PATH_ORDER));
+        try
+        {
+            register(baseDir);
+        }
+        catch (IOException exception)
+        {
+            watchService.close();
+            throw exception;
+        }
+    }
+    
+    /**
+     * Wait until some input file changes.
+     * 
+     * Events are gathered until there is not any new event for the given
+     * quiet period, so a burst of changes results in a single build.
+     * 
+     * @param quietPeriod
+     *     Milliseconds without events ending a burst of changes.
+     * 
+     * @return
+     *     Paths of changed input files.
+     * 
+     * @throws InterruptedException
+     *     If waiting was interrupted.
+     * @throws IOException
+     *     If some new directory could not be watched.
+     */
+    public Set<Path> awaitChanges(long quietPeriod)
+    throws InterruptedException, IOException
+    {
+        Set<Path> changes = new TreeSet<>();
+        while (changes.isEmpty())
+        {
+            WatchKey key = watchService.take();
+            while (key != null)
+            {
+                changesCollect(key, changes);
+                key = watchService.poll(quietPeriod, MILLISECONDS);
+            }
+        }
+        return changes;
+    }
+    
+    @Override
+    public void close()
+    throws IOException
+    {
+        watchService.close();
+    }
+    
+    /**
+     * Current input files.
+     */
+    synchronized SortedMap<Path, FileMetadata> snapshot()
+    {
+        SortedMap<Path, FileMetadata> snapshot = new TreeMap<>(
+            files.comparator());
+        snapshot.putAll(files);
+        return snapshot;
+    }
+    
+    private void changesCollect(WatchKey key, Set<Path> changes)
+    throws IOException
+    {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW)
+                rescan(changes);
+            else if (dir != null)
+                changed(
+                    dir.resolve((Path) event.context()),
+                    event.kind() == ENTRY_CREATE,
+                    changes);
+        }
+        if (!key.reset())
+            watchedDirs.remove(key);
+    }
+    
+    private synchronized void changed(
+        Path path,
+        boolean created,
+        Set<Path> changes)
+    throws IOException
+    {
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = readAttributes(
+                path,
+                BasicFileAttributes.class,
+                NOFOLLOW_LINKS);
+        }
+        catch (NoSuchFileException exception)
+        {
+            attributes = null;
+        }
+        Optional<BasicFileAttributes> regular = attributes == null
+            ? Optional.empty()
+            : FileMetadata.regularFileAttributes(path, attributes);
+        
+        if (attributes != null && attributes.isDirectory())
+        {
+            if (created && dirFilter.test(path))
+                changes.addAll(register(path));
+        }
+        else if (regular.isPresent())
+        {
+            if (fileFilter.test(path))
+            {
+                files.put(path, FileMetadata.of(regular.get()));
+                changes.add(path);
+            }
+        }
+        else
+        {
+            files.keySet().removeIf(file -> {
+                if (!file.startsWith(path))
+                    return false;
+                changes.add(file);
+                return true;
+            });
+        }
+    }
+    
+    private synchronized void rescan(Set<Path> changes)
+    throws IOException
+    {
+        SortedMap<Path, FileMetadata> previous = snapshot();
+        files.clear();
+        register(baseDir);
+        changes.addAll(previous.keySet());
+        changes.addAll(files.keySet());
+        changes.removeIf(file -> files.containsKey(file)
+            && files.get(file).equals(previous.get(file)));
+    }
+    
+    private Set<Path> register(Path root)
+    throws IOException
+    {
+        Set<Path> registered = new TreeSet<>();
+        walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                Path dir,
+                BasicFileAttributes attributes)
+            throws IOException
+            {
+                if (!dirFilter.test(dir))
+                    return SKIP_SUBTREE;
+                watchedDirs.put(
+                    dir.register(
+                        watchService,
+                        ENTRY_CREATE,
+                        ENTRY_DELETE,
+                        ENTRY_MODIFY),
+                    dir);
+                return CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(
+                Path path,
+                BasicFileAttributes attributes)
+            throws IOException
+            {
+                Optional<BasicFileAttributes> regular = FileMetadata
+                    .regularFileAttributes(path, attributes);
+                if (regular.isPresent() && fileFilter.test(path))
+                {
+                    files.put(path, FileMetadata.of(regular.get()));
+                    registered.add(path);
+                }
+                return CONTINUE;
+            }
+        });
+        return registered;
+    }
+}
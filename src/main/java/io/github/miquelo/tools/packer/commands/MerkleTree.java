@@ -0,0 +1,113 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merkle tree of input files, rooted at a base directory.
+ * 
+ * A file node hashes its name and its content hash. A directory node hashes
+ * its name and the hashes of its children. Entries must be sorted by
+ * {@link ChecksumManifest#PATH_ORDER}, which keeps every directory contiguous,
+ * so the tree is folded in a single pass with one digest per directory level.
+ * 
+ * Root hash does not depend on the base directory location, so it identifies
+ * input content across checkouts and machines.
+ */
+class MerkleTree
+{
+    private static final byte FILE_NODE = 'F';
+    private static final byte DIRECTORY_NODE = 'D';
+    private static final byte NAME_END = 0;
+    
+    private final MessageDigestCreator digestCreator;
+    private final String algorithm;
+    
+    MerkleTree(MessageDigestCreator digestCreator, String algorithm)
+    {
+        this.digestCreator = digestCreator;
+        this.algorithm = algorithm;
+    }
+    
+    /**
+     * Root hash of the given entries.
+     * 
+     * @param baseDir
+     *     Directory entry paths are made relative to.
+     * @param entries
+     *     Entries sorted by {@link ChecksumManifest#PATH_ORDER}.
+     */
+    byte[] root(Path baseDir, List<ChecksumEntry> entries)
+    {
+        Path base = baseDir.toAbsolutePath();
+        List<String> names = new ArrayList<>();
+        List<MessageDigest> levels = new ArrayList<>();
+        MessageDigest file = digestCreate();
+        levels.add(digestCreate());
+        start(levels.get(0), DIRECTORY_NODE, "");
+        for (ChecksumEntry entry : entries)
+        {
+            Path relative = base.relativize(Paths.get(entry.getPath())
+                .toAbsolutePath());
+            int depth = relative.getNameCount() - 1;
+            int common = 0;
+            while (common < depth
+                && common < names.size()
+                && names.get(common).equals(name(relative, common)))
+                ++common;
+            while (names.size() > common)
+                close(names, levels);
+            for (int i = common; i < depth; ++i)
+            {
+                names.add(name(relative, i));
+                if (levels.size() == names.size())
+                    levels.add(digestCreate());
+                start(levels.get(names.size()), DIRECTORY_NODE, names.get(i));
+            }
+            
+            start(file, FILE_NODE, name(relative, depth));
+            file.update(entry.getHash());
+            levels.get(names.size()).update(file.digest());
+        }
+        while (!names.isEmpty())
+            close(names, levels);
+        return levels.get(0).digest();
+    }
+    
+    private MessageDigest digestCreate()
+    {
+        try
+        {
+            return digestCreator.create(algorithm);
+        }
+        catch (NoSuchAlgorithmException exception)
+        {
+            throw new UncheckedNoSuchAlgorithmException(exception);
+        }
+    }
+    
+    private static void close(List<String> names, List<MessageDigest> levels)
+    {
+        byte[] hash = levels.get(names.size()).digest();
+        names.remove(names.size() - 1);
+        levels.get(names.size()).update(hash);
+    }
+    
+    private static void start(MessageDigest digest, byte type, String name)
+    {
+        digest.update(type);
+        digest.update(name.getBytes(UTF_8));
+        digest.update(NAME_END);
+    }
+    
+    private static String name(Path path, int index)
+    {
+        return path.getName(index).toString();
+    }
+}
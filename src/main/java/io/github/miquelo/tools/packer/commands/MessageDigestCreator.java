@@ -19,6 +19,31 @@ import java.security.Provider;
 @FunctionalInterface
 public interface MessageDigestCreator
 {
+    /**
+     * Non-cryptographic 128-bit MurmurHash3 algorithm, suitable for change
+     * detection only.
+     * 
+     * @see #withNonCryptographic(MessageDigestCreator)
+     */
+    static final String MURMUR3_128 = "MURMUR3-128";
+    
+    /**
+     * Git blob object id, which is the SHA-1 of file content prefixed by a
+     * blob header. It lets files tracked by a Git repository take their
+     * hashes from the repository index.
+     * 
+     * Digests created for this algorithm are plain SHA-1 ones. The blob
+     * header is added by the file hashing itself.
+     * 
+     * @see #withNonCryptographic(MessageDigestCreator)
+     */
+    static final String GIT_BLOB = "GIT-BLOB";
+    
+    /**
+     * Algorithm of digests created for {@link #GIT_BLOB}.
+     */
+    static final String GIT_BLOB_DIGEST = "SHA-1";
+    
 	/**
 	 * Create a {@link MessageDigest} instance given an algorithm.
 	 * 
@@ -39,4 +64,31 @@ public interface MessageDigestCreator
 	 */
     MessageDigest create(String algorithm)
     throws NoSuchAlgorithmException;
+    
+    /**
+     * Creator that provides the non-cryptographic algorithms available in this
+     * package and delegates any other algorithm to the given creator.
+     * 
+     * It also maps {@link #GIT_BLOB} to its digest algorithm.
+     * 
+     * @param creator
+     *     Creator for the remaining algorithms.
+     *     
+     * @return
+     *     The resulting creator.
+     *     
+     * @see #MURMUR3_128
+     * @see #GIT_BLOB
+     */
+    static MessageDigestCreator withNonCryptographic(
+        MessageDigestCreator creator)
+    {
+        return algorithm -> {
+            if (MURMUR3_128.equalsIgnoreCase(algorithm))
+                return new Murmur3MessageDigest();
+            if (GIT_BLOB.equalsIgnoreCase(algorithm))
+                return creator.create(GIT_BLOB_DIGEST);
+            return creator.create(algorithm);
+        };
+    }
 }
@@ -0,0 +1,187 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * Non-cryptographic 128-bit MurmurHash3 (x64 variant, zero seed) exposed as a
+ * {@link MessageDigest}.
+ * 
+ * It is intended for change detection only. Digest bytes are {@code h1} and
+ * {@code h2} in little-endian order, as in the reference implementation.
+ */
+class Murmur3MessageDigest
+extends MessageDigest
+{
+    private static final int BLOCK_SIZE = 16;
+    private static final int DIGEST_LENGTH = 16;
+    
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    private final byte[] tail;
+    private int tailLength;
+    private long length;
+    private long h1;
+    private long h2;
+    
+    Murmur3MessageDigest()
+    {
+        super(MessageDigestCreator.MURMUR3_128);
+        tail = new byte[BLOCK_SIZE];
+        tailLength = 0;
+        length = 0L;
+        h1 = 0L;
+        h2 = 0L;
+    }
+    
+    @Override
+    protected int engineGetDigestLength()
+    {
+        return DIGEST_LENGTH;
+    }
+    
+    @Override
+    protected void engineUpdate(byte input)
+    {
+        tail[tailLength++] = input;
+        ++length;
+        if (tailLength == BLOCK_SIZE)
+        {
+            block(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+    }
+    
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len)
+    {
+        int end = offset + len;
+        int position = offset;
+        length += len;
+        if (tailLength > 0)
+        {
+            int count = Math.min(BLOCK_SIZE - tailLength, len);
+            System.arraycopy(input, position, tail, tailLength, count);
+            tailLength += count;
+            position += count;
+            if (tailLength < BLOCK_SIZE)
+                return;
+            block(getLong(tail, 0), getLong(tail, 8));
+            tailLength = 0;
+        }
+        for (; end - position >= BLOCK_SIZE; position += BLOCK_SIZE)
+            block(getLong(input, position), getLong(input, position + 8));
+        tailLength = end - position;
+        System.arraycopy(input, position, tail, 0, tailLength);
+    }
+    
+    @Override
+    protected void engineUpdate(ByteBuffer input)
+    {
+        ByteOrder order = input.order();
+        try
+        {
+            input.order(LITTLE_ENDIAN);
+            while (tailLength > 0 && input.hasRemaining())
+                engineUpdate(input.get());
+            for (; input.remaining() >= BLOCK_SIZE; length += BLOCK_SIZE)
+                block(input.getLong(), input.getLong());
+            while (input.hasRemaining())
+                engineUpdate(input.get());
+        }
+        finally
+        {
+            input.order(order);
+        }
+    }
+    
+    @Override
+    protected byte[] engineDigest()
+    {
+        long k1 = 0L;
+        long k2 = 0L;
+        for (int i = tailLength - 1; i >= 8; --i)
+            k2 = (k2 << 8) | (tail[i] & 0xffL);
+        for (int i = Math.min(tailLength, 8) - 1; i >= 0; --i)
+            k1 = (k1 << 8) | (tail[i] & 0xffL);
+        if (tailLength > 8)
+            h2 ^= mixK2(k2);
+        if (tailLength > 0)
+            h1 ^= mixK1(k1);
+        
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        
+        byte[] digest = new byte[DIGEST_LENGTH];
+        putLong(digest, 0, h1);
+        putLong(digest, 8, h2);
+        engineReset();
+        return digest;
+    }
+    
+    @Override
+    protected void engineReset()
+    {
+        tailLength = 0;
+        length = 0L;
+        h1 = 0L;
+        h2 = 0L;
+    }
+    
+    private void block(long k1, long k2)
+    {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+        
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+    
+    private static long mixK1(long k1)
+    {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+    
+    private static long mixK2(long k2)
+    {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+    
+    private static long fmix(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+    
+    private static long getLong(byte[] bytes, int offset)
+    {
+        long value = 0L;
+        for (int i = 7; i >= 0; --i)
+            value = (value << 8) | (bytes[offset + i] & 0xffL);
+        return value;
+    }
+    
+    private static void putLong(byte[] bytes, int offset, long value)
+    {
+        for (int i = 0; i < 8; ++i)
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+    }
+}
@@ -2,34 +2,51 @@ package io.github.miquelo.tools.packer.commands;
 
 import static io.github.miquelo.tools.packer.PackerCommandFailureCode
     .FAILURE_ERROR;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_ERROR;
+import static io.github.miquelo.tools.packer.PackerOutputMessage
+    .TYPE_ARTIFACT_COUNT;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static io.github.miquelo.tools.packer.commands.ChecksumManifest
+    .PATH_ORDER;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .GIT_BLOB;
 import static java.lang.String.format;
-import static java.nio.file.Files.walk;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.FileVisitResult.SKIP_SUBTREE;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.walkFileTree;
 import static java.util.Collections.emptySet;
+import static java.util.Collections.synchronizedList;
+import static java.util.Collections.synchronizedSet;
+import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
-import static javax.xml.bind.DatatypeConverter.parseHexBinary;
 import static javax.xml.bind.DatatypeConverter.printHexBinary;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
 import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
@@ -37,6 +54,7 @@ import io.github.miquelo.tools.packer.PackerCommand;
 import io.github.miquelo.tools.packer.PackerCommandException;
 import io.github.miquelo.tools.packer.PackerCommandFailureCode;
 import io.github.miquelo.tools.packer.PackerCommandLogger;
+import io.github.miquelo.tools.packer.PackerOutputMessage;
 import io.github.miquelo.tools.packer.TimeoutHandler;
 
 /**
@@ -46,31 +64,89 @@ public class PackerBuildCommand
 implements PackerCommand
 {
     private static final String COMMAND_NAME = "build";
-
-    private static final String CHECKSUM_FILE_NAME = ".checksum";
-    private static final String CHECKSUM_ALGORITHM = "SHA-256";
     
-    private static final int DIGEST_BUFFER_SIZE = 4 * 1024;
+    private static final String CHECKSUM_FILE_NAME = ".checksum";
+    private static final String BUILDER_STAMPS_FILE_NAME = ".builders";
     
-    private final MessageDigestCreator digestCreator;
     private final File inputDir;
+    private final boolean paranoid;
+    private final boolean templateDependencies;
+    private final FingerprintFilter fingerprintFilter;
+    private final Optional<File> fingerprintCacheFile;
+    private final String templatePath;
+    private final Set<String> varFiles;
     private final boolean changesNeeded;
     private final boolean invalidateOnFailure;
-    private final List<Object> arguments;
+    private final Optional<BuildResultCache> buildResultCache;
+    private final boolean force;
+    private final Set<String> only;
+    private final Set<String> except;
+    private final List<Object> templateArguments;
+    private final String buildParameters;
+    private final String builderParameters;
     private final File checksumFile;
+    private final File builderStampsFile;
+    private final String fingerprintAlgorithm;
+    private final MessageDigestCreator digestCreator;
+    private final ChecksumCalculator checksumCalculator;
+    private final MerkleTree merkleTree;
+    
+    private final List<PackerOutputMessage> outputMessages;
+    private final Set<String> startedBuilders;
+    private final Set<String> builtBuilders;
+    
+    private volatile Optional<InputWatcher> inputWatcher;
+    private volatile List<Object> arguments;
+    private volatile Set<String> skippedBuilders;
+    private volatile PackerCommandLogger logger;
+    private volatile ChecksumComparison checksumComparison;
+    private volatile List<ChecksumEntry> inputChecksum;
+    private volatile CompletableFuture<Optional<List<ChecksumEntry>>>
+        checksumUpdating;
     
     /**
      * Packer {@code build} command complete constructor.
      * 
      * @param digestCreator
      *     Message digest used to obtain input files hash.
+     * @param fingerprintAlgorithm
+     *     Digest algorithm used to obtain input files hash. Changing it
+     *     invalidates the previous checksum.
      * @param inputDir
      *     Directory where input files are located.
+     * @param fingerprintThreads
+     *     Number of threads used to obtain input files hash. Zero or less for
+     *     the number of available processors.
+     * @param paranoid
+     *     Whether every input file must be hashed even when its size, last
+     *     modified time and file key did not change since last build.
+     * @param templateDependencies
+     *     Whether only the template and the files it references must be
+     *     fingerprinted, instead of every file in input directory.
+     * @param fingerprintIncludes
+     *     Globs of input files that must be fingerprinted. Empty for all.
+     * @param fingerprintExcludes
+     *     Globs of input files and directories that must not be
+     *     fingerprinted. Matching directories are not descended into.
+     * @param fingerprintStrategies
+     *     Fingerprint strategy of input files matching each glob. The most
+     *     thorough one is taken when several globs match the same file, and
+     *     files not matching any glob are fingerprinted fully.
+     * @param fingerprintCacheFile
+     *     File where hashes of input files are kept between sessions, if any.
      * @param changesNeeded
      *     Whether changes on source files are needed for this command to don't
      *     be ignored.
      * @param invalidateOnFailure
      *     Whether files will be invalidated if command executions fails.
+     * @param packerVersion
+     *     Version of Packer running this build. Changing it requires the build
+     *     to be executed again.
+     * @param buildCacheDir
+     *     Directory where results of builds are kept, so builds with the same
+     *     key can be restored instead of executed, if any.
+     * @param buildCacheMaxSize
+     *     Maximum size in bytes of all results kept on build cache directory.
      * @param templatePath
      *     Input directory relative path of template used for this build.
      * @param only
@@ -86,9 +162,20 @@ implements PackerCommand
      */
     public PackerBuildCommand(
         MessageDigestCreator digestCreator,
+        String fingerprintAlgorithm,
         File inputDir,
+        int fingerprintThreads,
+        boolean paranoid,
+        boolean templateDependencies,
+        Set<String> fingerprintIncludes,
+        Set<String> fingerprintExcludes,
+        Map<String, FingerprintStrategy> fingerprintStrategies,
+        Optional<File> fingerprintCacheFile,
         boolean changesNeeded,
         boolean invalidateOnFailure,
+        String packerVersion,
+        Optional<File> buildCacheDir,
+        long buildCacheMaxSize,
         String templatePath,
         boolean force,
         Set<String> only,
@@ -96,22 +183,29 @@ implements PackerCommand
         Map<String, Object> vars,
         Set<String> varFiles)
     {
-        this.digestCreator = requireNonNull(digestCreator);
         this.inputDir = requireNonNull(inputDir);
+        this.paranoid = paranoid;
+        this.templateDependencies = templateDependencies;
+        fingerprintFilter = new FingerprintFilter(
+            this.inputDir.toPath(),
+            fingerprintIncludes,
+            fingerprintExcludes,
+            fingerprintStrategies);
+        this.fingerprintCacheFile = requireNonNull(fingerprintCacheFile);
+        this.templatePath = requireNonNull(templatePath);
+        this.varFiles = requireNonNull(varFiles);
         this.changesNeeded = changesNeeded;
         this.invalidateOnFailure = invalidateOnFailure;
+        buildResultCache = buildCacheDir.map(dir -> new BuildResultCache(
+            dir,
+            buildCacheMaxSize));
         
-        arguments = Stream.of(
-            force ? Stream.of("-force") : Stream.empty(),
-            only.isEmpty() ? Stream.empty() : Stream.of(
-                "-only",
-                only.stream()
-                    .collect(joining(","))),
-            except.isEmpty() ? Stream.empty() : Stream.of(
-                "-except",
-                except.stream()
-                    .collect(joining(","))),
+        this.force = force;
+        this.only = new TreeSet<>(only);
+        this.except = new TreeSet<>(except);
+        templateArguments = Stream.of(
             vars.entrySet().stream()
+                .sorted(Entry.comparingByKey())
                 .flatMap(var -> Stream.of(
                     "-var",
                     String.format(
@@ -125,8 +219,28 @@ implements PackerCommand
             Stream.of(templatePath))
             .flatMap(identity())
             .collect(toList());
+        arguments = argumentsOf(this.only, this.except);
+        buildParameters = parametersOf(packerVersion, arguments);
+        builderParameters = parametersOf(packerVersion, templateArguments);
         
         checksumFile = new File(this.inputDir, CHECKSUM_FILE_NAME);
+        builderStampsFile = new File(this.inputDir, BUILDER_STAMPS_FILE_NAME);
+        this.fingerprintAlgorithm = requireNonNull(fingerprintAlgorithm);
+        checksumCalculator = new ChecksumCalculator(
+            digestCreator,
+            fingerprintAlgorithm,
+            fingerprintThreads);
+        this.digestCreator = requireNonNull(digestCreator);
+        merkleTree = new MerkleTree(digestCreator, fingerprintAlgorithm);
+        outputMessages = synchronizedList(new ArrayList<>());
+        startedBuilders = synchronizedSet(new TreeSet<>());
+        builtBuilders = synchronizedSet(new TreeSet<>());
+        skippedBuilders = emptySet();
+        inputWatcher = Optional.empty();
+        logger = null;
+        checksumComparison = null;
+        inputChecksum = null;
+        checksumUpdating = completedFuture(Optional.empty());
     }
     
     @Override
@@ -134,7 +248,13 @@ implements PackerCommand
     {
         return COMMAND_NAME;
     }
-
+    
+    /**
+     * Arguments passed to the command.
+     * 
+     * Builders that were already built for the same input files and build
+     * parameters are left out, unless changes are not needed.
+     */
     @Override
     public List<Object> getArguments()
     {
@@ -154,37 +274,115 @@ implements PackerCommand
     throws PackerCommandException, TimeoutException
     {
         logger.debug(format("Using %s as input directory", inputDir));
+        this.logger = logger;
         
-        Set<ChecksumEntry> currentChecksum = currentChecksumGet();
-        if (!currentChecksum.equals(previousChecksumGet()))
+        fingerprintCacheLoad(logger);
+        try
         {
-            checksumUpdate(currentChecksum);
-            return true;
+            Optional<ChecksumManifest> previous = previousChecksumGet();
+            ChecksumComparison comparison = checksumCompare(
+                logger,
+                previous,
+                Optional.of(timeoutHandler));
+            boolean sameBuildParameters = previous
+                .map(ChecksumManifest::getBuildParameters)
+                .filter(buildParameters::equals)
+                .isPresent();
+            BuilderStamps builderStamps = BuilderStamps.read(
+                builderStampsFile);
+            if (comparison.isContentChanged()
+                && !buildResultCache.isPresent()
+                && builderStamps.isEmpty())
+            {
+                logger.debug("Input files have changed");
+                checksumUpdating = supplyAsync(
+                    comparison::completeSnapshot,
+                    PackerBuildCommand::backgroundExecute);
+                checksumComparison = comparison;
+                return true;
+            }
+            inputChecksum = comparison.complete(timeoutHandler).get();
+            if (comparison.isContentChanged()
+                || comparison.isMetadataChanged()
+                || !sameBuildParameters)
+                checksumUpdate(inputChecksum);
+            fingerprintCacheSave(logger);
+            
+            if (!changesNeeded)
+                return true;
+            if (!comparison.isContentChanged() && sameBuildParameters)
+            {
+                logger.info("There is not any change. Ignoring...");
+                return false;
+            }
+            if (!sameBuildParameters)
+                logger.debug("Build parameters have changed");
+            return !buildResultRestore(logger) && buildersSelect(
+                logger,
+                builderStamps);
         }
-        if (changesNeeded)
+        catch (IOException exception)
         {
-            logger.info("There is not any change. Ignoring...");
-            return false;
+            throw new PackerCommandException(exception);
         }
-        return true;
+        catch (
+            UncheckedIOException |
+            UncheckedNoSuchAlgorithmException exception)
+        {
+            throw new PackerCommandException(exception.getCause());
+        }
+        catch (UncheckedTimeoutException exception)
+        {
+            throw exception.getCause();
+        }
+    }
+    
+    @Override
+    public void onOutputMessage(PackerOutputMessage message)
+    {
+        message.getTarget().ifPresent(startedBuilders::add);
+        if (TYPE_ARTIFACT_COUNT.equals(message.getType()))
+            message.getTarget().ifPresent(builtBuilders::add);
+        if (buildResultCache.isPresent())
+            outputMessages.add(message);
     }
     
     public void onSuccess()
     {
-        // Nothing to be done...
+        checksumUpdateAwait();
+        builderStampsUpdate();
+        if (buildResultCache.isPresent()
+            && inputChecksum != null
+            && skippedBuilders.isEmpty())
+            buildResultStore();
     }
     
     @Override
     public void onFailure(PackerCommandFailureCode failureCode)
     {
         if (invalidateOnFailure)
+        {
+            if (builtBuilders.isEmpty())
+                checksumUpdateCancel();
+            else
+                checksumUpdateAwait();
+            builderStampsUpdate();
             checksumFile.delete();
+        }
+        else
+        {
+            checksumUpdateAwait();
+            builderStampsUpdate();
+        }
+        inputChecksum = null;
     }
     
     @Override
     public void onAbort()
     {
+        checksumUpdateCancel();
         checksumFile.delete();
+        inputChecksum = null;
     }
     
     @Override
@@ -193,16 +391,28 @@ implements PackerCommand
         return FAILURE_ERROR;
     }
     
-    private Set<ChecksumEntry> currentChecksumGet()
+    /**
+     * Fingerprint input files ahead of execution, without executing anything.
+     * 
+     * Hashes of the input files that changed since the last build are kept on
+     * the fingerprint cache of this session, so a later command for the same
+     * input directory takes them instead of reading those files again.
+     * 
+     * @param logger
+     *     Logger for fingerprinting.
+     *     
+     * @throws PackerCommandException
+     *     If input files cannot be fingerprinted.
+     */
+    public void fingerprint(PackerCommandLogger logger)
     throws PackerCommandException
     {
+        fingerprintCacheLoad(logger);
         try
         {
-            return walk(inputDir.toPath())
-                .filter(this::isRegularFile)
-                .filter(this::isNotChecksumFile)
-                .map(this::toChecksumEntry)
-                .collect(toSet());
+            checksumCompare(logger, previousChecksumGet(), Optional.empty())
+                .complete();
+            fingerprintCacheSave(logger);
         }
         catch (IOException exception)
         {
@@ -216,74 +426,329 @@ implements PackerCommand
         }
     }
     
-    private Set<ChecksumEntry> previousChecksumGet()
+    /**
+     * Merkle tree root hash of input files, in lowercase hexadecimal.
+     * 
+     * It does not depend on input directory location, so it identifies input
+     * content across machines.
+     * 
+     * @return
+     *     The root hash once this command has been executed successfully or
+     *     ignored, or empty otherwise.
+     *     
+     * @throws PackerCommandException
+     *     If digest algorithm is not available.
+     */
+    public Optional<String> getInputHash()
     throws PackerCommandException
     {
-        try (BufferedReader reader = newBufferedReader(checksumFile))
+        checksumUpdateAwait();
+        try
         {
-            return reader.lines()
-                .map(ChecksumEntry::parse)
-                .collect(toSet());
+            return Optional.ofNullable(inputChecksum)
+                .map(checksum -> merkleTree.root(inputDir.toPath(), checksum))
+                .map(hash -> printHexBinary(hash).toLowerCase());
         }
-        catch (FileNotFoundException exception)
+        catch (UncheckedNoSuchAlgorithmException exception)
         {
-            return emptySet();
+            throw new PackerCommandException(exception.getCause());
+        }
+    }
+    
+    /**
+     * Start watching input files of this command.
+     * 
+     * This command and the ones given to {@link #watch(InputWatcher)} take
+     * their input files from the returned watcher instead of walking the
+     * input directory.
+     * 
+     * @return
+     *     Watcher of input files, which must be closed once it is not needed.
+     *     
+     * @throws PackerCommandException
+     *     If input directory cannot be watched.
+     */
+    public InputWatcher watch()
+    throws PackerCommandException
+    {
+        try
+        {
+            InputWatcher watcher = new InputWatcher(
+                inputDir.toPath(),
+                fingerprintFilter::acceptsDirectory,
+                path -> isNotChecksumFile(path)
+                    && fingerprintFilter.acceptsFile(path));
+            watch(watcher);
+            return watcher;
         }
         catch (IOException exception)
         {
             throw new PackerCommandException(exception);
         }
-        catch (UncheckedIOException exception)
+    }
+    
+    /**
+     * Take input files from the given watcher, created by a command for the
+     * same input directory and fingerprint filter.
+     * 
+     * @param watcher
+     *     Watcher of input files.
+     */
+    public void watch(InputWatcher watcher)
+    {
+        inputWatcher = Optional.of(watcher);
+    }
+    
+    private ChecksumComparison checksumCompare(
+        PackerCommandLogger logger,
+        Optional<ChecksumManifest> previous,
+        Optional<TimeoutHandler> timeoutHandler)
+    throws IOException
+    {
+        SortedMap<Path, FileMetadata> inputFiles = inputFilesGet(logger);
+        FileHashCache.session().capacityEnsure(inputFiles.size());
+        if (GIT_BLOB.equalsIgnoreCase(fingerprintAlgorithm) && !paranoid)
+            gitIndexHashesTake(logger, inputFiles);
+        return ChecksumComparison.compare(
+            checksumCalculator,
+            FileHashCache.session(),
+            paranoid,
+            inputFiles,
+            fingerprintFilter::strategy,
+            previous,
+            timeoutHandler);
+    }
+    
+    private SortedMap<Path, FileMetadata> inputFilesGet(
+        PackerCommandLogger logger)
+    throws IOException
+    {
+        SortedMap<Path, FileMetadata> files = new TreeMap<>(comparing(
+            Path::toString,
+            PATH_ORDER));
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                Path dir,
+                BasicFileAttributes attributes)
+            {
+                if (fingerprintFilter.acceptsDirectory(dir))
+                    return CONTINUE;
+                return SKIP_SUBTREE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(
+                Path path,
+                BasicFileAttributes attributes)
+            throws IOException
+            {
+                if (isNotChecksumFile(path)
+                    && fingerprintFilter.acceptsFile(path))
+                    FileMetadata.regularFileAttributes(path, attributes)
+                        .ifPresent(regular -> files.put(
+                            path,
+                            FileMetadata.of(regular)));
+                return CONTINUE;
+            }
+        };
+        
+        Optional<Set<Path>> dependencies = templateDependencies
+            ? TemplateDependencies.resolve(
+                inputDir.toPath(),
+                templatePath,
+                varFiles)
+            : Optional.empty();
+        if (inputWatcher.isPresent())
+        {
+            SortedMap<Path, FileMetadata> snapshot = inputWatcher.get()
+                .snapshot();
+            if (dependencies.isPresent())
+                snapshot.keySet().removeIf(path -> dependencies.get().stream()
+                    .noneMatch(path::startsWith));
+            return snapshot;
+        }
+        if (dependencies.isPresent())
         {
-            throw new PackerCommandException(exception.getCause());
+            logger.debug(format(
+                "Fingerprinting %d template dependencies",
+                dependencies.get().size()));
+            for (Path dependency : dependencies.get())
+                if (exists(dependency))
+                    walkFileTree(dependency, visitor);
+        }
+        else
+        {
+            if (templateDependencies)
+                logger.debug(
+                    "Template dependencies could not be resolved."
+                    + " Fingerprinting the whole input directory...");
+            walkFileTree(inputDir.toPath(), visitor);
         }
+        return files;
     }
     
-    private void checksumUpdate(Set<ChecksumEntry> checksum)
-    throws PackerCommandException
+    private void gitIndexHashesTake(
+        PackerCommandLogger logger,
+        SortedMap<Path, FileMetadata> inputFiles)
+    throws IOException
     {
-        try (PrintWriter writer = new PrintWriter(checksumFile))
+        Optional<GitIndex> gitIndex = GitIndex.of(inputDir.toPath());
+        if (!gitIndex.isPresent())
         {
-            checksum.forEach(entry -> writer.println(entry));
+            logger.debug("There is not any Git index for input directory");
+            return;
         }
-        catch (FileNotFoundException exception)
+        
+        FileHashCache cache = FileHashCache.session();
+        int taken = 0;
+        for (Entry<Path, FileMetadata> file : inputFiles.entrySet())
+            if (!cache.get(
+                fingerprintAlgorithm,
+                file.getKey(),
+                file.getValue()).isPresent())
+            {
+                Optional<byte[]> objectId = gitIndex.get().objectId(
+                    file.getKey(),
+                    file.getValue());
+                if (objectId.isPresent())
+                {
+                    cache.put(
+                        fingerprintAlgorithm,
+                        file.getKey(),
+                        file.getValue(),
+                        objectId.get());
+                    ++taken;
+                }
+            }
+        logger.debug(format("Taking %d hashes from Git index", taken));
+    }
+    
+    private Optional<ChecksumManifest> previousChecksumGet()
+    throws PackerCommandException
+    {
+        try
         {
-            createNewFile(checksumFile);
+            return ChecksumManifest.read(checksumFile, fingerprintAlgorithm);
         }
-        catch (UncheckedIOException exception)
+        catch (IOException exception)
         {
-            throw new PackerCommandException(exception.getCause());
+            throw new PackerCommandException(exception);
         }
     }
     
-    private boolean isRegularFile(Path path)
+    private void checksumUpdate(List<ChecksumEntry> checksum)
+    throws IOException
     {
-        return path.toFile().isFile();
+        ChecksumManifest.write(
+            checksumFile,
+            fingerprintAlgorithm,
+            buildParameters,
+            checksum);
     }
     
-    private boolean isNotChecksumFile(Path path)
+    private List<Object> argumentsOf(Set<String> only, Set<String> except)
     {
-        return !path.toAbsolutePath()
-            .equals(checksumFile.getAbsoluteFile().toPath());
+        return Stream.of(
+            force ? Stream.of("-force") : Stream.empty(),
+            only.isEmpty() ? Stream.empty() : Stream.of(
+                "-only",
+                String.join(",", only)),
+            except.isEmpty() ? Stream.empty() : Stream.of(
+                "-except",
+                String.join(",", except)),
+            templateArguments.stream())
+            .flatMap(identity())
+            .collect(toList());
     }
     
-    private ChecksumEntry toChecksumEntry(Path path)
+    private boolean buildersSelect(
+        PackerCommandLogger logger,
+        BuilderStamps builderStamps)
     {
-        try (InputStream input = new FileInputStream(path.toFile()))
+        if (builderStamps.isEmpty())
+            return true;
+        
+        Set<String> upToDate = builderStamps.builtWith(builderKeyGet());
+        if (!only.isEmpty())
+            upToDate.retainAll(only);
+        if (upToDate.isEmpty())
+            return true;
+        
+        // Packer does not accept -only and -except at the same time
+        if (only.isEmpty())
         {
-            MessageDigest digest = digestCreator.create(CHECKSUM_ALGORITHM);
-            byte[] buf = new byte[DIGEST_BUFFER_SIZE];
-            int len = input.read(buf, 0, DIGEST_BUFFER_SIZE);
-            while (len > 0)
+            Set<String> selectedExcept = new TreeSet<>(except);
+            selectedExcept.addAll(upToDate);
+            if (selectedExcept.containsAll(builderStamps.builders()))
             {
-                digest.update(buf, 0, len);
-                len = input.read(buf, 0, DIGEST_BUFFER_SIZE);
+                // Template builders are unknown, so excluding every known
+                // one might leave nothing to build
+                logger.info(
+                    "Every known builder is up to date. Building all of them "
+                    + "again...");
+                return true;
             }
-            return new ChecksumEntry(buf, path.toString());
+            arguments = argumentsOf(only, selectedExcept);
         }
-        catch (IOException exception)
+        else
+        {
+            Set<String> selectedOnly = new TreeSet<>(only);
+            selectedOnly.removeAll(upToDate);
+            if (selectedOnly.isEmpty())
+            {
+                logger.info("Every builder is up to date. Ignoring...");
+                return false;
+            }
+            arguments = argumentsOf(selectedOnly, except);
+        }
+        skippedBuilders = upToDate;
+        logger.info(format(
+            "Builders %s are up to date and will be skipped",
+            String.join(", ", upToDate)));
+        return true;
+    }
+    
+    private void builderStampsUpdate()
+    {
+        if (startedBuilders.isEmpty() || inputChecksum == null)
+            return;
+        
+        try
+        {
+            BuilderStamps builderStamps = BuilderStamps.read(
+                builderStampsFile);
+            Set<String> failedBuilders = new TreeSet<>(startedBuilders);
+            failedBuilders.removeAll(builtBuilders);
+            builderStamps.unstamp(failedBuilders);
+            builderStamps.stamp(builtBuilders, builderKeyGet());
+            builderStamps.write(builderStampsFile);
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            logger.warn("Builder stamps could not be updated", exception);
+        }
+    }
+    
+    private String buildKeyGet()
+    {
+        return keyGet(buildParameters);
+    }
+    
+    private String builderKeyGet()
+    {
+        return keyGet(builderParameters);
+    }
+    
+    private String keyGet(String parameters)
+    {
+        try
         {
-            throw new UncheckedIOException(exception);
+            MessageDigest digest = digestCreator.create(fingerprintAlgorithm);
+            digest.update(merkleTree.root(inputDir.toPath(), inputChecksum));
+            digest.update(parameters.getBytes(UTF_8));
+            return printHexBinary(digest.digest()).toLowerCase();
         }
         catch (NoSuchAlgorithmException exception)
         {
@@ -291,93 +756,141 @@ implements PackerCommand
         }
     }
     
-    private static BufferedReader newBufferedReader(File file)
+    private boolean buildResultRestore(PackerCommandLogger logger)
     throws IOException
     {
-        return new BufferedReader(new FileReader(file));
+        if (!buildResultCache.isPresent())
+            return false;
+        
+        String key = buildKeyGet();
+        Optional<List<PackerOutputMessage>> messages = buildResultCache.get()
+            .restore(key, inputDir.toPath());
+        if (!messages.isPresent())
+            return false;
+        logger.info(format("Restoring result of build %s...", key));
+        messages.get().stream()
+            .filter(message -> TYPE_UI.equals(message.getType()))
+            .map(PackerOutputMessage::getData)
+            .filter(data -> data.length > 1)
+            .filter(data -> !DATA_UI_ERROR.equals(data[0]))
+            .flatMap(data -> Stream.of(data[1].split("\n")))
+            .forEach(logger::info);
+        return true;
     }
     
-    private static void createNewFile(File file)
-    throws PackerCommandException
+    private void buildResultStore()
     {
         try
         {
-            file.createNewFile();
+            String key = buildKeyGet();
+            if (buildResultCache.get().store(
+                key,
+                new ArrayList<>(outputMessages),
+                inputDir.toPath()))
+                logger.debug(format("Result of build %s has been cached", key));
+            else
+                logger.debug(format(
+                    "Result of build %s has some artifact out of input "
+                    + "directory or it is bigger than build cache, so it "
+                    + "cannot be cached",
+                    key));
         }
-        catch (IOException exception)
+        catch (IOException | RuntimeException exception)
         {
-            throw new PackerCommandException(exception);
+            logger.warn("Build result could not be cached", exception);
         }
     }
-}
-
-class ChecksumEntry
-{
-    private final byte[] hash;
-    private final String path;
     
-    ChecksumEntry(byte[] hash, String path)
+    private void fingerprintCacheLoad(PackerCommandLogger logger)
     {
-        this.hash = requireNonNull(hash);
-        this.path = requireNonNull(path);
+        if (fingerprintCacheFile.isPresent())
+            try
+            {
+                FileHashCache.session().load(fingerprintCacheFile.get());
+            }
+            catch (IOException exception)
+            {
+                logger.warn("Fingerprint cache could not be loaded", exception);
+            }
     }
     
-    @Override
-    public int hashCode()
+    private void fingerprintCacheSave(PackerCommandLogger logger)
     {
-        return Arrays.hashCode(hash);
+        if (fingerprintCacheFile.isPresent())
+            try
+            {
+                FileHashCache.session().save(fingerprintCacheFile.get());
+            }
+            catch (IOException exception)
+            {
+                logger.warn("Fingerprint cache could not be saved", exception);
+            }
     }
     
-    @Override
-    public boolean equals(Object obj)
+    /**
+     * Wait for the checksum being completed while Packer runs, if any, and
+     * write it once it is complete.
+     */
+    private synchronized void checksumUpdateAwait()
     {
-        if (obj == this)
-            return true;
-        if (getClass().equals(obj.getClass()))
+        CompletableFuture<Optional<List<ChecksumEntry>>> updating =
+            checksumUpdating;
+        checksumUpdating = completedFuture(Optional.empty());
+        try
         {
-            ChecksumEntry entry = (ChecksumEntry) obj;
-            return Arrays.equals(hash, entry.hash) && path.equals(entry.path);
+            Optional<List<ChecksumEntry>> checksum = updating.join();
+            if (checksum.isPresent())
+            {
+                checksumUpdate(checksum.get());
+                inputChecksum = checksum.get();
+                fingerprintCacheSave(logger);
+            }
+        }
+        catch (IOException | RuntimeException exception)
+        {
+            checksumFile.delete();
+            logger.warn("Input files checksum could not be updated", exception);
         }
-        return false;
     }
     
-    @Override
-    public String toString()
+    private void checksumUpdateCancel()
     {
-        return format("%s %s", toString(hash), path);
+        if (checksumComparison != null)
+            checksumComparison.cancel();
+        checksumUpdateAwait();
     }
     
-    static ChecksumEntry parse(String str)
+    private boolean isNotChecksumFile(Path path)
     {
-        String[] parts = str.split(" ");
-        return new ChecksumEntry(toBytes(parts[0]), parts[1]);
+        Path absolutePath = path.toAbsolutePath();
+        return !isChecksumFile(absolutePath, checksumFile)
+            && !isChecksumFile(absolutePath, builderStampsFile);
     }
     
-    private static byte[] toBytes(String str)
+    private static boolean isChecksumFile(Path absolutePath, File file)
     {
-        return parseHexBinary(str);
+        // Temporary files of atomic writes start with the same name
+        return absolutePath.getParent().equals(file.getAbsoluteFile()
+            .getParentFile().toPath())
+            && absolutePath.getFileName().toString().startsWith(
+                file.getName());
     }
     
-    private static String toString(byte[] bytes)
+    private static String parametersOf(
+        String packerVersion,
+        List<Object> arguments)
     {
-        return printHexBinary(bytes);
-    }
-}
-
-class UncheckedNoSuchAlgorithmException
-extends RuntimeException
-{
-    private static final long serialVersionUID = 1L;
-
-    UncheckedNoSuchAlgorithmException(NoSuchAlgorithmException cause)
-    {
-        super(cause);
+        return Stream.concat(
+            Stream.of(format("packer %s", requireNonNull(packerVersion))),
+            arguments.stream()
+                .map(Object::toString))
+            .collect(joining("\n"));
     }
     
-    @Override
-    public NoSuchAlgorithmException getCause()
+    private static void backgroundExecute(Runnable runnable)
     {
-        return (NoSuchAlgorithmException) super.getCause();
+        Thread thread = new Thread(runnable, "packer-checksum-update");
+        thread.setDaemon(true);
+        thread.start();
     }
 }
-
@@ -0,0 +1,104 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.PackerCommandFailureCode
+    .FAILURE_ERROR;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_VERSION;
+import static java.util.Collections.emptyList;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+
+import io.github.miquelo.tools.packer.PackerCommand;
+import io.github.miquelo.tools.packer.PackerCommandFailureCode;
+import io.github.miquelo.tools.packer.PackerCommandLogger;
+import io.github.miquelo.tools.packer.PackerOutputMessage;
+import io.github.miquelo.tools.packer.TimeoutHandler;
+
+/**
+ * Packer {@code version} command.
+ */
+public class PackerVersionCommand
+implements PackerCommand
+{
+    private static final String COMMAND_NAME = "version";
+    
+    private volatile String version;
+    
+    /**
+     * Packer {@code version} command complete constructor.
+     */
+    public PackerVersionCommand()
+    {
+        version = null;
+    }
+    
+    /**
+     * Version reported by Packer.
+     * 
+     * @return
+     *     The version once this command has been executed successfully, or
+     *     empty otherwise.
+     */
+    public Optional<String> getVersion()
+    {
+        return Optional.ofNullable(version);
+    }
+    
+    @Override
+    public String getName()
+    {
+        return COMMAND_NAME;
+    }
+    
+    @Override
+    public List<Object> getArguments()
+    {
+        return emptyList();
+    }
+    
+    @Override
+    public Optional<File> getWorkingDir()
+    {
+        return Optional.empty();
+    }
+    
+    @Override
+    public boolean init(
+        PackerCommandLogger logger,
+        TimeoutHandler timeoutHandler)
+    {
+        return true;
+    }
+    
+    @Override
+    public void onOutputMessage(PackerOutputMessage message)
+    {
+        if (TYPE_VERSION.equals(message.getType())
+            && message.getData().length > 0)
+            version = message.getData()[0];
+    }
+    
+    @Override
+    public void onSuccess()
+    {
+    }
+    
+    @Override
+    public void onFailure(PackerCommandFailureCode failureCode)
+    {
+        version = null;
+    }
+    
+    @Override
+    public void onAbort()
+    {
+        version = null;
+    }
+    
+    @Override
+    public PackerCommandFailureCode mapFailureCode(int errorCode)
+    {
+        return FAILURE_ERROR;
+    }
+}
@@ -0,0 +1,616 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.readAllBytes;
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableSet;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Files a Packer template depends on.
+ * 
+ * The template, its variable files and every local path referenced by a
+ * known attribute are dependencies. Referenced directories are dependencies
+ * as a whole. Remote URLs are not, but {@code file://} URLs are taken as the
+ * local path they refer to. JSON templates are parsed; HCL2 templates are
+ * scanned for attribute assignments and file functions.
+ * 
+ * There are no dependencies when some reference cannot be resolved without
+ * evaluating the template, such as a user variable, or when the template
+ * cannot be parsed. In that case every file of the input directory must be
+ * taken as a dependency. On HCL2 templates, that is the case of any path
+ * attribute or file function argument which is not a quoted string, or a
+ * list of them, such as a variable, a local or an index expression.
+ * 
+ * The same happens when some attribute may reference files in a way that is
+ * not understood, like command line arguments or inline content maps, and
+ * when some attribute which is not a known one looks like a path by its
+ * name, such as any one ending with {@code _file} or {@code _path}.
+ */
+class TemplateDependencies
+{
+    private static final Set<String> PATH_ATTRIBUTES = new HashSet<>(asList(
+        "script",
+        "scripts",
+        "source",
+        "sources",
+        "http_directory",
+        "floppy_files",
+        "floppy_dirs",
+        "cd_files",
+        "iso_url",
+        "iso_urls",
+        "playbook_file",
+        "playbook_dir",
+        "role_paths",
+        "galaxy_file",
+        "inventory_file",
+        "user_data_file",
+        "ssh_private_key_file",
+        "source_path"));
+    
+    private static final Set<String> OPAQUE_ATTRIBUTES = new HashSet<>(asList(
+        "extra_arguments",
+        "http_content",
+        "cd_content"));
+    
+    private static final Set<String> NON_INPUT_ATTRIBUTES = new HashSet<>(
+        asList(
+            "output_directory",
+            "remote_path",
+            "remote_folder",
+            "remote_file",
+            "staging_directory",
+            "guest_additions_path",
+            "iso_target_path",
+            "inventory_directory"));
+    
+    private static final String DIRECTION_ATTRIBUTE = "direction";
+    private static final String DIRECTION_DOWNLOAD = "download";
+    
+    private static final String HCL_SUFFIX = ".hcl";
+    private static final String HCL_DIRECTORY_GLOB =
+        "*.{pkr.hcl,pkr.json,auto.pkrvars.hcl,auto.pkrvars.json}";
+    
+    private static final Pattern TEMPLATE_DIR = Pattern.compile(
+        "\\{\\{\\s*template_dir\\s*}}/?|\\$\\{\\s*path\\.root\\s*}/?");
+    private static final Pattern UNRESOLVABLE = Pattern.compile(
+        "\\{\\{|\\$\\{|[*?\\[]");
+    private static final Pattern URL = Pattern.compile(
+        "^[a-zA-Z][a-zA-Z0-9+.-]+://");
+    private static final Pattern FILE_URL = Pattern.compile(
+        "^file://([^?#]*)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern PATH_LIKE_ATTRIBUTE = Pattern.compile(
+        "(?:^|_)(?:file|files|path|paths|dir|dirs|directory|directories)$");
+    
+    private static final Pattern HCL_ATTRIBUTE = Pattern.compile(
+        "(?m)^[ \\t]*([a-z_]+)[ \\t]*=(?!=)");
+    private static final Pattern HCL_FILE_FUNCTION = Pattern.compile(
+        "\\b(?:file(?:base64|md5|sha1|sha256|sha512)?|templatefile|fileset)"
+        + "\\(");
+    
+    private final Path workingDir;
+    private final Set<Path> paths;
+    private boolean resolvable;
+    
+    private TemplateDependencies(Path workingDir)
+    {
+        this.workingDir = workingDir;
+        paths = new LinkedHashSet<>();
+        resolvable = true;
+    }
+    
+    /**
+     * Resolve dependencies of the given template.
+     * 
+     * @param workingDir
+     *     Directory where Packer is executed.
+     * @param templatePath
+     *     Template path relative to working directory. It may be a directory
+     *     of HCL2 templates.
+     * @param varFiles
+     *     Variable files relative to working directory.
+     * 
+     * @return
+     *     Absolute paths of files and directories the template depends on, or
+     *     empty if they cannot be resolved.
+     */
+    static Optional<Set<Path>> resolve(
+        Path workingDir,
+        String templatePath,
+        Set<String> varFiles)
+    throws IOException
+    {
+        TemplateDependencies dependencies = new TemplateDependencies(
+            workingDir.toAbsolutePath());
+        Path template = dependencies.workingDir.resolve(templatePath);
+        if (isDirectory(template))
+            try (DirectoryStream<Path> files = newDirectoryStream(
+                template,
+                HCL_DIRECTORY_GLOB))
+            {
+                for (Path file : files)
+                    dependencies.template(file, template);
+            }
+        else if (isRegularFile(template))
+            dependencies.template(template, template.getParent());
+        else
+            return Optional.empty();
+        for (String varFile : varFiles)
+            dependencies.paths.add(dependencies.workingDir.resolve(varFile));
+        
+        if (!dependencies.resolvable)
+            return Optional.empty();
+        return Optional.of(unmodifiableSet(dependencies.paths));
+    }
+    
+    private void template(Path file, Path templateDir)
+    throws IOException
+    {
+        paths.add(file);
+        String content = new String(readAllBytes(file), UTF_8);
+        if (file.getFileName().toString().endsWith(HCL_SUFFIX))
+            hclTemplate(content, templateDir);
+        else
+            try
+            {
+                jsonValue(new JsonReader(content).read(), null, templateDir);
+            }
+            catch (IOException exception)
+            {
+                resolvable = false;
+            }
+    }
+    
+    private void hclTemplate(String content, Path templateDir)
+    {
+        Matcher attribute = HCL_ATTRIBUTE.matcher(content);
+        while (attribute.find())
+            if (PATH_ATTRIBUTES.contains(attribute.group(1)))
+                hclValue(new HclScanner(content, attribute.end()), templateDir);
+            else if (opaque(attribute.group(1)))
+                hclOpaqueValue(new HclScanner(content, attribute.end()));
+        Matcher function = HCL_FILE_FUNCTION.matcher(content);
+        while (function.find())
+            hclArgument(new HclScanner(content, function.end()), templateDir);
+    }
+    
+    /**
+     * Take the attribute value the given scanner is on, which must be a
+     * quoted string or a list of them followed by the end of the line.
+     */
+    private void hclValue(HclScanner scanner, Path templateDir)
+    {
+        List<Optional<String>> references = new ArrayList<>();
+        scanner.blanksSkip(false);
+        if (scanner.at('['))
+        {
+            scanner.next();
+            scanner.separatorsSkip();
+            while (scanner.at('"'))
+            {
+                references.add(scanner.string());
+                scanner.separatorsSkip();
+            }
+            if (!scanner.at(']'))
+            {
+                resolvable = false;
+                return;
+            }
+            scanner.next();
+        }
+        else if (scanner.at('"'))
+            references.add(scanner.string());
+        else
+        {
+            resolvable = false;
+            return;
+        }
+        scanner.blanksSkip(false);
+        if (references.contains(Optional.empty())
+            || !scanner.atLineEnd())
+        {
+            resolvable = false;
+            return;
+        }
+        references.forEach(reference -> reference(
+            reference.get(),
+            templateDir));
+    }
+    
+    /**
+     * Take the value of an attribute that is not understood, which is only
+     * fine when it is an empty list or map.
+     */
+    private void hclOpaqueValue(HclScanner scanner)
+    {
+        scanner.blanksSkip(false);
+        boolean list = scanner.at('[');
+        if (list || scanner.at('{'))
+        {
+            scanner.next();
+            scanner.separatorsSkip();
+            if (scanner.at(list ? ']' : '}'))
+                return;
+        }
+        resolvable = false;
+    }
+    
+    /**
+     * Take the first file function argument the given scanner is on, which
+     * must be a quoted string.
+     */
+    private void hclArgument(HclScanner scanner, Path templateDir)
+    {
+        scanner.blanksSkip(true);
+        Optional<String> reference = scanner.at('"')
+            ? scanner.string()
+            : Optional.empty();
+        scanner.blanksSkip(true);
+        if (reference.isPresent() && (scanner.at(',') || scanner.at(')')))
+            reference(reference.get(), templateDir);
+        else
+            resolvable = false;
+    }
+    
+    private void jsonValue(Object value, String attribute, Path templateDir)
+    {
+        if (attribute != null && opaque(attribute))
+        {
+            if (!isEmpty(value))
+                resolvable = false;
+        }
+        else if (value instanceof Map)
+        {
+            Map<?, ?> object = (Map<?, ?>) value;
+            if (DIRECTION_DOWNLOAD.equals(object.get(DIRECTION_ATTRIBUTE)))
+                return;
+            for (Map.Entry<?, ?> entry : object.entrySet())
+                jsonValue(
+                    entry.getValue(),
+                    entry.getKey().toString(),
+                    templateDir);
+        }
+        else if (value instanceof List)
+            for (Object item : (List<?>) value)
+                jsonValue(item, attribute, templateDir);
+        else if (value instanceof String && PATH_ATTRIBUTES.contains(attribute))
+            reference((String) value, templateDir);
+    }
+    
+    private void reference(String reference, Path templateDir)
+    {
+        Matcher fileUrl = FILE_URL.matcher(reference);
+        if (fileUrl.lookingAt())
+            localReference(fileUrl.group(1), templateDir);
+        else if (!URL.matcher(reference).find())
+            localReference(reference, templateDir);
+    }
+    
+    private void localReference(String reference, Path templateDir)
+    {
+        Matcher templateDirMatcher = TEMPLATE_DIR.matcher(reference);
+        boolean templateDirRelative = templateDirMatcher.lookingAt();
+        String path = templateDirMatcher.replaceAll("");
+        if (UNRESOLVABLE.matcher(path).find())
+            resolvable = false;
+        else if (templateDirRelative)
+            paths.add(templateDir.resolve(path).normalize());
+        else
+            paths.add(workingDir.resolve(path).normalize());
+    }
+    
+    /**
+     * Whether the given attribute may reference files in a way that is not
+     * understood.
+     */
+    private static boolean opaque(String attribute)
+    {
+        return OPAQUE_ATTRIBUTES.contains(attribute)
+            || PATH_LIKE_ATTRIBUTE.matcher(attribute).find()
+                && !PATH_ATTRIBUTES.contains(attribute)
+                && !NON_INPUT_ATTRIBUTES.contains(attribute);
+    }
+    
+    private static boolean isEmpty(Object value)
+    {
+        if (value instanceof Map)
+            return ((Map<?, ?>) value).isEmpty();
+        if (value instanceof List)
+            return ((List<?>) value).isEmpty();
+        return false;
+    }
+}
+
+/**
+ * Scanner of HCL2 literal values, which only tells quoted strings apart from
+ * any other expression.
+ */
+class HclScanner
+{
+    private final String content;
+    private int position;
+    
+    HclScanner(String content, int position)
+    {
+        this.content = content;
+        this.position = position;
+    }
+    
+    boolean at(char c)
+    {
+        return position < content.length() && content.charAt(position) == c;
+    }
+    
+    /**
+     * Whether there is nothing but a comment until the end of the line.
+     */
+    boolean atLineEnd()
+    {
+        return position >= content.length()
+            || at('\n')
+            || at('\r')
+            || at('#')
+            || content.startsWith("//", position);
+    }
+    
+    void next()
+    {
+        ++position;
+    }
+    
+    /**
+     * Skip spaces and tabs, and line breaks as well if requested.
+     */
+    void blanksSkip(boolean lineBreaks)
+    {
+        while (at(' ') || at('\t')
+            || lineBreaks && (at('\n') || at('\r')))
+            next();
+    }
+    
+    /**
+     * Skip blanks, line breaks, commas and comments between list items.
+     */
+    void separatorsSkip()
+    {
+        while (true)
+        {
+            blanksSkip(true);
+            if (at(','))
+                next();
+            else if (at('#') || content.startsWith("//", position))
+                while (position < content.length() && !at('\n'))
+                    next();
+            else
+                return;
+        }
+    }
+    
+    /**
+     * Quoted string at current position, without its quotes. Nested quotes
+     * of interpolations end it, so they are left as an unresolvable
+     * expression.
+     */
+    Optional<String> string()
+    {
+        StringBuilder value = new StringBuilder();
+        next();
+        while (position < content.length() && !at('"') && !at('\n'))
+        {
+            if (at('\\') && position + 1 < content.length())
+                next();
+            value.append(content.charAt(position));
+            next();
+        }
+        if (!at('"'))
+            return Optional.empty();
+        next();
+        return Optional.of(value.toString());
+    }
+}
+
+/**
+ * Minimal JSON reader. Objects are read as maps, arrays as lists and the
+ * remaining values as their string representation.
+ */
+class JsonReader
+{
+    private final String content;
+    private int position;
+    
+    JsonReader(String content)
+    {
+        this.content = content;
+        position = 0;
+    }
+    
+    Object read()
+    throws IOException
+    {
+        Object value = value();
+        skipWhitespace();
+        if (position < content.length())
+            throw error("Unexpected content");
+        return value;
+    }
+    
+    private Object value()
+    throws IOException
+    {
+        skipWhitespace();
+        if (position >= content.length())
+            throw error("Unexpected end");
+        char c = content.charAt(position);
+        switch (c)
+        {
+            case '{':
+            return object();
+            case '[':
+            return array();
+            case '"':
+            return string();
+            default:
+            return literal();
+        }
+    }
+    
+    private Map<String, Object> object()
+    throws IOException
+    {
+        Map<String, Object> object = new LinkedHashMap<>();
+        ++position;
+        skipWhitespace();
+        if (consume('}'))
+            return object;
+        do
+        {
+            skipWhitespace();
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            object.put(key, value());
+            skipWhitespace();
+        }
+        while (consume(','));
+        expect('}');
+        return object;
+    }
+    
+    private List<Object> array()
+    throws IOException
+    {
+        List<Object> array = new ArrayList<>();
+        ++position;
+        skipWhitespace();
+        if (consume(']'))
+            return array;
+        do
+        {
+            array.add(value());
+            skipWhitespace();
+        }
+        while (consume(','));
+        expect(']');
+        return array;
+    }
+    
+    private String string()
+    throws IOException
+    {
+        expect('"');
+        StringBuilder builder = new StringBuilder();
+        while (position < content.length())
+        {
+            char c = content.charAt(position++);
+            if (c == '"')
+                return builder.toString();
+            if (c != '\\')
+                builder.append(c);
+            else if (position < content.length())
+                escape(builder, content.charAt(position++));
+        }
+        throw error("Unterminated string");
+    }
+    
+    private void escape(StringBuilder builder, char c)
+    throws IOException
+    {
+        switch (c)
+        {
+            case 'b':
+            builder.append('\b');
+            break;
+            case 'f':
+            builder.append('\f');
+            break;
+            case 'n':
+            builder.append('\n');
+            break;
+            case 'r':
+            builder.append('\r');
+            break;
+            case 't':
+            builder.append('\t');
+            break;
+            case 'u':
+            if (position + 4 > content.length())
+                throw error("Invalid escape");
+            try
+            {
+                builder.append((char) Integer.parseInt(
+                    content.substring(position, position + 4),
+                    16));
+            }
+            catch (NumberFormatException exception)
+            {
+                throw error("Invalid escape");
+            }
+            position += 4;
+            break;
+            default:
+            builder.append(c);
+        }
+    }
+    
+    private String literal()
+    throws IOException
+    {
+        int start = position;
+        while (position < content.length()
+            && ",]} \t\r\n".indexOf(content.charAt(position)) < 0)
+            ++position;
+        if (position == start)
+            throw error("Unexpected character");
+        return content.substring(start, position);
+    }
+    
+    private void skipWhitespace()
+    {
+        while (position < content.length()
+            && Character.isWhitespace(content.charAt(position)))
+            ++position;
+    }
+    
+    private boolean consume(char c)
+    {
+        if (position < content.length() && content.charAt(position) == c)
+        {
+            ++position;
+            return true;
+        }
+        return false;
+    }
+    
+    private void expect(char c)
+    throws IOException
+    {
+        if (!consume(c))
+            throw error(String.format("Expected '%c'", c));
+    }
+    
+    private IOException error(String message)
+    {
+        return new IOException(String.format(
+            "%s at position %d of JSON template",
+            message,
+            position));
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.miquelo.tools.packer.commands;
+
+import java.security.NoSuchAlgorithmException;
+
+class UncheckedNoSuchAlgorithmException
+extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+    
+    UncheckedNoSuchAlgorithmException(NoSuchAlgorithmException cause)
+    {
+        super(cause);
+    }
+    
+    @Override
+    public NoSuchAlgorithmException getCause()
+    {
+        return (NoSuchAlgorithmException) super.getCause();
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.miquelo.tools.packer.commands;
+
+import java.util.concurrent.TimeoutException;
+
+class UncheckedTimeoutException
+extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+    
+    UncheckedTimeoutException(TimeoutException cause)
+    {
+        super(cause);
+    }
+    
+    @Override
+    public TimeoutException getCause()
+    {
+        return (TimeoutException) super.getCause();
+    }
+}
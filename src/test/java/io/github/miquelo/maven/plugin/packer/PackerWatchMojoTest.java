@@ -0,0 +1,66 @@
+package io.github.miquelo.maven.plugin.packer;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import io.github.miquelo.tools.packer.PackerCommandException;
+import io.github.miquelo.tools.packer.commands.InputWatcher;
+
+@ExtendWith(MockitoExtension.class)
+public class PackerWatchMojoTest
+{
+    private static final long SOME_QUIET_PERIOD = 500L;
+    private static final Path SOME_CHANGED_PATH = Paths.get("some-file");
+    
+    private static final PackerCommandException SOME_INIT_EXCEPTION =
+        new PackerCommandException("Some init error");
+    
+    public PackerWatchMojoTest()
+    {
+    }
+    
+    @Test
+    public void rebuildWhenInitHasFailed(
+        @Mock
+        Log log,
+        @Mock
+        InputWatcher watcher,
+        @Mock
+        PackerWatchMojo.Build build)
+    throws Exception
+    {
+        when(watcher.awaitChanges(SOME_QUIET_PERIOD))
+            .thenReturn(singleton(SOME_CHANGED_PATH))
+            .thenThrow(new InterruptedException());
+        doThrow(SOME_INIT_EXCEPTION)
+            .doNothing()
+            .when(build)
+            .run();
+        
+        Throwable thrown = catchThrowable(() -> PackerWatchMojo.watch(
+            log,
+            watcher,
+            SOME_QUIET_PERIOD,
+            build));
+        
+        assertThat(thrown).isInstanceOf(InterruptedException.class);
+        verify(build, times(2)).run();
+        verify(log).error(anyString(), eq(SOME_INIT_EXCEPTION));
+    }
+}
@@ -2,18 +2,26 @@ package io.github.miquelo.tools.packer;
 
 import static io.github.miquelo.tools.packer.PackerCommandFailureCode
     .FAILURE_ERROR;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.synchronizedList;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CancellationException;
@@ -33,11 +41,33 @@ import org.mockito.junit.jupiter.MockitoExtension;
 public class PackerCommandTaskTest
 {
     private static final boolean ANY_MAY_INTERRUPT_IF_RUNNING = false;
+    private static final boolean MAY_INTERRUPT_IF_RUNNING = true;
 
     private static final String ANY_COMMAND_NAME = "any-command-name";
     private static final List<Object> ANY_ARGUMENTS = emptyList();
     
     private static final int SUCCESS_ERROR_CODE = 0;
+    
+    private static final PackerOutputMessage SOME_MESSAGE =
+        new PackerOutputMessageImpl(
+            Instant.EPOCH,
+            null,
+            PackerOutputMessage.TYPE_UI,
+            new String[0]);
+
+    private static final PackerOutputMessage OTHER_MESSAGE =
+        new PackerOutputMessageImpl(
+            Instant.EPOCH,
+            null,
+            PackerOutputMessage.TYPE_ARTIFACT,
+            new String[0]);
+    
+    private static final int SOME_BATCH_SIZE = 16;
+    private static final PackerOutputBackpressure SOME_BACKPRESSURE =
+        PackerOutputBackpressure.BLOCK;
+    private static final int SINGLE_PARTITION = 1;
+    private static final PackerErrorLevel SOME_ERROR_LEVEL =
+        PackerErrorLevel.DEBUG;
 
     private static final Throwable SOME_EXCEPTION = new RuntimeException();
 
@@ -47,6 +77,10 @@ public class PackerCommandTaskTest
     private static final PackerCommandFailureCode SOME_FAILURE_CODE =
         FAILURE_ERROR;
     private static final int SOME_FAILURE_ERROR_CODE = 1;
+    
+    private static final String SOME_ERROR_LINE = "some-error-line";
+    private static final List<String> SOME_ERROR_TAIL =
+        singletonList(SOME_ERROR_LINE);
 
     private static final PackerCommandException SOME_COMMAND_EXCEPTION =
         new PackerCommandException("any-message");
@@ -127,7 +161,14 @@ public class PackerCommandTaskTest
     public void isDoneWhenExecutionBuildHasFailed()
     throws Exception
     {
-        when(executionBuilder.build(any(), any(), anyString(), anyList()))
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
             .thenThrow(IOException.class);
         when(command.getName())
             .thenReturn(ANY_COMMAND_NAME);
@@ -148,7 +189,14 @@ public class PackerCommandTaskTest
     public void isDoneWhenExecutionHasBeenInterrumpted()
     throws Exception
     {
-        when(executionBuilder.build(any(), any(), anyString(), anyList()))
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
             .thenReturn(execution);
         when(command.getName())
             .thenReturn(ANY_COMMAND_NAME);
@@ -171,7 +219,14 @@ public class PackerCommandTaskTest
     public void isDoneWhenExecutionHasFailed()
     throws Exception
     {
-        when(executionBuilder.build(any(), any(), anyString(), anyList()))
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
             .thenReturn(execution);
         when(command.getName())
             .thenReturn(ANY_COMMAND_NAME);
@@ -252,6 +307,94 @@ public class PackerCommandTaskTest
             .isInstanceOf(CancellationException.class);
     }
     
+    @Test
+    public void interruptInitWhenCancelled()
+    throws Exception
+    {
+        when(command.init(logger, IrrelevantTimeoutHandler.INSTANCE))
+            .thenAnswer(invocation -> {
+                commandTask.cancel(MAY_INTERRUPT_IF_RUNNING);
+                return !Thread.interrupted();
+            });
+        
+        Throwable exception = catchThrowable(commandTask::get);
+        
+        assertThat(exception)
+            .isInstanceOf(CancellationException.class);
+        verify(executionBuilder, never())
+            .build(
+                any(),
+                anyInt(),
+                any(),
+                any(),
+                any(),
+                anyString(),
+                anyList());
+    }
+    
+    @Test
+    public void doNotExecuteWhenCancelledWhileInitCompletes()
+    throws Exception
+    {
+        when(command.getName())
+            .thenReturn(ANY_COMMAND_NAME);
+        when(command.getArguments())
+            .thenReturn(ANY_ARGUMENTS);
+        when(command.getWorkingDir())
+            .thenReturn(Optional.empty());
+        when(command.init(logger, IrrelevantTimeoutHandler.INSTANCE))
+            .thenAnswer(invocation -> {
+                commandTask.cancel(MAY_INTERRUPT_IF_RUNNING);
+                return true;
+            });
+        
+        Throwable exception = catchThrowable(commandTask::get);
+        
+        assertThat(exception)
+            .isInstanceOf(CancellationException.class);
+        assertThat(Thread.interrupted())
+            .isFalse();
+        verify(executionBuilder, never())
+            .build(
+                any(),
+                anyInt(),
+                any(),
+                any(),
+                any(),
+                anyString(),
+                anyList());
+    }
+    
+    @Test
+    public void interruptExecutionWhenAwaitingIsInterrupted()
+    throws Exception
+    {
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
+            .thenReturn(execution);
+        when(command.getName())
+            .thenReturn(ANY_COMMAND_NAME);
+        when(command.getArguments())
+            .thenReturn(ANY_ARGUMENTS);
+        when(command.getWorkingDir())
+            .thenReturn(Optional.empty());
+        when(command.init(logger, IrrelevantTimeoutHandler.INSTANCE))
+            .thenReturn(true);
+        when(execution.errorCode(any()))
+            .thenThrow(InterruptedException.class);
+        
+        commandTask.run();
+        
+        verify(execution)
+            .interrupt();
+    }
+    
     @Test
     public void onlyAwaitValueWhenGettingAlreadyCompleting()
     throws Exception
@@ -288,7 +431,14 @@ public class PackerCommandTaskTest
     public void completeWithSuccessResult()
     throws Exception
     {
-        when(executionBuilder.build(any(), any(), anyString(), anyList()))
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
             .thenReturn(execution);
         when(timeoutHandlerBuilder.build(SOME_TIMEOUT, SOME_TIME_UNIT))
             .thenReturn(timeoutHandler);
@@ -316,11 +466,103 @@ public class PackerCommandTaskTest
         verify(command).onSuccess();
     }
     
+    @Test
+    public void passOutputMessagesToCommandAndConsumer()
+    throws Exception
+    {
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
+            .thenAnswer(invocation -> {
+                PackerOutputBatchConsumer consumer =
+                    invocation.getArgument(0);
+                consumer.accept(singletonList(SOME_MESSAGE));
+                return execution;
+            });
+        when(command.getName())
+            .thenReturn(ANY_COMMAND_NAME);
+        when(command.getArguments())
+            .thenReturn(ANY_ARGUMENTS);
+        when(command.getWorkingDir())
+            .thenReturn(Optional.empty());
+        when(command.init(logger, IrrelevantTimeoutHandler.INSTANCE))
+            .thenReturn(true);
+        when(execution.errorCode(any()))
+            .thenReturn(SUCCESS_ERROR_CODE);
+        
+        commandTask.run();
+        
+        verify(command).onOutputMessage(SOME_MESSAGE);
+        verify(messageConsumer).accept(SOME_MESSAGE);
+    }
+    
+    @Test
+    public void passOutputMessageBatchesToCommandAndThroughPipeline()
+    throws Exception
+    {
+        List<PackerOutputMessage> batch = asList(SOME_MESSAGE, OTHER_MESSAGE);
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        when(executionBuilder.build(
+            any(),
+            eq(SOME_BATCH_SIZE),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
+            .thenAnswer(invocation -> {
+                PackerOutputBatchConsumer consumer =
+                    invocation.getArgument(0);
+                consumer.accept(batch);
+                return execution;
+            });
+        when(command.getName())
+            .thenReturn(ANY_COMMAND_NAME);
+        when(command.getArguments())
+            .thenReturn(ANY_ARGUMENTS);
+        when(command.getWorkingDir())
+            .thenReturn(Optional.empty());
+        when(command.init(logger, IrrelevantTimeoutHandler.INSTANCE))
+            .thenReturn(true);
+        when(execution.errorCode(any()))
+            .thenReturn(SUCCESS_ERROR_CODE);
+        PackerCommandTask batchCommandTask = new PackerCommandTask(
+            executionBuilder,
+            timeoutHandlerBuilder,
+            logger,
+            consumed::addAll,
+            SOME_BATCH_SIZE,
+            Optional.of(SOME_BACKPRESSURE),
+            SINGLE_PARTITION,
+            SOME_ERROR_LEVEL,
+            Optional.empty(),
+            command);
+        
+        batchCommandTask.run();
+        
+        verify(command).onOutputMessage(SOME_MESSAGE);
+        verify(command).onOutputMessage(OTHER_MESSAGE);
+        assertThat(consumed).containsExactly(SOME_MESSAGE, OTHER_MESSAGE);
+    }
+    
     @Test
     public void completeWithFailureCode()
     throws Exception
     {
-        when(executionBuilder.build(any(), any(), anyString(), anyList()))
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
             .thenReturn(execution);
         when(timeoutHandlerBuilder.build(SOME_TIMEOUT, SOME_TIME_UNIT))
             .thenReturn(timeoutHandler);
@@ -352,6 +594,48 @@ public class PackerCommandTaskTest
         verify(command).onFailure(SOME_FAILURE_CODE);
     }
     
+    @Test
+    public void logErrorOutputTailOnFailure()
+    throws Exception
+    {
+        when(executionBuilder.build(
+            any(),
+            anyInt(),
+            any(),
+            any(),
+            any(),
+            anyString(),
+            anyList()))
+            .thenReturn(execution);
+        when(timeoutHandlerBuilder.build(SOME_TIMEOUT, SOME_TIME_UNIT))
+            .thenReturn(timeoutHandler);
+        when(timeoutHandler.getTimeout())
+            .thenReturn(SOME_TIMEOUT);
+        when(timeoutHandler.getUnit())
+            .thenReturn(SOME_TIME_UNIT);
+        when(timeoutHandler.checkIt())
+            .thenReturn(timeoutHandler);
+        when(command.getName())
+            .thenReturn(ANY_COMMAND_NAME);
+        when(command.getArguments())
+            .thenReturn(ANY_ARGUMENTS);
+        when(command.getWorkingDir())
+            .thenReturn(Optional.empty());
+        when(command.init(logger, timeoutHandler))
+            .thenReturn(true);
+        when(command.mapFailureCode(SOME_FAILURE_ERROR_CODE))
+            .thenReturn(SOME_FAILURE_CODE);
+        when(execution.errorCode(timeoutHandler))
+            .thenReturn(SOME_FAILURE_ERROR_CODE);
+        when(execution.getErrorTail())
+            .thenReturn(SOME_ERROR_TAIL);
+        
+        commandTask.get(SOME_TIMEOUT, SOME_TIME_UNIT);
+        
+        verify(logger).error(argThat(message ->
+            message.contains(SOME_ERROR_LINE)));
+    }
+    
     @Test
     public void completeWithError()
     throws Exception
@@ -1,5 +1,8 @@
 package io.github.miquelo.tools.packer;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAllLines;
 import static java.time.Instant.ofEpochMilli;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -8,14 +11,20 @@ import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -25,6 +34,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -62,12 +72,37 @@ public class PackerExecutionTest
         0x6e, 0x5c, 0x72, 0x2c
     };
     
+    private static final byte[] SEVERAL_MESSAGES_INPUT_STREAM = (
+        "2,some-target,some-type,some\\ndata%!(PACKER_COMMA)\n"
+        + "3,,other-type\n"
+        + "x,any-target,any-type\n")
+        .getBytes(US_ASCII);
+    
+    private static final String UTF_8_DATA_PART = "caf\u00e9 \u2713";
+    private static final byte[] UTF_8_MESSAGE_INPUT_STREAM = (
+        "2,some-target,some-type," + UTF_8_DATA_PART + "\r\n")
+        .getBytes(UTF_8);
+    
+    private static final int SOME_BATCH_SIZE = 256;
+    
+    private static final int LONG_DATA_PART_LENGTH = 200 * 1024;
+    
+    private static final byte[] EMPTY_INPUT_STREAM = new byte[0];
+    
+    private static final String SOME_ERROR_LINE = "some error";
+    private static final String OTHER_ERROR_LINE = "other error \u2717";
+    private static final byte[] ERROR_INPUT_STREAM = (
+        SOME_ERROR_LINE + "\n" + OTHER_ERROR_LINE + "\n")
+        .getBytes(UTF_8);
+    private static final String SOME_ERROR_FILE_NAME = "packer-error.log";
+    
     private static final byte[] MALFORMED_MESSAGE_INPUT_STREAM = {
         0x0d
     };
     
     private static final Long SOME_TIMEOUT = 1000L;
     private static final TimeUnit SOME_UNIT = SECONDS;
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000L;
     
     private static final int SOME_EXIT_VALUE = 10;
     
@@ -77,6 +112,14 @@ public class PackerExecutionTest
     private static final String WELL_FORMED_DATA_PART =
         "well-formed-data-,\n\r";
     private static final String EMPTY_DATA_PART = "";
+    
+    private static final Instant SOME_TIMESTAMP = ofEpochMilli(2000);
+    private static final String SOME_TARGET = "some-target";
+    private static final String SOME_TYPE = "some-type";
+    private static final String SOME_DATA_PART = "some\ndata,";
+    private static final Instant OTHER_TIMESTAMP = ofEpochMilli(3000);
+    private static final String OTHER_TARGET = "";
+    private static final String OTHER_TYPE = "other-type";
 
     private Executor messageConsumerExecutor;
     
@@ -111,6 +154,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         when(process.exitValue())
             .thenReturn(SOME_EXIT_VALUE);
         when(process.waitFor(SOME_TIMEOUT, SOME_UNIT))
@@ -163,6 +208,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         when(process.waitFor(SOME_TIMEOUT, SOME_UNIT))
             .thenReturn(WITH_TIMEOUT);
         when(timeoutHandler.isRelevant())
@@ -215,6 +262,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         when(process.waitFor())
             .thenReturn(SOME_EXIT_VALUE);
         when(timeoutHandler.isRelevant())
@@ -262,6 +311,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         when(process.isAlive())
             .thenReturn(IS_NOT_ALIVE);
         PackerExecution execution = new PackerExecution(
@@ -301,6 +352,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         when(process.isAlive())
             .thenReturn(IS_ALIVE);
         PackerExecution execution = new PackerExecution(
@@ -319,6 +372,381 @@ public class PackerExecutionTest
         verify(process).destroy();
     }
     
+    @Test
+    public void parseEachOutputLine(
+        @Mock
+        Consumer<PackerOutputMessage> messageConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(
+                SEVERAL_MESSAGES_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        PackerExecution execution = new PackerExecution(
+            messageConsumer,
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        ArgumentCaptor<PackerOutputMessage> messages =
+            ArgumentCaptor.forClass(PackerOutputMessage.class);
+        verify(messageConsumer, times(2)).accept(messages.capture());
+        PackerOutputMessage some = messages.getAllValues().get(0);
+        assertThat(some.getTimestamp()).isEqualTo(SOME_TIMESTAMP);
+        assertThat(some.getTarget()).contains(SOME_TARGET);
+        assertThat(some.getType()).isEqualTo(SOME_TYPE);
+        assertThat(some.getData()).containsExactly(SOME_DATA_PART);
+        PackerOutputMessage other = messages.getAllValues().get(1);
+        assertThat(other.getTimestamp()).isEqualTo(OTHER_TIMESTAMP);
+        assertThat(other.getTarget()).contains(OTHER_TARGET);
+        assertThat(other.getType()).isEqualTo(OTHER_TYPE);
+        assertThat(other.getData()).isEmpty();
+    }
+    
+    @Test
+    public void deliverOutputMessagesInBatches(
+        @Mock
+        PackerOutputBatchConsumer batchConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(
+                SEVERAL_MESSAGES_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        PackerExecution execution = new PackerExecution(
+            batchConsumer,
+            SOME_BATCH_SIZE,
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        verify(batchConsumer).accept(argThat(messages ->
+            messages.size() == 2 &&
+            messages.get(0).getType().equals(SOME_TYPE) &&
+            messages.get(1).getType().equals(OTHER_TYPE)));
+    }
+    
+    @Test
+    public void flushWaitingBatchWhileReadingIsBlocked(
+        @Mock
+        PackerOutputBatchConsumer batchConsumer)
+    throws Exception
+    {
+        CountDownLatch released = new CountDownLatch(1);
+        InputStream input = new InputStream()
+        {
+            private final InputStream messages = new ByteArrayInputStream(
+                SEVERAL_MESSAGES_INPUT_STREAM);
+            
+            @Override
+            public int read()
+            throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+            throws IOException
+            {
+                int read = messages.read(buffer, offset, length);
+                if (read >= 0)
+                    return read;
+                try
+                {
+                    released.await();
+                }
+                catch (InterruptedException exception)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+            
+            @Override
+            public int available()
+            {
+                // Pipes may tell there is output while there is not
+                return 1;
+            }
+        };
+        Thread reader = new Thread(new PackerOutputReaderTask(
+            batchConsumer,
+            SOME_BATCH_SIZE,
+            input));
+        reader.start();
+        
+        verify(batchConsumer, timeout(FLUSH_TIMEOUT_MILLIS))
+            .accept(argThat(messages -> messages.size() == 2));
+        
+        released.countDown();
+        reader.join();
+    }
+    
+    @Test
+    public void decodeOutputAsUtf8(
+        @Mock
+        Consumer<PackerOutputMessage> messageConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(UTF_8_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        PackerExecution execution = new PackerExecution(
+            messageConsumer,
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        verify(messageConsumer).accept(argThat(message ->
+            message.getData().length == 1 &&
+            message.getData()[0].equals(UTF_8_DATA_PART)));
+    }
+    
+    @Test
+    public void readOutputLinesLongerThanBuffer(
+        @Mock
+        Consumer<PackerOutputMessage> messageConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        char[] longDataPart = new char[LONG_DATA_PART_LENGTH];
+        Arrays.fill(longDataPart, 'x');
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream((
+                "2,some-target,some-type," + new String(longDataPart))
+                .getBytes(US_ASCII)));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        PackerExecution execution = new PackerExecution(
+            messageConsumer,
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        verify(messageConsumer).accept(argThat(message ->
+            message.getData().length == 1 &&
+            message.getData()[0].equals(new String(longDataPart))));
+    }
+    
+    @Test
+    public void drainErrorOutput(
+        @Mock
+        PackerOutputBatchConsumer batchConsumer,
+        @Mock
+        Consumer<String> errorLineConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        File errorFile = new File(workingDir, SOME_ERROR_FILE_NAME);
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(
+                WELL_FORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(ERROR_INPUT_STREAM));
+        PackerExecution execution = new PackerExecution(
+            batchConsumer,
+            SOME_BATCH_SIZE,
+            errorLineConsumer,
+            Optional.of(errorFile),
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        verify(batchConsumer).accept(any());
+        verify(errorLineConsumer).accept(SOME_ERROR_LINE);
+        verify(errorLineConsumer).accept(OTHER_ERROR_LINE);
+        assertThat(execution.getErrorTail())
+            .containsExactly(SOME_ERROR_LINE, OTHER_ERROR_LINE);
+        assertThat(readAllLines(errorFile.toPath(), UTF_8))
+            .containsExactly(SOME_ERROR_LINE, OTHER_ERROR_LINE);
+    }
+    
+    @Test
+    public void keepBoundedErrorOutputTail(
+        @Mock
+        PackerOutputBatchConsumer batchConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        StringBuilder errorOutput = new StringBuilder();
+        for (int i = 0; i < PackerErrorReaderTask.TAIL_LINES * 2; ++i)
+            errorOutput.append(i).append('\n');
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(errorOutput.toString()
+                .getBytes(UTF_8)));
+        PackerExecution execution = new PackerExecution(
+            batchConsumer,
+            SOME_BATCH_SIZE,
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        assertThat(execution.getErrorTail())
+            .hasSize(PackerErrorReaderTask.TAIL_LINES)
+            .endsWith(String.valueOf(PackerErrorReaderTask.TAIL_LINES * 2 - 1));
+    }
+    
+    @Test
+    public void truncateLongErrorOutputLines(
+        @Mock
+        PackerOutputBatchConsumer batchConsumer,
+        @Mock
+        Consumer<String> errorLineConsumer,
+        @Mock
+        ProcessLauncher processLauncher,
+        @Mock
+        Process process,
+        @Mock
+        TimeoutHandler anyTimeoutHandler,
+        @TempDir
+        File workingDir)
+    throws Exception
+    {
+        char[] longLine = new char[PackerErrorReaderTask.LINE_LENGTH * 2];
+        Arrays.fill(longLine, 'x');
+        when(processLauncher.compatible())
+            .thenReturn(IS_COMPATIBLE);
+        when(processLauncher.launch(workingDir, SOME_NAME, SOME_ARGS))
+            .thenReturn(process);
+        when(process.getInputStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream((
+                new String(longLine) + "\r\n" + SOME_ERROR_LINE)
+                .getBytes(UTF_8)));
+        PackerExecution execution = new PackerExecution(
+            batchConsumer,
+            SOME_BATCH_SIZE,
+            errorLineConsumer,
+            Optional.empty(),
+            workingDir,
+            SOME_NAME,
+            SOME_ARGS,
+            new ProcessLauncher[] {
+                processLauncher
+            },
+            messageConsumerExecutor);
+        
+        execution.errorCode(anyTimeoutHandler);
+        
+        verify(errorLineConsumer).accept(new String(
+            longLine,
+            0,
+            PackerErrorReaderTask.LINE_LENGTH));
+        verify(errorLineConsumer).accept(SOME_ERROR_LINE);
+    }
+    
     @Test
     public void ignoreMalformedOutput(
         @Mock
@@ -340,6 +768,8 @@ public class PackerExecutionTest
         when(process.getInputStream())
             .thenReturn(new ByteArrayInputStream(
                 MALFORMED_MESSAGE_INPUT_STREAM));
+        when(process.getErrorStream())
+            .thenReturn(new ByteArrayInputStream(EMPTY_INPUT_STREAM));
         PackerExecution execution = new PackerExecution(
             messageConsumer,
             workingDir,
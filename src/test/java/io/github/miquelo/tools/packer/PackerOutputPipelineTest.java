@@ -0,0 +1,268 @@
+package io.github.miquelo.tools.packer;
+
+import static io.github.miquelo.tools.packer.PackerOutputMessage
+    .DATA_UI_MESSAGE;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_SAY;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.synchronizedList;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class PackerOutputPipelineTest
+{
+    private static final int SOME_BATCH_SIZE = 4;
+    private static final int SOME_PARTITIONS = 4;
+    private static final int SOME_CAPACITY = 8;
+    private static final int SINGLE_PARTITION = 1;
+    private static final int SINGLE_CAPACITY = 1;
+    
+    private static final String SOME_TARGET = "some-target";
+    private static final String OTHER_TARGET = "other-target";
+    private static final String BLOCKING_TARGET = "blocking-target";
+    
+    private static final int SOME_MESSAGE_COUNT = 100;
+    
+    private static final RuntimeException SOME_EXCEPTION =
+        new RuntimeException();
+    
+    public PackerOutputPipelineTest()
+    {
+    }
+    
+    @Test
+    public void keepOrderOfEachTarget()
+    throws Exception
+    {
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        PackerOutputPipeline pipeline = new PackerOutputPipeline(
+            consumed::addAll,
+            SOME_BATCH_SIZE,
+            PackerOutputBackpressure.BLOCK,
+            SOME_PARTITIONS,
+            SOME_CAPACITY);
+        List<PackerOutputMessage> some = messages(SOME_TARGET, DATA_UI_SAY);
+        List<PackerOutputMessage> other = messages(OTHER_TARGET, DATA_UI_SAY);
+        
+        for (int i = 0; i < SOME_MESSAGE_COUNT; ++i)
+        {
+            pipeline.accept(singletonList(some.get(i)));
+            pipeline.accept(singletonList(other.get(i)));
+        }
+        pipeline.close();
+        
+        assertThat(targetMessages(consumed, SOME_TARGET))
+            .containsExactlyElementsOf(some);
+        assertThat(targetMessages(consumed, OTHER_TARGET))
+            .containsExactlyElementsOf(other);
+    }
+    
+    @Test
+    public void dropVerboseMessagesWhenFull()
+    throws Exception
+    {
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        PackerOutputPipeline pipeline = new PackerOutputPipeline(
+            batch -> {
+                consuming.countDown();
+                await(released);
+                consumed.addAll(batch);
+            },
+            SOME_BATCH_SIZE,
+            PackerOutputBackpressure.DROP_VERBOSE,
+            SINGLE_PARTITION,
+            SINGLE_CAPACITY);
+        PackerOutputMessage first = message(BLOCKING_TARGET, DATA_UI_SAY, 0);
+        PackerOutputMessage buffered = message(SOME_TARGET, DATA_UI_SAY, 1);
+        PackerOutputMessage verbose = message(SOME_TARGET, DATA_UI_MESSAGE, 2);
+        
+        pipeline.accept(singletonList(first));
+        consuming.await();
+        pipeline.accept(singletonList(buffered));
+        pipeline.accept(singletonList(verbose));
+        released.countDown();
+        pipeline.close();
+        
+        assertThat(consumed).containsExactly(first, buffered);
+        assertThat(pipeline.getDropped()).isEqualTo(1L);
+    }
+    
+    @Test
+    public void spillMessagesWhenFull()
+    throws Exception
+    {
+        CountDownLatch consuming = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        PackerOutputPipeline pipeline = new PackerOutputPipeline(
+            batch -> {
+                consuming.countDown();
+                await(released);
+                consumed.addAll(batch);
+            },
+            SOME_BATCH_SIZE,
+            PackerOutputBackpressure.SPILL,
+            SINGLE_PARTITION,
+            SINGLE_CAPACITY);
+        List<PackerOutputMessage> some = messages(SOME_TARGET, DATA_UI_SAY);
+        
+        pipeline.accept(singletonList(some.get(0)));
+        consuming.await();
+        pipeline.accept(some.subList(1, some.size()));
+        released.countDown();
+        pipeline.close();
+        
+        assertThat(consumed).hasSameSizeAs(some);
+        for (int i = 0; i < some.size(); ++i)
+        {
+            assertThat(consumed.get(i).getTimestamp())
+                .isEqualTo(some.get(i).getTimestamp());
+            assertThat(consumed.get(i).getTarget())
+                .isEqualTo(some.get(i).getTarget());
+            assertThat(consumed.get(i).getType())
+                .isEqualTo(some.get(i).getType());
+            assertThat(consumed.get(i).getData())
+                .containsExactly(some.get(i).getData());
+        }
+    }
+    
+    @Test
+    public void spillMessagesAgainOnceSpillIsDrained()
+    throws Exception
+    {
+        List<PackerOutputMessage> some = messages(SOME_TARGET, DATA_UI_SAY);
+        int half = some.size() / 2;
+        CountDownLatch firstConsuming = new CountDownLatch(1);
+        CountDownLatch firstReleased = new CountDownLatch(1);
+        CountDownLatch firstDrained = new CountDownLatch(1);
+        CountDownLatch secondConsuming = new CountDownLatch(1);
+        CountDownLatch secondReleased = new CountDownLatch(1);
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        PackerOutputPipeline pipeline = new PackerOutputPipeline(
+            batch -> {
+                if (batch.contains(some.get(0)))
+                {
+                    firstConsuming.countDown();
+                    await(firstReleased);
+                }
+                if (batch.contains(some.get(half)))
+                {
+                    secondConsuming.countDown();
+                    await(secondReleased);
+                }
+                consumed.addAll(batch);
+                if (consumed.size() == half)
+                    firstDrained.countDown();
+            },
+            SOME_BATCH_SIZE,
+            PackerOutputBackpressure.SPILL,
+            SINGLE_PARTITION,
+            SINGLE_CAPACITY);
+        
+        pipeline.accept(singletonList(some.get(0)));
+        firstConsuming.await();
+        pipeline.accept(some.subList(1, half));
+        firstReleased.countDown();
+        firstDrained.await();
+        pipeline.accept(singletonList(some.get(half)));
+        secondConsuming.await();
+        pipeline.accept(some.subList(half + 1, some.size()));
+        secondReleased.countDown();
+        pipeline.close();
+        
+        assertThat(consumed.stream()
+            .map(PackerOutputMessage::getTimestamp)
+            .collect(toList()))
+            .isEqualTo(some.stream()
+                .map(PackerOutputMessage::getTimestamp)
+                .collect(toList()));
+    }
+    
+    @Test
+    public void throwConsumerFailureWhenClosed()
+    throws Exception
+    {
+        List<PackerOutputMessage> consumed = synchronizedList(
+            new ArrayList<>());
+        PackerOutputPipeline pipeline = new PackerOutputPipeline(
+            batch -> {
+                consumed.addAll(batch);
+                throw SOME_EXCEPTION;
+            },
+            SOME_BATCH_SIZE,
+            PackerOutputBackpressure.BLOCK,
+            SINGLE_PARTITION,
+            SOME_CAPACITY);
+        List<PackerOutputMessage> some = messages(SOME_TARGET, DATA_UI_SAY);
+        
+        for (PackerOutputMessage message : some)
+            pipeline.accept(singletonList(message));
+        Throwable exception = catchThrowable(pipeline::close);
+        
+        assertThat(exception).isSameAs(SOME_EXCEPTION);
+        assertThat(consumed).containsExactlyElementsOf(some);
+    }
+    
+    private static List<PackerOutputMessage> messages(
+        String target,
+        String uiType)
+    {
+        return IntStream.range(0, SOME_MESSAGE_COUNT)
+            .mapToObj(i -> message(target, uiType, i))
+            .collect(toList());
+    }
+    
+    private static PackerOutputMessage message(
+        String target,
+        String uiType,
+        int index)
+    {
+        return new PackerOutputMessageImpl(
+            Instant.ofEpochSecond(index),
+            target,
+            TYPE_UI,
+            new String[] {
+                uiType,
+                target + "-" + index
+            });
+    }
+    
+    private static List<PackerOutputMessage> targetMessages(
+        List<PackerOutputMessage> messages,
+        String target)
+    {
+        synchronized (messages)
+        {
+            return messages.stream()
+                .filter(message -> message.getTarget().get().equals(target))
+                .collect(toList());
+        }
+    }
+    
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException exception)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
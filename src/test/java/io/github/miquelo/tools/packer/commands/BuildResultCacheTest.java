@@ -0,0 +1,254 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.PackerOutputMessage
+    .DATA_ARTIFACT_FILE;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_SAY;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_ARTIFACT;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Files.size;
+import static java.nio.file.Files.write;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.miquelo.tools.packer.PackerOutputMessage;
+
+public class BuildResultCacheTest
+{
+    private static final String CACHE_DIR_NAME = "cache";
+    private static final String WORKING_DIR_NAME = "working";
+    
+    private static final String SOME_KEY = "0a0b0c";
+    private static final String OTHER_KEY = "0d0e0f";
+    private static final String ANY_KEY = "0f0f0f";
+    private static final String MESSAGES_FILE_NAME = "messages";
+    
+    private static final long NO_MAX_SIZE = Long.MAX_VALUE;
+    
+    private static final String SOME_TARGET = "some-builder";
+    private static final String SOME_ARTIFACT_FILE = "output-some/some.img";
+    private static final String OUTSIDE_ARTIFACT_FILE = "../outside.img";
+    private static final byte[] SOME_CONTENT = "some-content".getBytes();
+    
+    private static final PackerOutputMessage SOME_UI_MESSAGE =
+        new CachedOutputMessage(
+            Instant.ofEpochSecond(1L),
+            null,
+            TYPE_UI,
+            new String[] { DATA_UI_SAY, "Some, multiline\nmessage" });
+    
+    public BuildResultCacheTest()
+    {
+    }
+    
+    @Test
+    public void restoreStoredResult(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        Path artifact = workingDir.toPath().resolve(SOME_ARTIFACT_FILE);
+        createDirectories(artifact.getParent());
+        write(artifact, SOME_CONTENT);
+        BuildResultCache cache = new BuildResultCache(cacheDir, NO_MAX_SIZE);
+        cache.store(
+            SOME_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        delete(artifact);
+        
+        Optional<List<PackerOutputMessage>> messages = cache.restore(
+            SOME_KEY,
+            workingDir.toPath());
+        
+        assertThat(messages).isPresent();
+        assertThat(messages.get()).hasSize(2);
+        assertThat(messages.get().get(0).getData())
+            .containsExactly(SOME_UI_MESSAGE.getData());
+        assertThat(messages.get().get(1).getTarget()).contains(SOME_TARGET);
+        assertThat(readAllBytes(artifact)).isEqualTo(SOME_CONTENT);
+    }
+    
+    @Test
+    public void restoreNothingWhenKeyIsNotStored(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        BuildResultCache cache = new BuildResultCache(cacheDir, NO_MAX_SIZE);
+        
+        Optional<List<PackerOutputMessage>> messages = cache.restore(
+            OTHER_KEY,
+            workingDir.toPath());
+        
+        assertThat(messages).isEmpty();
+    }
+    
+    @Test
+    public void doNotStoreArtifactOutOfWorkingDir(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        BuildResultCache cache = new BuildResultCache(cacheDir, NO_MAX_SIZE);
+        
+        boolean stored = cache.store(
+            SOME_KEY,
+            messages(OUTSIDE_ARTIFACT_FILE),
+            workingDir.toPath());
+        
+        assertThat(stored).isFalse();
+        assertThat(cache.restore(SOME_KEY, workingDir.toPath())).isEmpty();
+    }
+    
+    @Test
+    public void restoreStoredResultWithAbsoluteArtifactFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        Path artifact = workingDir.toPath().resolve(SOME_ARTIFACT_FILE);
+        createDirectories(artifact.getParent());
+        write(artifact, SOME_CONTENT);
+        BuildResultCache cache = new BuildResultCache(cacheDir, NO_MAX_SIZE);
+        boolean stored = cache.store(
+            SOME_KEY,
+            messages(artifact.toAbsolutePath().toString()),
+            workingDir.toPath());
+        delete(artifact);
+        
+        Optional<List<PackerOutputMessage>> messages = cache.restore(
+            SOME_KEY,
+            workingDir.toPath());
+        
+        assertThat(stored).isTrue();
+        assertThat(messages).isPresent();
+        assertThat(readAllBytes(artifact)).isEqualTo(SOME_CONTENT);
+    }
+    
+    @Test
+    public void storeResultAlreadyStored(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        Path artifact = workingDir.toPath().resolve(SOME_ARTIFACT_FILE);
+        createDirectories(artifact.getParent());
+        write(artifact, SOME_CONTENT);
+        BuildResultCache cache = new BuildResultCache(cacheDir, NO_MAX_SIZE);
+        cache.store(
+            SOME_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        
+        boolean stored = cache.store(
+            SOME_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        
+        assertThat(stored).isTrue();
+        assertThat(cache.restore(SOME_KEY, workingDir.toPath())).isPresent();
+    }
+    
+    @Test
+    public void evictLeastRecentlyUsedResult(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        Path artifact = workingDir.toPath().resolve(SOME_ARTIFACT_FILE);
+        createDirectories(artifact.getParent());
+        write(artifact, SOME_CONTENT);
+        BuildResultCache unbounded = new BuildResultCache(
+            cacheDir,
+            NO_MAX_SIZE);
+        unbounded.store(
+            SOME_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        unbounded.store(
+            OTHER_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        Path otherMessagesFile = cacheDir.toPath()
+            .resolve(OTHER_KEY)
+            .resolve(MESSAGES_FILE_NAME);
+        setLastModifiedTime(otherMessagesFile, FileTime.fromMillis(0L));
+        BuildResultCache cache = new BuildResultCache(
+            cacheDir,
+            (size(otherMessagesFile) + SOME_CONTENT.length) * 2);
+        
+        boolean stored = cache.store(
+            ANY_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        
+        assertThat(stored).isTrue();
+        assertThat(exists(cacheDir.toPath().resolve(OTHER_KEY))).isFalse();
+        assertThat(exists(cacheDir.toPath().resolve(SOME_KEY))).isTrue();
+        assertThat(cache.restore(ANY_KEY, workingDir.toPath())).isPresent();
+    }
+    
+    @Test
+    public void doNotStoreResultBiggerThanCache(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File cacheDir = new File(dir, CACHE_DIR_NAME);
+        File workingDir = new File(dir, WORKING_DIR_NAME);
+        Path artifact = workingDir.toPath().resolve(SOME_ARTIFACT_FILE);
+        createDirectories(artifact.getParent());
+        write(artifact, SOME_CONTENT);
+        BuildResultCache cache = new BuildResultCache(
+            cacheDir,
+            SOME_CONTENT.length - 1L);
+        
+        boolean stored = cache.store(
+            SOME_KEY,
+            messages(SOME_ARTIFACT_FILE),
+            workingDir.toPath());
+        
+        assertThat(stored).isFalse();
+        assertThat(cache.restore(SOME_KEY, workingDir.toPath())).isEmpty();
+    }
+    
+    private static List<PackerOutputMessage> messages(String artifactFile)
+    {
+        return Stream.of(
+            SOME_UI_MESSAGE,
+            new CachedOutputMessage(
+                Instant.ofEpochSecond(2L),
+                SOME_TARGET,
+                TYPE_ARTIFACT,
+                new String[] { "0", DATA_ARTIFACT_FILE, "0", artifactFile }))
+            .collect(toList());
+    }
+}
@@ -0,0 +1,283 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .GIT_BLOB;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .withNonCryptographic;
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy
+    .SAMPLED;
+import static java.nio.file.Files.write;
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static javax.xml.bind.DatatypeConverter.printHexBinary;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.miquelo.tools.packer.TimeoutHandler;
+
+public class ChecksumCalculatorTest
+{
+    private static final String SOME_ALGORITHM = "SHA-256";
+    
+    private static final int SINGLE_THREAD = 1;
+    private static final int SOME_THREADS = 4;
+    
+    private static final long SOME_CHUNK_SIZE = 16L;
+    
+    private static final int LARGE_SIZE = 9 * 1024 * 1024 + 7;
+    private static final long SOME_SEED = 42L;
+    
+    private static final byte[] SMALL_CONTENT = "small".getBytes();
+    private static final byte[] LARGE_CONTENT =
+        "large-content-spanning-several-chunks".getBytes();
+    
+    private static final int SAMPLED_SIZE = 2 * 1024 * 1024;
+    private static final int UNSAMPLED_POSITION = 64 * 1024 + 1;
+    
+    private static final byte[] BLOB_CONTENT = "hello\n".getBytes();
+    private static final String BLOB_OBJECT_ID =
+        "ce013625030ba8dba906f756967f9e9ca394464a";
+    
+    public ChecksumCalculatorTest()
+    {
+    }
+    
+    @Test
+    public void hashSmallFileAsAWhole(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("small"), SMALL_CONTENT);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD,
+            SOME_CHUNK_SIZE);
+        
+        List<byte[]> hashes = calculator.calculate(singletonList(path));
+        
+        assertThat(hashes).containsExactly(
+            MessageDigest.getInstance(SOME_ALGORITHM).digest(SMALL_CONTENT));
+    }
+    
+    @Test
+    public void hashLargeFileAsAWhole(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        byte[] content = new byte[LARGE_SIZE];
+        new Random(SOME_SEED).nextBytes(content);
+        Path path = write(inputDir.toPath().resolve("large"), content);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD);
+        
+        List<byte[]> hashes = calculator.calculate(singletonList(path));
+        
+        assertThat(hashes).containsExactly(
+            MessageDigest.getInstance(SOME_ALGORITHM).digest(content));
+    }
+    
+    @Test
+    public void hashLargeFileByChunks(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("large"), LARGE_CONTENT);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD,
+            SOME_CHUNK_SIZE);
+        
+        List<byte[]> hashes = calculator.calculate(singletonList(path));
+        
+        MessageDigest digest = MessageDigest.getInstance(SOME_ALGORITHM);
+        for (int i = 0; i < LARGE_CONTENT.length; i += SOME_CHUNK_SIZE)
+            digest.update(MessageDigest.getInstance(SOME_ALGORITHM).digest(
+                copyOfRange(LARGE_CONTENT, i, SOME_CHUNK_SIZE)));
+        assertThat(hashes).containsExactly(digest.digest());
+    }
+    
+    @Test
+    public void hashGitBlobAsAWhole(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("blob"), BLOB_CONTENT);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            withNonCryptographic(MessageDigest::getInstance),
+            GIT_BLOB,
+            SINGLE_THREAD,
+            1L);
+        
+        List<byte[]> hashes = calculator.calculate(singletonList(path));
+        
+        assertThat(printHexBinary(hashes.get(0)).toLowerCase())
+            .isEqualTo(BLOB_OBJECT_ID);
+    }
+    
+    @Test
+    public void hashContentAsItsFile(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("large"), LARGE_CONTENT);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD,
+            SOME_CHUNK_SIZE);
+        
+        byte[] hash = calculator.contentHash(LARGE_CONTENT);
+        
+        assertThat(hash).isEqualTo(
+            calculator.calculate(singletonList(path)).get(0));
+    }
+    
+    @Test
+    public void hashGitBlobContentAsAWhole()
+    {
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            withNonCryptographic(MessageDigest::getInstance),
+            GIT_BLOB,
+            SINGLE_THREAD,
+            1L);
+        
+        byte[] hash = calculator.contentHash(BLOB_CONTENT);
+        
+        assertThat(printHexBinary(hash).toLowerCase())
+            .isEqualTo(BLOB_OBJECT_ID);
+    }
+    
+    @Test
+    public void hashSampledFileSkippingUnsampledBlocks(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        byte[] content = new byte[SAMPLED_SIZE];
+        new Random(SOME_SEED).nextBytes(content);
+        Path somePath = write(inputDir.toPath().resolve("some"), content);
+        content[UNSAMPLED_POSITION] ^= 1;
+        Path otherPath = write(inputDir.toPath().resolve("other"), content);
+        content[0] ^= 1;
+        Path headPath = write(inputDir.toPath().resolve("head"), content);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD);
+        
+        List<byte[]> hashes = calculator.calculate(
+            Arrays.asList(somePath, otherPath, headPath),
+            nCopies(3, SAMPLED),
+            (index, hash) -> true);
+        
+        assertThat(hashes.get(1)).isEqualTo(hashes.get(0));
+        assertThat(hashes.get(2)).isNotEqualTo(hashes.get(0));
+    }
+    
+    @Test
+    public void abortWhenTimedOut(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("small"), SMALL_CONTENT);
+        TimeoutHandler timeoutHandler = mock(TimeoutHandler.class);
+        when(timeoutHandler.checkIt()).thenThrow(new TimeoutException());
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD);
+        
+        Throwable thrown = catchThrowable(() -> calculator.calculate(
+            singletonList(path),
+            singletonList(FingerprintStrategy.FULL),
+            Optional.of(timeoutHandler),
+            (index, hash) -> true));
+        
+        assertThat(thrown)
+            .isInstanceOf(UncheckedTimeoutException.class)
+            .hasCauseInstanceOf(TimeoutException.class);
+    }
+    
+    @Test
+    public void abortWhenInterrupted(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path path = write(inputDir.toPath().resolve("small"), SMALL_CONTENT);
+        ChecksumCalculator calculator = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD);
+        Thread.currentThread().interrupt();
+        
+        Throwable thrown = catchThrowable(() -> calculator.calculate(
+            singletonList(path)));
+        
+        assertThat(Thread.interrupted()).isTrue();
+        assertThat(thrown).isInstanceOf(CancellationException.class);
+    }
+    
+    @Test
+    public void sameResultRegardlessOfThreads(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        List<Path> paths = IntStream.range(0, 32)
+            .mapToObj(i -> inputDir.toPath().resolve("file-" + i))
+            .collect(toList());
+        for (int i = 0; i < paths.size(); ++i)
+            write(paths.get(i), copyOfRange(LARGE_CONTENT, 0, i + 1));
+        
+        List<byte[]> sequential = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SINGLE_THREAD,
+            SOME_CHUNK_SIZE)
+            .calculate(paths);
+        List<byte[]> parallel = new ChecksumCalculator(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            SOME_THREADS,
+            SOME_CHUNK_SIZE)
+            .calculate(paths);
+        
+        assertThat(parallel).containsExactlyElementsOf(sequential);
+    }
+    
+    private static byte[] copyOfRange(byte[] bytes, int from, long length)
+    {
+        return Arrays.copyOfRange(
+            bytes,
+            from,
+            (int) Math.min(bytes.length, from + length));
+    }
+}
@@ -0,0 +1,287 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.ChecksumManifest
+    .PATH_ORDER;
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy
+    .METADATA;
+import static java.nio.file.Files.createLink;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.write;
+import static java.util.Collections.singletonList;
+import static java.util.Comparator.comparing;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChecksumComparisonTest
+{
+    private static final String MANIFEST_FILE_NAME = ".checksum";
+    private static final String SOME_ALGORITHM = "SHA-256";
+    private static final String SOME_BUILD_PARAMETERS = "packer 1.0.0";
+    
+    private static final String SOME_FILE_NAME = "some-file";
+    private static final String OTHER_FILE_NAME = "other-file";
+    private static final byte[] SOME_HASH = new byte[32];
+    private static final byte[] CONTENT = "some-content".getBytes();
+    private static final byte[] OTHER_CONTENT = "other-content".getBytes();
+    
+    private static final FileMetadata SOME_METADATA = new FileMetadata(
+        10L,
+        100L,
+        null);
+    private static final FileMetadata RESIZED_METADATA = new FileMetadata(
+        20L,
+        200L,
+        null);
+    
+    private final AtomicInteger digestCount;
+    
+    public ChecksumComparisonTest()
+    {
+        digestCount = new AtomicInteger();
+    }
+    
+    @Test
+    public void changedWithoutHashingWhenSomeFileHasBeenResized(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<ChecksumManifest> previous = manifest(dir, SOME_FILE_NAME);
+        
+        ChecksumComparison comparison = ChecksumComparison.compare(
+            calculator(),
+            new FileHashCache(FileHashCache.DEFAULT_CAPACITY),
+            false,
+            files(dir, SOME_FILE_NAME, RESIZED_METADATA),
+            previous);
+        
+        assertThat(comparison.isContentChanged()).isTrue();
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void changedWithoutHashingWhenSomeFileHasBeenAdded(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<ChecksumManifest> previous = manifest(dir, SOME_FILE_NAME);
+        SortedMap<Path, FileMetadata> files = files(
+            dir,
+            SOME_FILE_NAME,
+            SOME_METADATA);
+        files.put(dir.toPath().resolve(OTHER_FILE_NAME), SOME_METADATA);
+        
+        ChecksumComparison comparison = ChecksumComparison.compare(
+            calculator(),
+            new FileHashCache(FileHashCache.DEFAULT_CAPACITY),
+            false,
+            files,
+            previous);
+        
+        assertThat(comparison.isContentChanged()).isTrue();
+        assertThat(comparison.isMetadataChanged()).isFalse();
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void unchangedWhenMetadataIsTheSame(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<ChecksumManifest> previous = manifest(dir, SOME_FILE_NAME);
+        
+        ChecksumComparison comparison = ChecksumComparison.compare(
+            calculator(),
+            new FileHashCache(FileHashCache.DEFAULT_CAPACITY),
+            false,
+            files(dir, SOME_FILE_NAME, SOME_METADATA),
+            previous);
+        
+        assertThat(comparison.isContentChanged()).isFalse();
+        assertThat(comparison.complete().get().get(0).getHash())
+            .isEqualTo(SOME_HASH);
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void changedWhenStrategyHasChanged(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<ChecksumManifest> previous = manifest(dir, SOME_FILE_NAME);
+        
+        ChecksumComparison comparison = ChecksumComparison.compare(
+            calculator(),
+            new FileHashCache(FileHashCache.DEFAULT_CAPACITY),
+            false,
+            files(dir, SOME_FILE_NAME, SOME_METADATA),
+            path -> METADATA,
+            previous,
+            Optional.empty());
+        
+        assertThat(comparison.isContentChanged()).isTrue();
+        assertThat(comparison.isMetadataChanged()).isTrue();
+        assertThat(comparison.complete().get().get(0).getStrategy())
+            .isEqualTo(METADATA);
+    }
+    
+    @Test
+    public void hashHardLinkedFilesOnce(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path someFile = write(dir.toPath().resolve(SOME_FILE_NAME), CONTENT);
+        Path otherFile = createLink(
+            dir.toPath().resolve(OTHER_FILE_NAME),
+            someFile);
+        
+        List<ChecksumEntry> checksum = ChecksumComparison.compare(
+            calculator(),
+            new FileHashCache(FileHashCache.DEFAULT_CAPACITY),
+            false,
+            actualFiles(someFile, otherFile),
+            Optional.empty())
+            .complete()
+            .get();
+        
+        assertThat(checksum.get(0).getHash())
+            .isEqualTo(checksum.get(1).getHash());
+        assertThat(digestCount.get()).isOne();
+    }
+    
+    @Test
+    public void reuseHashesCachedBySomeOtherComparison(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path someFile = write(dir.toPath().resolve(SOME_FILE_NAME), CONTENT);
+        FileHashCache cache = new FileHashCache(
+            FileHashCache.DEFAULT_CAPACITY);
+        ChecksumComparison.compare(
+            calculator(),
+            cache,
+            false,
+            actualFiles(someFile),
+            Optional.empty())
+            .complete();
+        digestCount.set(0);
+        
+        ChecksumComparison.compare(
+            calculator(),
+            cache,
+            false,
+            actualFiles(someFile),
+            Optional.empty())
+            .complete();
+        
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void invalidateFilesModifiedBeforeSnapshotIsComplete(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path someFile = write(dir.toPath().resolve(SOME_FILE_NAME), CONTENT);
+        Path otherFile = write(dir.toPath().resolve(OTHER_FILE_NAME), CONTENT);
+        FileHashCache cache = new FileHashCache(
+            FileHashCache.DEFAULT_CAPACITY);
+        ChecksumComparison comparison = ChecksumComparison.compare(
+            calculator(),
+            cache,
+            false,
+            actualFiles(someFile, otherFile),
+            Optional.empty());
+        write(someFile, OTHER_CONTENT);
+        
+        List<ChecksumEntry> checksum = comparison.completeSnapshot().get();
+        
+        ChecksumEntry someEntry = checksum.stream()
+            .filter(entry -> entry.getPath().equals(someFile.toString()))
+            .findAny()
+            .get();
+        ChecksumEntry otherEntry = checksum.stream()
+            .filter(entry -> entry.getPath().equals(otherFile.toString()))
+            .findAny()
+            .get();
+        assertThat(someEntry.getHash()).containsOnly(0);
+        assertThat(otherEntry.getHash()).isEqualTo(MessageDigest.getInstance(
+            SOME_ALGORITHM).digest(CONTENT));
+        assertThat(cache.get(
+            SOME_ALGORITHM,
+            someFile,
+            actualFiles(someFile).get(someFile))).isEmpty();
+    }
+    
+    private ChecksumCalculator calculator()
+    {
+        return new ChecksumCalculator(this::digestCreate, SOME_ALGORITHM, 1);
+    }
+    
+    private MessageDigest digestCreate(String algorithm)
+    throws NoSuchAlgorithmException
+    {
+        digestCount.incrementAndGet();
+        return MessageDigest.getInstance(algorithm);
+    }
+    
+    private static Optional<ChecksumManifest> manifest(File dir, String name)
+    throws Exception
+    {
+        File file = new File(dir, MANIFEST_FILE_NAME);
+        List<ChecksumEntry> entries = singletonList(new ChecksumEntry(
+            SOME_HASH,
+            dir.toPath().resolve(name).toString(),
+            SOME_METADATA));
+        ChecksumManifest.write(
+            file,
+            SOME_ALGORITHM,
+            SOME_BUILD_PARAMETERS,
+            entries);
+        return ChecksumManifest.read(file, SOME_ALGORITHM);
+    }
+    
+    private static SortedMap<Path, FileMetadata> actualFiles(Path... paths)
+    throws Exception
+    {
+        SortedMap<Path, FileMetadata> files = new TreeMap<>(comparing(
+            Path::toString,
+            PATH_ORDER));
+        for (Path path : paths)
+            files.put(path, FileMetadata.of(readAttributes(
+                path,
+                BasicFileAttributes.class)));
+        return files;
+    }
+    
+    private static SortedMap<Path, FileMetadata> files(
+        File dir,
+        String name,
+        FileMetadata metadata)
+    {
+        SortedMap<Path, FileMetadata> files = new TreeMap<>(comparing(
+            Path::toString,
+            PATH_ORDER));
+        files.put(dir.toPath().resolve(name), metadata);
+        return files;
+    }
+}
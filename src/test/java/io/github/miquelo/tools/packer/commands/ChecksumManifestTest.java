@@ -0,0 +1,152 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.copyOf;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChecksumManifestTest
+{
+    private static final String MANIFEST_FILE_NAME = ".checksum";
+    
+    private static final String SOME_ALGORITHM = "SOME-ALGORITHM";
+    private static final String OTHER_ALGORITHM = "OTHER-ALGORITHM";
+    
+    private static final String SOME_BUILD_PARAMETERS = "packer 1.0.0\n-force";
+    
+    private static final byte[] LEGACY_CONTENT =
+        "0A0B some/path\n".getBytes();
+    
+    private static final ChecksumEntry FIRST_ENTRY = new ChecksumEntry(
+        new byte[] { 1, 2, 3, 4 },
+        "a/first file",
+        new FileMetadata(10L, 100L, "(dev=1,ino=1)"));
+    private static final ChecksumEntry SECOND_ENTRY = new ChecksumEntry(
+        new byte[] { 5, 6, 7, 8 },
+        "b/second-file",
+        new FileMetadata(20L, 200L, null));
+    private static final ChecksumEntry THIRD_ENTRY = new ChecksumEntry(
+        new byte[] { 9, 10, 11, 12 },
+        "b/é-third-file",
+        new FileMetadata(30L, 300L, "(dev=1,ino=3)"));
+    
+    private static final String MISSING_PATH = "b/missing";
+    
+    public ChecksumManifestTest()
+    {
+    }
+    
+    @Test
+    public void findWrittenEntries(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(dir, MANIFEST_FILE_NAME);
+        ChecksumManifest.write(
+            file,
+            SOME_ALGORITHM,
+            SOME_BUILD_PARAMETERS,
+            Stream.of(THIRD_ENTRY, FIRST_ENTRY, SECOND_ENTRY)
+                .collect(toList()));
+        
+        ChecksumManifest manifest = ChecksumManifest.read(
+            file,
+            SOME_ALGORITHM)
+            .get();
+        
+        assertThat(manifest.getBuildParameters())
+            .isEqualTo(SOME_BUILD_PARAMETERS);
+        assertThat(manifest.size()).isEqualTo(3);
+        Stream.of(FIRST_ENTRY, SECOND_ENTRY, THIRD_ENTRY).forEach(entry -> {
+            int index = manifest.find(entry.getPath());
+            assertThat(index).isNotNegative();
+            assertThat(manifest.path(index)).isEqualTo(entry.getPath());
+            assertThat(manifest.hashEquals(index, entry.getHash())).isTrue();
+            assertThat(manifest.metadataEquals(index, entry.getMetadata()))
+                .isTrue();
+        });
+        assertThat(manifest.find(MISSING_PATH)).isNegative();
+    }
+    
+    @Test
+    public void ignoreManifestOfOtherAlgorithm(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(dir, MANIFEST_FILE_NAME);
+        ChecksumManifest.write(
+            file,
+            SOME_ALGORITHM,
+            SOME_BUILD_PARAMETERS,
+            Stream.of(FIRST_ENTRY)
+                .collect(toList()));
+        
+        Optional<ChecksumManifest> manifest = ChecksumManifest.read(
+            file,
+            OTHER_ALGORITHM);
+        
+        assertThat(manifest).isEmpty();
+    }
+    
+    @Test
+    public void ignoreLegacyManifest(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(dir, MANIFEST_FILE_NAME);
+        write(file.toPath(), LEGACY_CONTENT);
+        
+        Optional<ChecksumManifest> manifest = ChecksumManifest.read(
+            file,
+            SOME_ALGORITHM);
+        
+        assertThat(manifest).isEmpty();
+    }
+    
+    @Test
+    public void ignoreTruncatedManifest(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(dir, MANIFEST_FILE_NAME);
+        ChecksumManifest.write(
+            file,
+            SOME_ALGORITHM,
+            SOME_BUILD_PARAMETERS,
+            Stream.of(FIRST_ENTRY, SECOND_ENTRY, THIRD_ENTRY)
+                .collect(toList()));
+        byte[] content = readAllBytes(file.toPath());
+        write(file.toPath(), copyOf(content, content.length - 1));
+        
+        Optional<ChecksumManifest> manifest = ChecksumManifest.read(
+            file,
+            SOME_ALGORITHM);
+        
+        assertThat(manifest).isEmpty();
+    }
+    
+    @Test
+    public void ignoreMissingManifest(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<ChecksumManifest> manifest = ChecksumManifest.read(
+            new File(dir, MANIFEST_FILE_NAME),
+            SOME_ALGORITHM);
+        
+        assertThat(manifest).isEmpty();
+    }
+}
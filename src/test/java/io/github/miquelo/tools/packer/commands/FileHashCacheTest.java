@@ -0,0 +1,138 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileHashCacheTest
+{
+    private static final String CACHE_FILE_NAME = "fingerprints";
+    private static final String SOME_ALGORITHM = "SOME-ALGORITHM";
+    
+    private static final Path SOME_PATH = Paths.get("/some/file");
+    private static final Path OTHER_PATH = Paths.get("/other/file");
+    
+    private static final FileMetadata SOME_METADATA = new FileMetadata(
+        10L,
+        100L,
+        "(dev=1,ino=1)");
+    private static final FileMetadata OTHER_METADATA = new FileMetadata(
+        20L,
+        200L,
+        "(dev=1,ino=2)");
+    private static final FileMetadata KEYLESS_METADATA = new FileMetadata(
+        10L,
+        100L,
+        null);
+    
+    private static final byte[] SOME_HASH = { 1, 2, 3, 4 };
+    private static final byte[] OTHER_HASH = { 5, 6, 7, 8 };
+    
+    public FileHashCacheTest()
+    {
+    }
+    
+    @Test
+    public void shareHashOfSameFileKey()
+    {
+        FileHashCache cache = new FileHashCache(2);
+        cache.put(SOME_ALGORITHM, SOME_PATH, SOME_METADATA, SOME_HASH);
+        
+        assertThat(cache.get(SOME_ALGORITHM, OTHER_PATH, SOME_METADATA))
+            .contains(SOME_HASH);
+    }
+    
+    @Test
+    public void doNotShareHashOfOtherPathWithoutFileKey()
+    {
+        FileHashCache cache = new FileHashCache(2);
+        cache.put(SOME_ALGORITHM, SOME_PATH, KEYLESS_METADATA, SOME_HASH);
+        
+        assertThat(cache.get(SOME_ALGORITHM, OTHER_PATH, KEYLESS_METADATA))
+            .isEmpty();
+    }
+    
+    @Test
+    public void evictLeastRecentlyUsedHash()
+    {
+        FileHashCache cache = new FileHashCache(2);
+        cache.put(SOME_ALGORITHM, SOME_PATH, SOME_METADATA, SOME_HASH);
+        cache.put(SOME_ALGORITHM, OTHER_PATH, OTHER_METADATA, OTHER_HASH);
+        cache.get(SOME_ALGORITHM, SOME_PATH, SOME_METADATA);
+        
+        cache.put(SOME_ALGORITHM, SOME_PATH, KEYLESS_METADATA, SOME_HASH);
+        
+        assertThat(cache.get(SOME_ALGORITHM, SOME_PATH, SOME_METADATA))
+            .isPresent();
+        assertThat(cache.get(SOME_ALGORITHM, OTHER_PATH, OTHER_METADATA))
+            .isEmpty();
+    }
+    
+    @Test
+    public void loadSavedHashes(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(new File(dir, "nested"), CACHE_FILE_NAME);
+        FileHashCache savedCache = new FileHashCache(2);
+        savedCache.put(SOME_ALGORITHM, SOME_PATH, SOME_METADATA, SOME_HASH);
+        savedCache.save(file);
+        FileHashCache cache = new FileHashCache(2);
+        
+        cache.load(file);
+        
+        assertThat(cache.get(SOME_ALGORITHM, SOME_PATH, SOME_METADATA))
+            .contains(SOME_HASH);
+    }
+    
+    @Test
+    public void doNotLoadHashOfOtherPathWithSameFileKey(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File file = new File(dir, CACHE_FILE_NAME);
+        FileHashCache savedCache = new FileHashCache(2);
+        savedCache.put(SOME_ALGORITHM, SOME_PATH, SOME_METADATA, SOME_HASH);
+        savedCache.save(file);
+        FileHashCache cache = new FileHashCache(2);
+        
+        cache.load(file);
+        
+        assertThat(cache.get(SOME_ALGORITHM, OTHER_PATH, SOME_METADATA))
+            .isEmpty();
+    }
+    
+    @Test
+    public void keepHashesOfEnsuredCapacity()
+    {
+        FileHashCache cache = new FileHashCache(1);
+        cache.capacityEnsure(2);
+        
+        cache.put(SOME_ALGORITHM, SOME_PATH, SOME_METADATA, SOME_HASH);
+        cache.put(SOME_ALGORITHM, OTHER_PATH, OTHER_METADATA, OTHER_HASH);
+        
+        assertThat(cache.get(SOME_ALGORITHM, SOME_PATH, SOME_METADATA))
+            .contains(SOME_HASH);
+    }
+    
+    @Test
+    public void loadNothingFromMissingFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        FileHashCache cache = new FileHashCache(2);
+        
+        cache.load(new File(dir, CACHE_FILE_NAME));
+        
+        assertThat(cache.get(SOME_ALGORITHM, SOME_PATH, SOME_METADATA))
+            .isEmpty();
+    }
+}
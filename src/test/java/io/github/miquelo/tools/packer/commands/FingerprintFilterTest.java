@@ -0,0 +1,170 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy.FULL;
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy
+    .METADATA;
+import static io.github.miquelo.tools.packer.commands.FingerprintStrategy
+    .SAMPLED;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class FingerprintFilterTest
+{
+    private static final Path BASE_DIR = Paths.get("/some/input");
+    
+    public FingerprintFilterTest()
+    {
+    }
+    
+    @Test
+    public void rejectNestedDirectoryMatchingNameGlob()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            singleton("output-*"));
+        
+        boolean accepted = filter.acceptsDirectory(BASE_DIR.resolve(
+            "nested/output-qemu"));
+        
+        assertThat(accepted).isFalse();
+    }
+    
+    @Test
+    public void acceptFileMatchingDirectoryOnlyExclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            singleton("output-*/"));
+        
+        boolean accepted = filter.acceptsFile(BASE_DIR.resolve(
+            "scripts/output-x.sh"));
+        
+        assertThat(accepted).isTrue();
+    }
+    
+    @Test
+    public void rejectFileInDirectoryMatchingDirectoryOnlyExclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            singleton("output-*/"));
+        
+        boolean accepted = filter.acceptsFile(BASE_DIR.resolve(
+            "output-qemu/some.qcow2"));
+        
+        assertThat(accepted).isFalse();
+    }
+    
+    @Test
+    public void rejectDirectoryMatchingDirectoryOnlyExclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            singleton("output-*/"));
+        
+        boolean accepted = filter.acceptsDirectory(BASE_DIR.resolve(
+            "nested/output-qemu"));
+        
+        assertThat(accepted).isFalse();
+    }
+    
+    @Test
+    public void acceptBaseDirectory()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            singleton("*"));
+        
+        boolean accepted = filter.acceptsDirectory(BASE_DIR);
+        
+        assertThat(accepted).isTrue();
+    }
+    
+    @Test
+    public void rejectFileNotMatchingPathInclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            singleton("scripts/**"),
+            emptySet());
+        
+        boolean accepted = filter.acceptsFile(BASE_DIR.resolve("README.md"));
+        
+        assertThat(accepted).isFalse();
+    }
+    
+    @Test
+    public void acceptFileMatchingPathInclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            singleton("scripts/**"),
+            singleton("*.log"));
+        
+        boolean accepted = filter.acceptsFile(BASE_DIR.resolve(
+            "scripts/setup/some.sh"));
+        
+        assertThat(accepted).isTrue();
+    }
+    
+    @Test
+    public void rejectFileMatchingNameExclude()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            singleton("scripts/**"),
+            singleton("*.log"));
+        
+        boolean accepted = filter.acceptsFile(BASE_DIR.resolve(
+            "scripts/setup/some.log"));
+        
+        assertThat(accepted).isFalse();
+    }
+    
+    @Test
+    public void takeMostThoroughMatchingStrategy()
+    {
+        Map<String, FingerprintStrategy> strategies = new HashMap<>();
+        strategies.put("*.iso", METADATA);
+        strategies.put("images/**", SAMPLED);
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            emptySet(),
+            strategies);
+        
+        FingerprintStrategy strategy = filter.strategy(BASE_DIR.resolve(
+            "images/some.iso"));
+        
+        assertThat(strategy).isEqualTo(SAMPLED);
+    }
+    
+    @Test
+    public void takeFullStrategyWhenNoGlobMatches()
+    {
+        FingerprintFilter filter = new FingerprintFilter(
+            BASE_DIR,
+            emptySet(),
+            emptySet(),
+            singletonMap("*.iso", METADATA));
+        
+        FingerprintStrategy strategy = filter.strategy(BASE_DIR.resolve(
+            "scripts/setup/some.sh"));
+        
+        assertThat(strategy).isEqualTo(FULL);
+    }
+}
@@ -0,0 +1,231 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Files.write;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GitIndexTest
+{
+    private static final String GIT_DIR_NAME = ".git";
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String CONFIG_FILE_NAME = "config";
+    
+    private static final byte[] SHA256_CONFIG = (
+        "[core]\n"
+        + "\trepositoryformatversion = 1\n"
+        + "[extensions]\n"
+        + "\tobjectFormat = sha256\n").getBytes();
+    
+    private static final String SOME_DIR_NAME = "src";
+    private static final String SOME_FILE_NAME = "some-file";
+    private static final byte[] SOME_CONTENT = "hello\n".getBytes();
+    
+    private static final long PAST_SECONDS = 1000000000L;
+    private static final long LATER_SECONDS = PAST_SECONDS + 60L;
+    
+    private static final byte[] SOME_OBJECT_ID = new byte[] {
+        (byte) 0xce, (byte) 0x01, (byte) 0x36, (byte) 0x25, (byte) 0x03,
+        (byte) 0x0b, (byte) 0xa8, (byte) 0xdb, (byte) 0xa9, (byte) 0x06,
+        (byte) 0xf7, (byte) 0x56, (byte) 0x96, (byte) 0x7f, (byte) 0x9e,
+        (byte) 0x9c, (byte) 0xa3, (byte) 0x94, (byte) 0x46, (byte) 0x4a
+    };
+    
+    private static final int REGULAR_FILE_MODE = 0100644;
+    
+    private static final long SAME_INODE = 0L;
+    private static final long OTHER_INODE = 1L;
+    
+    public GitIndexTest()
+    {
+    }
+    
+    @Test
+    public void objectIdOfCleanFile(
+        @TempDir
+        File workTree)
+    throws Exception
+    {
+        Path file = trackedFile(workTree, PAST_SECONDS, LATER_SECONDS);
+        
+        Optional<byte[]> objectId = GitIndex.of(file.getParent())
+            .get()
+            .objectId(file, metadata(PAST_SECONDS));
+        
+        assertThat(objectId).contains(SOME_OBJECT_ID);
+    }
+    
+    @Test
+    public void noObjectIdOfModifiedFile(
+        @TempDir
+        File workTree)
+    throws Exception
+    {
+        Path file = trackedFile(workTree, PAST_SECONDS, LATER_SECONDS);
+        
+        Optional<byte[]> objectId = GitIndex.of(file.getParent())
+            .get()
+            .objectId(file, metadata(PAST_SECONDS + 1L));
+        
+        assertThat(objectId).isEmpty();
+    }
+    
+    @Test
+    public void noObjectIdOfRacilyCleanFile(
+        @TempDir
+        File workTree)
+    throws Exception
+    {
+        Path file = trackedFile(workTree, PAST_SECONDS, PAST_SECONDS);
+        
+        Optional<byte[]> objectId = GitIndex.of(file.getParent())
+            .get()
+            .objectId(file, metadata(PAST_SECONDS));
+        
+        assertThat(objectId).isEmpty();
+    }
+    
+    @Test
+    public void noObjectIdOfFileWithOtherInode(
+        @TempDir
+        File workTree)
+    throws Exception
+    {
+        Path file = trackedFile(
+            workTree,
+            PAST_SECONDS,
+            LATER_SECONDS,
+            OTHER_INODE);
+        
+        Optional<byte[]> objectId = GitIndex.of(file.getParent())
+            .get()
+            .objectId(file, metadata(PAST_SECONDS));
+        
+        assertThat(objectId).isEmpty();
+    }
+    
+    @Test
+    public void noIndexOfSha256Repository(
+        @TempDir
+        File workTree)
+    throws Exception
+    {
+        Path file = trackedFile(workTree, PAST_SECONDS, LATER_SECONDS);
+        write(
+            workTree.toPath().resolve(GIT_DIR_NAME).resolve(CONFIG_FILE_NAME),
+            SHA256_CONFIG);
+        
+        Optional<GitIndex> gitIndex = GitIndex.of(file.getParent());
+        
+        assertThat(gitIndex).isEmpty();
+    }
+    
+    @Test
+    public void noIndexOutOfWorkTree(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<GitIndex> gitIndex = GitIndex.of(dir.toPath());
+        
+        assertThat(gitIndex).isEmpty();
+    }
+    
+    private static Path trackedFile(
+        File workTree,
+        long modifiedSeconds,
+        long indexModifiedSeconds)
+    throws Exception
+    {
+        return trackedFile(
+            workTree,
+            modifiedSeconds,
+            indexModifiedSeconds,
+            SAME_INODE);
+    }
+    
+    private static Path trackedFile(
+        File workTree,
+        long modifiedSeconds,
+        long indexModifiedSeconds,
+        long inodeOffset)
+    throws Exception
+    {
+        Path dir = createDirectory(workTree.toPath().resolve(SOME_DIR_NAME));
+        Path file = write(dir.resolve(SOME_FILE_NAME), SOME_CONTENT);
+        Path gitDir = createDirectory(workTree.toPath().resolve(
+            GIT_DIR_NAME));
+        Path indexFile = write(
+            gitDir.resolve(INDEX_FILE_NAME),
+            index(
+                SOME_DIR_NAME + "/" + SOME_FILE_NAME,
+                modifiedSeconds,
+                readAttributes(file, "unix:ctime,ino,dev"),
+                inodeOffset));
+        setLastModifiedTime(indexFile, FileTime.from(
+            indexModifiedSeconds,
+            SECONDS));
+        return file;
+    }
+    
+    private static FileMetadata metadata(long modifiedSeconds)
+    {
+        return new FileMetadata(
+            SOME_CONTENT.length,
+            SECONDS.toNanos(modifiedSeconds),
+            null);
+    }
+    
+    private static byte[] index(
+        String name,
+        long modifiedSeconds,
+        Map<String, Object> unixAttributes,
+        long inodeOffset)
+    throws Exception
+    {
+        long changed = ((FileTime) unixAttributes.get("ctime")).to(
+            NANOSECONDS);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x44495243);
+        output.writeInt(2);
+        output.writeInt(1);
+        
+        byte[] nameBytes = name.getBytes(UTF_8);
+        output.writeInt((int) SECONDS.convert(changed, NANOSECONDS));
+        output.writeInt((int) (changed % SECONDS.toNanos(1L)));
+        output.writeInt((int) modifiedSeconds);
+        output.writeInt(0);
+        output.writeInt(((Number) unixAttributes.get("dev")).intValue());
+        output.writeInt((int) (((Number) unixAttributes.get("ino"))
+            .longValue() + inodeOffset));
+        output.writeInt(REGULAR_FILE_MODE);
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeInt(SOME_CONTENT.length);
+        output.write(SOME_OBJECT_ID);
+        output.writeShort(nameBytes.length);
+        output.write(nameBytes);
+        int length = 62 + nameBytes.length;
+        output.write(new byte[((length + 8) & ~7) - length]);
+        
+        output.write(new byte[20]);
+        output.flush();
+        return bytes.toByteArray();
+    }
+}
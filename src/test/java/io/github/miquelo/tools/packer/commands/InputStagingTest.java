@@ -0,0 +1,146 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isSameFile;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.Files.write;
+import static java.util.Collections.emptySet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InputStagingTest
+{
+    private static final String SOME_ALGORITHM = "SHA-256";
+    private static final String SOME_TARGET_PATH = "target";
+    private static final String SOME_FILE_NAME = "template.json";
+    
+    private static final String SOME_EXPRESSION = "project.version";
+    private static final String SOME_VALUE = "1.0";
+    
+    private static final byte[] SOME_CONTENT = "binary".getBytes(UTF_8);
+    private static final String SOME_TEMPLATE =
+        "version ${project.version}, ${unknown}";
+    private static final String SOME_FILTERED =
+        "version 1.0, ${unknown}";
+    
+    private static final FileTime SOME_TIME = FileTime.fromMillis(1000L);
+    
+    private static final Function<String, Optional<String>> SOME_VALUES =
+        expression -> SOME_EXPRESSION.equals(expression)
+            ? Optional.of(SOME_VALUE)
+            : Optional.empty();
+    
+    public InputStagingTest()
+    {
+    }
+    
+    @Test
+    public void linkSourceFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path sourceDir = createDirectories(dir.toPath().resolve("source"));
+        Path source = write(sourceDir.resolve(SOME_FILE_NAME), SOME_CONTENT);
+        InputStaging staging = new InputStaging(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            dir.toPath().resolve("input").toFile());
+        
+        int staged = staging.link(
+            sourceDir.toFile(),
+            SOME_TARGET_PATH,
+            emptySet(),
+            emptySet());
+        
+        assertThat(staged).isEqualTo(1);
+        assertThat(isSameFile(source, dir.toPath()
+            .resolve("input")
+            .resolve(SOME_TARGET_PATH)
+            .resolve(SOME_FILE_NAME)))
+            .isTrue();
+    }
+    
+    @Test
+    public void filterSourceFileCachingItsHash(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path sourceDir = createDirectories(dir.toPath().resolve("source"));
+        write(sourceDir.resolve(SOME_FILE_NAME), SOME_TEMPLATE.getBytes(UTF_8));
+        Path target = dir.toPath()
+            .resolve("input")
+            .resolve(SOME_TARGET_PATH)
+            .resolve(SOME_FILE_NAME);
+        InputStaging staging = new InputStaging(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            dir.toPath().resolve("input").toFile());
+        
+        staging.filter(
+            sourceDir.toFile(),
+            SOME_TARGET_PATH,
+            emptySet(),
+            emptySet(),
+            UTF_8,
+            SOME_VALUES);
+        
+        assertThat(new String(readAllBytes(target), UTF_8))
+            .isEqualTo(SOME_FILTERED);
+        assertThat(FileHashCache.session().get(
+            SOME_ALGORITHM,
+            target,
+            FileMetadata.of(readAttributes(
+                target,
+                BasicFileAttributes.class))))
+            .contains(MessageDigest.getInstance(SOME_ALGORITHM).digest(
+                SOME_FILTERED.getBytes(UTF_8)));
+    }
+    
+    @Test
+    public void keepUpToDateFilteredFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path sourceDir = createDirectories(dir.toPath().resolve("source"));
+        write(sourceDir.resolve(SOME_FILE_NAME), SOME_TEMPLATE.getBytes(UTF_8));
+        Path target = write(
+            createDirectories(dir.toPath()
+                .resolve("input")
+                .resolve(SOME_TARGET_PATH))
+                .resolve(SOME_FILE_NAME),
+            SOME_FILTERED.getBytes(UTF_8));
+        setLastModifiedTime(target, SOME_TIME);
+        InputStaging staging = new InputStaging(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM,
+            dir.toPath().resolve("input").toFile());
+        
+        int staged = staging.filter(
+            sourceDir.toFile(),
+            SOME_TARGET_PATH,
+            emptySet(),
+            emptySet(),
+            UTF_8,
+            SOME_VALUES);
+        
+        assertThat(staged).isZero();
+        assertThat(getLastModifiedTime(target)).isEqualTo(SOME_TIME);
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.write;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InputWatcherTest
+{
+    private static final long QUIET_PERIOD = 100L;
+    
+    private static final String SOME_FILE_NAME = "some-file";
+    private static final String OTHER_FILE_NAME = "other-file";
+    private static final String IGNORED_FILE_NAME = "ignored-file";
+    private static final String SOME_DIR_NAME = "some-dir";
+    private static final byte[] SOME_CONTENT = "some-content".getBytes();
+    
+    public InputWatcherTest()
+    {
+    }
+    
+    @Test
+    public void snapshotExistingFiles(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path file = dir.toPath().resolve(SOME_FILE_NAME);
+        write(file, SOME_CONTENT);
+        write(dir.toPath().resolve(IGNORED_FILE_NAME), SOME_CONTENT);
+        
+        try (InputWatcher watcher = watcher(dir))
+        {
+            assertThat(watcher.snapshot()).containsOnlyKeys(file);
+        }
+    }
+    
+    @Test
+    @Timeout(10)
+    public void reportChangedFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path file = dir.toPath().resolve(SOME_FILE_NAME);
+        try (InputWatcher watcher = watcher(dir))
+        {
+            write(dir.toPath().resolve(IGNORED_FILE_NAME), SOME_CONTENT);
+            write(file, SOME_CONTENT);
+            
+            Set<Path> changes = watcher.awaitChanges(QUIET_PERIOD);
+            
+            assertThat(changes).containsOnly(file);
+            assertThat(watcher.snapshot()).containsKey(file);
+        }
+    }
+    
+    @Test
+    @Timeout(10)
+    public void reportFileOfCreatedDirectory(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path subdir = dir.toPath().resolve(SOME_DIR_NAME);
+        Path file = subdir.resolve(SOME_FILE_NAME);
+        try (InputWatcher watcher = watcher(dir))
+        {
+            createDirectory(subdir);
+            write(file, SOME_CONTENT);
+            
+            Set<Path> changes = watcher.awaitChanges(QUIET_PERIOD);
+            
+            assertThat(changes).contains(file);
+            assertThat(watcher.snapshot()).containsKey(file);
+        }
+    }
+    
+    @Test
+    @Timeout(10)
+    public void reportRemovedFile(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path file = dir.toPath().resolve(SOME_FILE_NAME);
+        write(file, SOME_CONTENT);
+        write(dir.toPath().resolve(OTHER_FILE_NAME), SOME_CONTENT);
+        try (InputWatcher watcher = watcher(dir))
+        {
+            delete(file);
+            
+            Set<Path> changes = watcher.awaitChanges(QUIET_PERIOD);
+            
+            assertThat(changes).containsOnly(file);
+            assertThat(watcher.snapshot()).doesNotContainKey(file);
+        }
+    }
+    
+    private static InputWatcher watcher(File dir)
+    throws Exception
+    {
+        return new InputWatcher(
+            dir.toPath(),
+            path -> true,
+            path -> !path.getFileName().toString().equals(IGNORED_FILE_NAME));
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class MerkleTreeTest
+{
+    private static final String SOME_ALGORITHM = "SHA-256";
+    
+    private static final Path SOME_BASE_DIR = Paths.get("/some/input");
+    private static final Path OTHER_BASE_DIR = Paths.get("/other/input");
+    
+    private static final FileMetadata ANY_METADATA = new FileMetadata(
+        0L,
+        0L,
+        null);
+    private static final byte[] SOME_HASH = { 1, 2, 3 };
+    private static final byte[] OTHER_HASH = { 4, 5, 6 };
+    
+    public MerkleTreeTest()
+    {
+    }
+    
+    @Test
+    public void sameRootForOtherBaseDir()
+    {
+        MerkleTree tree = new MerkleTree(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM);
+        
+        byte[] someRoot = tree.root(
+            SOME_BASE_DIR,
+            entries(SOME_BASE_DIR, SOME_HASH));
+        byte[] otherRoot = tree.root(
+            OTHER_BASE_DIR,
+            entries(OTHER_BASE_DIR, SOME_HASH));
+        
+        assertThat(someRoot).isEqualTo(otherRoot);
+    }
+    
+    @Test
+    public void otherRootWhenNestedHashHasChanged()
+    {
+        MerkleTree tree = new MerkleTree(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM);
+        
+        byte[] someRoot = tree.root(
+            SOME_BASE_DIR,
+            entries(SOME_BASE_DIR, SOME_HASH));
+        byte[] otherRoot = tree.root(
+            SOME_BASE_DIR,
+            entries(SOME_BASE_DIR, OTHER_HASH));
+        
+        assertThat(someRoot).isNotEqualTo(otherRoot);
+    }
+    
+    @Test
+    public void otherRootWhenFileHasMoved()
+    {
+        MerkleTree tree = new MerkleTree(
+            MessageDigest::getInstance,
+            SOME_ALGORITHM);
+        
+        byte[] someRoot = tree.root(
+            SOME_BASE_DIR,
+            asList(entry(SOME_BASE_DIR, "a/b/file", SOME_HASH)));
+        byte[] otherRoot = tree.root(
+            SOME_BASE_DIR,
+            asList(entry(SOME_BASE_DIR, "a/file", SOME_HASH)));
+        
+        assertThat(someRoot).isNotEqualTo(otherRoot);
+    }
+    
+    private static List<ChecksumEntry> entries(Path baseDir, byte[] hash)
+    {
+        return asList(
+            entry(baseDir, "a-file", SOME_HASH),
+            entry(baseDir, "a/b/c/file", SOME_HASH),
+            entry(baseDir, "a/b/file", SOME_HASH),
+            entry(baseDir, "a/d/file", hash),
+            entry(baseDir, "file", SOME_HASH));
+    }
+    
+    private static ChecksumEntry entry(
+        Path baseDir,
+        String path,
+        byte[] hash)
+    {
+        return new ChecksumEntry(
+            hash,
+            baseDir.resolve(path).toString(),
+            ANY_METADATA);
+    }
+}
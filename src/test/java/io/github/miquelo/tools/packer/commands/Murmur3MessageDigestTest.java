@@ -0,0 +1,103 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .MURMUR3_128;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .withNonCryptographic;
+import static java.nio.ByteBuffer.allocateDirect;
+import static javax.xml.bind.DatatypeConverter.parseHexBinary;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import org.junit.jupiter.api.Test;
+
+public class Murmur3MessageDigestTest
+{
+    private static final byte[] EMPTY_INPUT = {};
+    private static final byte[] EMPTY_HASH = parseHexBinary(
+        "00000000000000000000000000000000");
+    
+    private static final byte[] SHORT_INPUT = "hello".getBytes();
+    private static final byte[] SHORT_HASH = parseHexBinary(
+        "029bbd41b3a7d8cb191dae486a901e5b");
+    
+    private static final byte[] SOME_INPUT =
+        "The quick brown fox jumps over the lazy dog".getBytes();
+    private static final byte[] SOME_HASH = parseHexBinary(
+        "6c1b07bc7bbc4be347939ac4a93c437a");
+    
+    private static final byte[] BLOCKS_INPUT =
+        "0123456789abcdef0123456789abcdefXYZ".getBytes();
+    private static final byte[] BLOCKS_HASH = parseHexBinary(
+        "c61fe5a32f543a2695a4cabb8720c227");
+    
+    public Murmur3MessageDigestTest()
+    {
+    }
+    
+    @Test
+    public void digestEmptyInput()
+    {
+        byte[] hash = new Murmur3MessageDigest().digest(EMPTY_INPUT);
+        
+        assertThat(hash).isEqualTo(EMPTY_HASH);
+    }
+    
+    @Test
+    public void digestShortInput()
+    {
+        byte[] hash = new Murmur3MessageDigest().digest(SHORT_INPUT);
+        
+        assertThat(hash).isEqualTo(SHORT_HASH);
+    }
+    
+    @Test
+    public void digestSomeInput()
+    {
+        byte[] hash = new Murmur3MessageDigest().digest(SOME_INPUT);
+        
+        assertThat(hash).isEqualTo(SOME_HASH);
+    }
+    
+    @Test
+    public void digestInputUpdatedByParts()
+    {
+        MessageDigest digest = new Murmur3MessageDigest();
+        digest.update(BLOCKS_INPUT, 0, 3);
+        digest.update(BLOCKS_INPUT[3]);
+        digest.update(BLOCKS_INPUT, 4, 17);
+        digest.update(BLOCKS_INPUT, 21, BLOCKS_INPUT.length - 21);
+        
+        byte[] hash = digest.digest();
+        
+        assertThat(hash).isEqualTo(BLOCKS_HASH);
+    }
+    
+    @Test
+    public void digestInputFromDirectBuffer()
+    {
+        ByteBuffer buf = allocateDirect(BLOCKS_INPUT.length);
+        buf.put(BLOCKS_INPUT);
+        buf.flip();
+        MessageDigest digest = new Murmur3MessageDigest();
+        digest.update(BLOCKS_INPUT[0]);
+        buf.position(1);
+        digest.update(buf);
+        
+        byte[] hash = digest.digest();
+        
+        assertThat(hash).isEqualTo(BLOCKS_HASH);
+    }
+    
+    @Test
+    public void createdByName()
+    throws Exception
+    {
+        MessageDigest digest = withNonCryptographic(MessageDigest::getInstance)
+            .create(MURMUR3_128);
+        
+        assertThat(digest.digest(SOME_INPUT)).isEqualTo(SOME_HASH);
+    }
+}
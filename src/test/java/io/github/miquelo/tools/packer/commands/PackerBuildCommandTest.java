@@ -1,9 +1,542 @@
 package io.github.miquelo.tools.packer.commands;
 
+import static io.github.miquelo.tools.packer.PackerCommandFailureCode
+    .FAILURE_ERROR;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.DATA_UI_SAY;
+import static io.github.miquelo.tools.packer.PackerOutputMessage
+    .TYPE_ARTIFACT_COUNT;
+import static io.github.miquelo.tools.packer.PackerOutputMessage.TYPE_UI;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .MURMUR3_128;
+import static io.github.miquelo.tools.packer.commands.MessageDigestCreator
+    .withNonCryptographic;
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.createSymbolicLink;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.write;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import io.github.miquelo.tools.packer.PackerCommandLogger;
+import io.github.miquelo.tools.packer.PackerOutputMessage;
+import io.github.miquelo.tools.packer.TimeoutHandler;
+
 @ExtendWith(MockitoExtension.class)
 public class PackerBuildCommandTest
 {
+    private static final boolean PARANOID = true;
+    private static final boolean NOT_PARANOID = false;
+    
+    private static final String SOME_ALGORITHM = "SHA-256";
+    private static final String OTHER_ALGORITHM = MURMUR3_128;
+    
+    private static final String SOME_PACKER_VERSION = "1.0.0";
+    private static final String OTHER_PACKER_VERSION = "1.1.0";
+    
+    private static final String SOME_BUILDER = "some-builder";
+    private static final String OTHER_BUILDER = "other-builder";
+    
+    private static final String TEMPLATE_PATH = "template.json";
+    private static final byte[] SOME_TEMPLATE = (
+        "{\"provisioners\": [{"
+        + "\"type\": \"shell\", \"script\": \"some-file\"}]}")
+        .getBytes();
+    
+    private static final String SOME_FILE_NAME = "some-file";
+    private static final String OTHER_FILE_NAME = "other-file";
+    private static final String EXCLUDED_DIR_NAME = "packer_cache";
+    private static final String INPUT_DIR_NAME = "input";
+    private static final String BUILD_CACHE_DIR_NAME = "builds";
+    private static final byte[] SOME_CONTENT = "some-content".getBytes();
+    private static final byte[] OTHER_CONTENT = "other-content".getBytes();
+    
+    @Mock
+    private PackerCommandLogger logger;
+    
+    @Mock
+    private TimeoutHandler timeoutHandler;
+    
+    private final AtomicInteger digestCount;
+    private final List<PackerBuildCommand> commands;
+    
+    public PackerBuildCommandTest()
+    {
+        logger = null;
+        timeoutHandler = null;
+        digestCount = new AtomicInteger();
+        commands = new ArrayList<>();
+    }
+    
+    @AfterEach
+    public void awaitChecksumUpdates()
+    {
+        commands.forEach(PackerBuildCommand::onSuccess);
+    }
+    
+    @Test
+    public void runWhenThereIsNoPreviousChecksum(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void ignoreWhenThereIsNotAnyChange(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isFalse();
+    }
+    
+    @Test
+    public void runWhenSomeFileHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), OTHER_CONTENT);
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void runWhenSomeLinkedFileHasChanged(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path target = dir.toPath().resolve(OTHER_FILE_NAME);
+        write(target, SOME_CONTENT);
+        File inputDir = createDirectory(dir.toPath().resolve(INPUT_DIR_NAME))
+            .toFile();
+        createSymbolicLink(inputDir.toPath().resolve(SOME_FILE_NAME), target);
+        build(command(inputDir, NOT_PARANOID));
+        write(target, OTHER_CONTENT);
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void doNotHashFilesWithSameMetadata(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        digestCount.set(0);
+        
+        build(command(inputDir, NOT_PARANOID));
+        
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void doNotHashFilesAlreadyFingerprinted(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        command(inputDir, NOT_PARANOID).fingerprint(logger);
+        digestCount.set(0);
+        
+        build(command(inputDir, NOT_PARANOID));
+        
+        assertThat(digestCount.get()).isZero();
+    }
+    
+    @Test
+    public void hashFilesWithSameMetadataWhenParanoid(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        digestCount.set(0);
+        
+        build(command(inputDir, PARANOID));
+        
+        assertThat(digestCount.get()).isOne();
+    }
+    
+    @Test
+    public void runWhenAlgorithmHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, SOME_ALGORITHM, NOT_PARANOID));
+        
+        boolean run = command(inputDir, OTHER_ALGORITHM, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void runWhenSomeFileHasBeenRemoved(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        write(inputDir.toPath().resolve(OTHER_FILE_NAME), OTHER_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        delete(inputDir.toPath().resolve(OTHER_FILE_NAME));
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void ignoreWhenSomeUnreferencedFileHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(TEMPLATE_PATH), SOME_TEMPLATE);
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        write(inputDir.toPath().resolve(OTHER_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, SOME_ALGORITHM, NOT_PARANOID, true));
+        write(inputDir.toPath().resolve(OTHER_FILE_NAME), OTHER_CONTENT);
+        
+        boolean run = command(inputDir, SOME_ALGORITHM, NOT_PARANOID, true)
+            .init(logger, timeoutHandler);
+        
+        assertThat(run).isFalse();
+    }
+    
+    @Test
+    public void runWhenSomeReferencedFileHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(TEMPLATE_PATH), SOME_TEMPLATE);
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, SOME_ALGORITHM, NOT_PARANOID, true));
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), OTHER_CONTENT);
+        
+        boolean run = command(inputDir, SOME_ALGORITHM, NOT_PARANOID, true)
+            .init(logger, timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void ignoreWhenSomeFileInExcludedDirHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        Path excludedDir = createDirectory(inputDir.toPath().resolve(
+            EXCLUDED_DIR_NAME));
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        write(excludedDir.resolve(OTHER_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        write(excludedDir.resolve(OTHER_FILE_NAME), OTHER_CONTENT);
+        
+        boolean run = command(inputDir, NOT_PARANOID).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isFalse();
+    }
+    
+    @Test
+    public void sameInputHashWhenIgnored(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        PackerBuildCommand previous = command(inputDir, NOT_PARANOID);
+        build(previous);
+        PackerBuildCommand command = command(inputDir, NOT_PARANOID);
+        
+        command.init(logger, timeoutHandler);
+        
+        assertThat(command.getInputHash())
+            .isPresent()
+            .isEqualTo(previous.getInputHash());
+    }
+    
+    @Test
+    public void otherInputHashWhenSomeFileHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        PackerBuildCommand previous = command(inputDir, NOT_PARANOID);
+        build(previous);
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), OTHER_CONTENT);
+        PackerBuildCommand command = command(inputDir, NOT_PARANOID);
+        
+        build(command);
+        
+        assertThat(command.getInputHash())
+            .isPresent()
+            .isNotEqualTo(previous.getInputHash());
+    }
+    
+    @Test
+    public void runWhenPackerVersionHasChanged(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(command(inputDir, NOT_PARANOID));
+        
+        boolean run = command(
+            inputDir,
+            SOME_ALGORITHM,
+            NOT_PARANOID,
+            false,
+            OTHER_PACKER_VERSION,
+            Optional.empty())
+            .init(logger, timeoutHandler);
+        
+        assertThat(run).isTrue();
+    }
+    
+    @Test
+    public void ignoreWhenBuildResultIsCached(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        File inputDir = new File(dir, INPUT_DIR_NAME);
+        File buildCacheDir = new File(dir, BUILD_CACHE_DIR_NAME);
+        createDirectory(inputDir.toPath());
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        build(cachedCommand(inputDir, buildCacheDir));
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), OTHER_CONTENT);
+        build(cachedCommand(inputDir, buildCacheDir));
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        
+        boolean run = cachedCommand(inputDir, buildCacheDir).init(
+            logger,
+            timeoutHandler);
+        
+        assertThat(run).isFalse();
+    }
+    
+    @Test
+    public void exceptBuildersAlreadyBuilt(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        PackerBuildCommand previous = command(inputDir, NOT_PARANOID);
+        previous.init(logger, timeoutHandler);
+        previous.onOutputMessage(artifactCount(SOME_BUILDER));
+        previous.onOutputMessage(uiMessage(OTHER_BUILDER));
+        previous.onFailure(FAILURE_ERROR);
+        PackerBuildCommand command = command(inputDir, NOT_PARANOID);
+        
+        boolean run = command.init(logger, timeoutHandler);
+        
+        assertThat(run).isTrue();
+        assertThat(command.getArguments())
+            .containsSubsequence("-except", SOME_BUILDER);
+    }
+    
+    @Test
+    public void doNotExceptBuildersWhenEveryOneIsUpToDate(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        PackerBuildCommand previous = command(inputDir, NOT_PARANOID);
+        previous.init(logger, timeoutHandler);
+        previous.onOutputMessage(artifactCount(SOME_BUILDER));
+        previous.onFailure(FAILURE_ERROR);
+        PackerBuildCommand command = command(inputDir, NOT_PARANOID);
+        
+        boolean run = command.init(logger, timeoutHandler);
+        
+        assertThat(run).isTrue();
+        assertThat(command.getArguments()).doesNotContain("-except");
+    }
+    
+    @Test
+    public void doNotExceptBuildersBuiltWithOtherInput(
+        @TempDir
+        File inputDir)
+    throws Exception
+    {
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), SOME_CONTENT);
+        PackerBuildCommand previous = command(inputDir, NOT_PARANOID);
+        previous.init(logger, timeoutHandler);
+        previous.onOutputMessage(artifactCount(SOME_BUILDER));
+        previous.onFailure(FAILURE_ERROR);
+        write(inputDir.toPath().resolve(SOME_FILE_NAME), OTHER_CONTENT);
+        PackerBuildCommand command = command(inputDir, NOT_PARANOID);
+        
+        boolean run = command.init(logger, timeoutHandler);
+        
+        assertThat(run).isTrue();
+        assertThat(command.getArguments()).doesNotContain("-except");
+    }
+    
+    private void build(PackerBuildCommand command)
+    throws Exception
+    {
+        if (command.init(logger, timeoutHandler))
+            command.onSuccess();
+    }
+    
+    private PackerBuildCommand command(File inputDir, boolean paranoid)
+    {
+        return command(inputDir, SOME_ALGORITHM, paranoid);
+    }
+    
+    private PackerBuildCommand command(
+        File inputDir,
+        String algorithm,
+        boolean paranoid)
+    {
+        return command(inputDir, algorithm, paranoid, false);
+    }
+    
+    private PackerBuildCommand command(
+        File inputDir,
+        String algorithm,
+        boolean paranoid,
+        boolean templateDependencies)
+    {
+        return command(
+            inputDir,
+            algorithm,
+            paranoid,
+            templateDependencies,
+            SOME_PACKER_VERSION,
+            Optional.empty());
+    }
+    
+    private PackerBuildCommand command(
+        File inputDir,
+        String algorithm,
+        boolean paranoid,
+        boolean templateDependencies,
+        String packerVersion,
+        Optional<File> buildCacheDir)
+    {
+        PackerBuildCommand command = new PackerBuildCommand(
+            withNonCryptographic(this::digestCreate),
+            algorithm,
+            inputDir,
+            1,
+            paranoid,
+            templateDependencies,
+            emptySet(),
+            singleton(EXCLUDED_DIR_NAME),
+            emptyMap(),
+            Optional.empty(),
+            true,
+            true,
+            packerVersion,
+            buildCacheDir,
+            Long.MAX_VALUE,
+            TEMPLATE_PATH,
+            false,
+            emptySet(),
+            emptySet(),
+            emptyMap(),
+            emptySet());
+        commands.add(command);
+        return command;
+    }
+    
+    private PackerBuildCommand cachedCommand(File inputDir, File buildCacheDir)
+    {
+        return command(
+            inputDir,
+            SOME_ALGORITHM,
+            NOT_PARANOID,
+            false,
+            SOME_PACKER_VERSION,
+            Optional.of(buildCacheDir));
+    }
+    
+    private static PackerOutputMessage artifactCount(String builder)
+    {
+        return new CachedOutputMessage(
+            Instant.EPOCH,
+            builder,
+            TYPE_ARTIFACT_COUNT,
+            new String[] { "1" });
+    }
+    
+    private static PackerOutputMessage uiMessage(String builder)
+    {
+        return new CachedOutputMessage(
+            Instant.EPOCH,
+            builder,
+            TYPE_UI,
+            new String[] { DATA_UI_SAY, "Some message" });
+    }
+    
+    private MessageDigest digestCreate(String algorithm)
+    throws NoSuchAlgorithmException
+    {
+        digestCount.incrementAndGet();
+        return MessageDigest.getInstance(algorithm);
+    }
 }
@@ -0,0 +1,370 @@
+package io.github.miquelo.tools.packer.commands;
+
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.write;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TemplateDependenciesTest
+{
+    private static final String JSON_TEMPLATE_PATH = "template.json";
+    private static final String HCL_TEMPLATE_PATH = "template.pkr.hcl";
+    private static final String TEMPLATE_DIR_PATH = "templates";
+    private static final String SOME_VAR_FILE_PATH = "some.vars.json";
+    
+    private static final byte[] JSON_TEMPLATE = (
+        "{\n"
+        + "  \"builders\": [{\n"
+        + "    \"type\": \"qemu\",\n"
+        + "    \"iso_url\": \"https://example.org/some.iso\",\n"
+        + "    \"http_directory\": \"http\"\n"
+        + "  }],\n"
+        + "  \"provisioners\": [{\n"
+        + "    \"type\": \"shell\",\n"
+        + "    \"scripts\": [\"scripts/a.sh\", \"scripts/b.sh\"]\n"
+        + "  }, {\n"
+        + "    \"type\": \"file\",\n"
+        + "    \"source\": \"{{template_dir}}/files/some.conf\",\n"
+        + "    \"destination\": \"/etc/some.conf\"\n"
+        + "  }, {\n"
+        + "    \"type\": \"file\",\n"
+        + "    \"direction\": \"download\",\n"
+        + "    \"source\": \"/var/log/some.log\",\n"
+        + "    \"destination\": \"some.log\"\n"
+        + "  }]\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] JSON_TEMPLATE_WITH_USER_VARIABLE = (
+        "{\n"
+        + "  \"provisioners\": [{\n"
+        + "    \"type\": \"shell\",\n"
+        + "    \"script\": \"{{user `script`}}\"\n"
+        + "  }]\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE = (
+        "source \"qemu\" \"some\" {\n"
+        + "  http_directory = \"${path.root}/http\"\n"
+        + "  boot_command   = [\"<enter>\"]\n"
+        + "}\n"
+        + "build {\n"
+        + "  sources = [\"source.qemu.some\"]\n"
+        + "  provisioner \"shell\" {\n"
+        + "    script = \"scripts/a.sh\"\n"
+        + "    environment_vars = [\"KEY=${file(\"keys/some.key\")}\"]\n"
+        + "  }\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_VARIABLE = (
+        "build {\n"
+        + "  provisioner \"shell\" {\n"
+        + "    script = var.script\n"
+        + "  }\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_LOCAL = (
+        "build {\n"
+        + "  provisioner \"shell\" {\n"
+        + "    scripts = local.scripts\n"
+        + "  }\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_INDEX = (
+        "build {\n"
+        + "  provisioner \"shell\" {\n"
+        + "    scripts = [\n"
+        + "      local.a[0],\n"
+        + "      \"scripts/b.sh\"\n"
+        + "    ]\n"
+        + "  }\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_FILE_VARIABLE = (
+        "source \"qemu\" \"some\" {\n"
+        + "  boot_command = [file(var.boot)]\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] JSON_TEMPLATE_WITH_LOCAL_SOURCES = (
+        "{\n"
+        + "  \"builders\": [{\n"
+        + "    \"type\": \"virtualbox-ovf\",\n"
+        + "    \"source_path\": \"images/some.ovf\",\n"
+        + "    \"ssh_private_key_file\": \"keys/some.pem\",\n"
+        + "    \"output_directory\": \"output-some\"\n"
+        + "  }, {\n"
+        + "    \"type\": \"qemu\",\n"
+        + "    \"iso_url\": \"file://images/some.iso?archive=false\"\n"
+        + "  }, {\n"
+        + "    \"type\": \"amazon-ebs\",\n"
+        + "    \"user_data_file\": \"{{template_dir}}/user-data\"\n"
+        + "  }]\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] JSON_TEMPLATE_WITH_EXTRA_ARGUMENTS = (
+        "{\n"
+        + "  \"provisioners\": [{\n"
+        + "    \"type\": \"ansible\",\n"
+        + "    \"playbook_file\": \"some.yml\",\n"
+        + "    \"extra_arguments\": [\"--extra-vars\", \"@vars.yml\"]\n"
+        + "  }]\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_UNKNOWN_PATH = (
+        "source \"vmware-iso\" \"some\" {\n"
+        + "  vmx_template_path = \"custom.vmx\"\n"
+        + "}\n").getBytes();
+    
+    private static final byte[] HCL_TEMPLATE_WITH_HTTP_CONTENT = (
+        "source \"qemu\" \"some\" {\n"
+        + "  http_content = {\n"
+        + "    \"/ks.cfg\" = templatefile(\"ks.pkrtpl\", {})\n"
+        + "  }\n"
+        + "}\n").getBytes();
+    
+    public TemplateDependenciesTest()
+    {
+    }
+    
+    @Test
+    public void resolveJsonTemplateDependencies(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        Path templateDir = createDirectory(workingDir.resolve(
+            TEMPLATE_DIR_PATH));
+        write(templateDir.resolve(JSON_TEMPLATE_PATH), JSON_TEMPLATE);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            TEMPLATE_DIR_PATH + "/" + JSON_TEMPLATE_PATH,
+            singleton(SOME_VAR_FILE_PATH));
+        
+        assertThat(dependencies.get()).containsExactlyInAnyOrder(
+            templateDir.resolve(JSON_TEMPLATE_PATH),
+            workingDir.resolve("http"),
+            workingDir.resolve("scripts/a.sh"),
+            workingDir.resolve("scripts/b.sh"),
+            templateDir.resolve("files/some.conf"),
+            workingDir.resolve(SOME_VAR_FILE_PATH));
+    }
+    
+    @Test
+    public void resolveHclTemplateDependencies(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(workingDir.resolve(HCL_TEMPLATE_PATH), HCL_TEMPLATE);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies.get()).contains(
+            workingDir.resolve(HCL_TEMPLATE_PATH),
+            workingDir.resolve("http"),
+            workingDir.resolve("scripts/a.sh"),
+            workingDir.resolve("keys/some.key"));
+    }
+    
+    @Test
+    public void resolveLocalSourceDependencies(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        Path templateDir = createDirectory(workingDir.resolve(
+            TEMPLATE_DIR_PATH));
+        write(
+            templateDir.resolve(JSON_TEMPLATE_PATH),
+            JSON_TEMPLATE_WITH_LOCAL_SOURCES);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            TEMPLATE_DIR_PATH + "/" + JSON_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies.get()).containsExactlyInAnyOrder(
+            templateDir.resolve(JSON_TEMPLATE_PATH),
+            workingDir.resolve("images/some.ovf"),
+            workingDir.resolve("keys/some.pem"),
+            workingDir.resolve("images/some.iso"),
+            templateDir.resolve("user-data"));
+    }
+    
+    @Test
+    public void unresolvableWhenSomeAttributeHasArguments(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(JSON_TEMPLATE_PATH),
+            JSON_TEMPLATE_WITH_EXTRA_ARGUMENTS);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            JSON_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomeUnknownAttributeLooksLikePath(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(HCL_TEMPLATE_PATH),
+            HCL_TEMPLATE_WITH_UNKNOWN_PATH);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomeAttributeHasInlineContent(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(HCL_TEMPLATE_PATH),
+            HCL_TEMPLATE_WITH_HTTP_CONTENT);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomeReferenceHasUserVariable(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(JSON_TEMPLATE_PATH),
+            JSON_TEMPLATE_WITH_USER_VARIABLE);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            JSON_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomePathAttributeHasVariable(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(HCL_TEMPLATE_PATH),
+            HCL_TEMPLATE_WITH_VARIABLE);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomePathAttributeHasLocal(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(workingDir.resolve(HCL_TEMPLATE_PATH), HCL_TEMPLATE_WITH_LOCAL);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomePathAttributeHasIndex(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(workingDir.resolve(HCL_TEMPLATE_PATH), HCL_TEMPLATE_WITH_INDEX);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenSomeFileFunctionHasVariable(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Path workingDir = dir.toPath();
+        write(
+            workingDir.resolve(HCL_TEMPLATE_PATH),
+            HCL_TEMPLATE_WITH_FILE_VARIABLE);
+        
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            workingDir,
+            HCL_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+    
+    @Test
+    public void unresolvableWhenTemplateIsMissing(
+        @TempDir
+        File dir)
+    throws Exception
+    {
+        Optional<Set<Path>> dependencies = TemplateDependencies.resolve(
+            dir.toPath(),
+            JSON_TEMPLATE_PATH,
+            emptySet());
+        
+        assertThat(dependencies).isEmpty();
+    }
+}